@@ -1,9 +1,17 @@
 package net.glowstone;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import net.glowstone.constants.GlowBiome;
 import net.glowstone.generator.GlowChunkGenerator;
 import net.glowstone.generator.biomegrid.MapLayer;
 import net.glowstone.io.ChunkIoService;
+import net.glowstone.io.ChunkIoService.DecodedChunk;
+import net.glowstone.util.collection.ConcurrentLongObjectMap;
+import net.glowstone.util.nbt.CompoundTag;
 import org.bukkit.block.Biome;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkPopulateEvent;
@@ -12,8 +20,10 @@ import org.bukkit.generator.ChunkGenerator;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -46,12 +56,120 @@ public final class ChunkManager {
     /**
      * A map of chunks currently loaded in memory.
      */
-    private final ConcurrentMap<GlowChunk.Key, GlowChunk> chunks = new ConcurrentHashMap<>();
+    private final ConcurrentLongObjectMap<GlowChunk> chunks = new ConcurrentLongObjectMap<>();
 
     /**
-     * A map of chunks which are being kept loaded by players or other factors.
+     * The chunk most recently looked up by the world thread, checked before
+     * the map since block access tends to hit the same chunk many times in a
+     * row. Only used from the world thread, so other threads neither pay to
+     * share it nor evict it for each other.
      */
-    private final ConcurrentMap<GlowChunk.Key, Set<ChunkLock>> locks = new ConcurrentHashMap<>();
+    private GlowChunk lastChunk;
+
+    /**
+     * The thread which ticks the world, as of the last tick.
+     */
+    private volatile Thread worldThread;
+
+    /**
+     * The number of tickets keeping each chunk loaded, by packed chunk key.
+     */
+    private final ConcurrentLongObjectMap<TicketCount> tickets = new ConcurrentLongObjectMap<>();
+
+    /**
+     * The ticket holders which currently hold at least one ticket. Only used
+     * to describe the tickets on a chunk for debugging.
+     */
+    private final Set<ChunkLock> ticketHolders = Collections.newSetFromMap(new ConcurrentHashMap<ChunkLock, Boolean>());
+
+    /**
+     * Tickets with an expiry time, soonest first.
+     */
+    private final Queue<Ticket> expiringTickets = new PriorityBlockingQueue<>();
+
+    /**
+     * The number of times tickets have been expired, used as the clock for
+     * ticket expiry and unloading.
+     */
+    private volatile long ticketTick;
+
+    /**
+     * Chunks which have lost their last ticket, in the order they did so.
+     * Only the latest entry for each chunk, as recorded in unloadEntries,
+     * is acted upon.
+     */
+    private final Queue<UnloadEntry> unloadQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The most recent unload queue entry for each chunk.
+     */
+    private final ConcurrentLongObjectMap<UnloadEntry> unloadEntries = new ConcurrentLongObjectMap<>();
+
+    /**
+     * Chunks to be unloaded as soon as the per-tick budget allows, rather
+     * than after the unload delay, with whether to keep their data in the
+     * recently unloaded cache. Only used from the world thread.
+     */
+    private final Map<Long, Boolean> immediateUnloads = new LinkedHashMap<>();
+
+    /**
+     * Loaded chunks waiting to be written by a rolling autosave.
+     */
+    private final Set<GlowChunk> saveQueue = new LinkedHashSet<>();
+
+    /**
+     * Chunks whose rolling autosave write failed, to be queued again by the
+     * world thread.
+     */
+    private final Queue<GlowChunk> failedSaves = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Totals of chunks unloaded and saved by the rolling unloader.
+     */
+    private long unloadedCount, savedCount;
+
+    /**
+     * The number of autosaves queued so far.
+     */
+    private int autosaves;
+
+    /**
+     * Asynchronous load requests which have not yet been installed into the world.
+     */
+    private final ConcurrentLongObjectMap<LoadRequest> pendingLoads = new ConcurrentLongObjectMap<>();
+
+    /**
+     * Load requests which have been read or generated and are waiting to be
+     * installed on the world thread.
+     */
+    private final Queue<LoadRequest> finishedLoads = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The worker pool which reads and generates chunks for asynchronous loads.
+     */
+    private final ThreadPoolExecutor loadExecutor;
+
+    /**
+     * Sequence counter used to keep load requests of equal priority in order.
+     */
+    private final AtomicLong loadSequence = new AtomicLong();
+
+    /**
+     * The pool which runs the chunk generator, sized to the available cores.
+     */
+    private final ForkJoinPool generationPool;
+
+    /**
+     * Lock held while running a chunk generator which is not one of ours and
+     * so can't be assumed to be reentrant.
+     */
+    private final Object generatorLock = new Object();
+
+    /**
+     * The data of recently unloaded chunks, kept so that chunks which are
+     * needed again soon after unloading don't have to be read back from disk.
+     */
+    private final Map<GlowChunk.Key, DecodedChunk> recentlyUnloaded;
 
     /**
      * Creates a new chunk manager with the specified I/O service and world
@@ -64,6 +182,20 @@ public final class ChunkManager {
         this.service = service;
         this.generator = generator;
         biomeGrid = MapLayer.initialize(world.getSeed(), world.getEnvironment(), world.getWorldType());
+
+        final int cacheSize = world.getServer().getUnloadedChunkCacheSize();
+        recentlyUnloaded = Collections.synchronizedMap(new LinkedHashMap<GlowChunk.Key, DecodedChunk>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GlowChunk.Key, DecodedChunk> eldest) {
+                return size() > cacheSize;
+            }
+        });
+
+        int threads = Math.max(1, world.getServer().getChunkLoadThreads());
+        loadExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new LoaderThreadFactory(world.getName()));
+        generationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                new GeneratorThreadFactory(world.getName()), null, false);
     }
 
     /**
@@ -81,16 +213,42 @@ public final class ChunkManager {
      * @return The chunk.
      */
     public GlowChunk getChunk(int x, int z) {
-        GlowChunk.Key key = new GlowChunk.Key(x, z);
-        if (chunks.containsKey(key)) {
-            return chunks.get(key);
-        } else {
+        GlowChunk chunk = peekChunk(x, z);
+        if (chunk == null) {
             // only create chunk if it's not in the map already
-            GlowChunk chunk = new GlowChunk(world, x, z);
-            GlowChunk prev = chunks.putIfAbsent(key, chunk);
+            chunk = new GlowChunk(world, x, z);
+            GlowChunk prev = chunks.putIfAbsent(GlowChunk.Key.pack(x, z), chunk);
             // if it was created in the intervening time, the earlier one wins
-            return prev == null ? chunk : prev;
+            if (prev != null) {
+                chunk = prev;
+            } else {
+                // discarded later if it is never loaded or given a ticket
+                scheduleUnloadIfUnused(x, z);
+            }
+            if (Thread.currentThread() == worldThread) {
+                lastChunk = chunk;
+            }
         }
+        return chunk;
+    }
+
+    /**
+     * Get the chunk object at the specified coordinates if one exists,
+     * without creating it.
+     */
+    private GlowChunk peekChunk(int x, int z) {
+        if (Thread.currentThread() != worldThread) {
+            return chunks.get(GlowChunk.Key.pack(x, z));
+        }
+        GlowChunk chunk = lastChunk;
+        if (chunk != null && chunk.getX() == x && chunk.getZ() == z && !chunk.isEvicted()) {
+            return chunk;
+        }
+        chunk = chunks.get(GlowChunk.Key.pack(x, z));
+        if (chunk != null) {
+            lastChunk = chunk;
+        }
+        return chunk;
     }
 
     /**
@@ -100,20 +258,78 @@ public final class ChunkManager {
      * @return true if the chunk is loaded, otherwise false.
      */
     public boolean isChunkLoaded(int x, int z) {
-        GlowChunk.Key key = new GlowChunk.Key(x, z);
-        return chunks.containsKey(key) && chunks.get(key).isLoaded();
+        GlowChunk chunk = peekChunk(x, z);
+        return chunk != null && chunk.isLoaded();
     }
 
     /**
-     * Check whether a chunk has locks on it preventing it from being unloaded.
+     * Check whether a chunk has tickets on it preventing it from being unloaded.
      * @param x The X coordinate.
      * @param z The Z coordinate.
      * @return Whether the chunk is in use.
      */
     public boolean isChunkInUse(int x, int z) {
-        GlowChunk.Key key = new GlowChunk.Key(x, z);
-        Set<ChunkLock> lockSet = locks.get(key);
-        return lockSet != null && lockSet.size() != 0;
+        return getTicketCount(x, z) > 0;
+    }
+
+    /**
+     * Get the number of tickets held on a chunk.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @return The number of tickets.
+     */
+    public int getTicketCount(int x, int z) {
+        TicketCount count = tickets.get(GlowChunk.Key.pack(x, z));
+        return count == null ? 0 : Math.max(0, count.total.get());
+    }
+
+    /**
+     * Get the number of tickets of a given type held on a chunk.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @param type The ticket type.
+     * @return The number of tickets.
+     */
+    public int getTicketCount(int x, int z, TicketType type) {
+        TicketCount count = tickets.get(GlowChunk.Key.pack(x, z));
+        return count == null ? 0 : count.byType.get(type.ordinal());
+    }
+
+    /**
+     * Find the holders of the tickets on a chunk. This checks every ticket
+     * holder and is meant for debugging only.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @return The ticket holders.
+     */
+    public List<ChunkLock> getTicketHolders(int x, int z) {
+        List<ChunkLock> result = new ArrayList<>();
+        for (ChunkLock holder : ticketHolders) {
+            if (holder.holds(x, z)) {
+                result.add(holder);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Advance the ticket clock and release tickets which have expired. Must
+     * be called once per world tick, from the thread which ticks the world.
+     */
+    public void expireTickets() {
+        Thread current = Thread.currentThread();
+        if (worldThread != current) {
+            // ticked by a new thread, which must not trust the old one's cache
+            worldThread = current;
+            lastChunk = null;
+        }
+
+        long now = ++ticketTick;
+        Ticket ticket;
+        while ((ticket = expiringTickets.peek()) != null && ticket.expiry <= now) {
+            ticket = expiringTickets.poll();
+            ticket.holder.expire(ticket);
+        }
     }
 
     /**
@@ -125,11 +341,28 @@ public final class ChunkManager {
      */
     public boolean loadChunk(int x, int z, boolean generate) {
         GlowChunk chunk = getChunk(x, z);
+        if (chunk.isLoaded()) {
+            return true;
+        }
+
+        // reuse the data if the chunk was unloaded recently
+        DecodedChunk cached = recentlyUnloaded.remove(new GlowChunk.Key(x, z));
+        if (cached != null) {
+            service.install(chunk, cached);
+            chunk.markSaved();
+            invalidatePendingLoad(x, z);
+            EventFactory.callEvent(new ChunkLoadEvent(chunk, false));
+            scheduleUnloadIfUnused(x, z);
+            return true;
+        }
 
         // try to load chunk
         try {
             if (service.read(chunk)) {
+                chunk.markSaved();
+                invalidatePendingLoad(x, z);
                 EventFactory.callEvent(new ChunkLoadEvent(chunk, false));
+                scheduleUnloadIfUnused(x, z);
                 return true;
             }
         } catch (Exception e) {
@@ -141,6 +374,7 @@ public final class ChunkManager {
 
         // stop here if we can't generate
         if (!generate) {
+            scheduleUnloadIfUnused(x, z);
             return false;
         }
 
@@ -149,10 +383,13 @@ public final class ChunkManager {
             generateChunk(chunk, x, z);
         } catch (Throwable ex) {
             GlowServer.logger.log(Level.SEVERE, "Error while generating chunk (" + x + "," + z + ")", ex);
+            scheduleUnloadIfUnused(x, z);
             return false;
         }
 
+        invalidatePendingLoad(x, z);
         EventFactory.callEvent(new ChunkLoadEvent(chunk, true));
+        scheduleUnloadIfUnused(x, z);
 
         // right now, forcePopulate takes care of populating chunks that players actually see.
         /*for (int x2 = x - 1; x2 <= x + 1; ++x2) {
@@ -164,24 +401,438 @@ public final class ChunkManager {
     }
 
     /**
-     * Unload chunks with no locks on them.
+     * Request that a chunk be loaded without blocking the calling thread. The
+     * chunk is read or generated on a worker thread and installed into the
+     * world during a later world tick. Requests for a chunk which is already
+     * being loaded are merged, keeping the lowest priority value.
+     * @param x The X coordinate of the chunk to load.
+     * @param z The Z coordinate of the chunk to load.
+     * @param generate Whether to generate the chunk if needed.
+     * @param priority The squared distance in chunks to the nearest interested
+     *                 player; lower values are loaded first.
+     * @return A future completed on the world thread with the chunk, which
+     * will not be loaded if it did not exist and could not be generated.
+     */
+    public ListenableFuture<GlowChunk> loadChunkAsync(int x, int z, boolean generate, int priority) {
+        if (isChunkLoaded(x, z)) {
+            return immediateChunk(x, z);
+        }
+
+        long key = GlowChunk.Key.pack(x, z);
+        LoadRequest request = pendingLoads.get(key);
+        if (request == null) {
+            LoadRequest created = new LoadRequest(x, z, generate, priority);
+            request = pendingLoads.putIfAbsent(key, created);
+            if (request == null) {
+                DecodedChunk cached = recentlyUnloaded.remove(new GlowChunk.Key(x, z));
+                if (cached != null) {
+                    // no need to go through the workers, just install it on the next tick
+                    created.data = cached;
+                    finishedLoads.add(created);
+                } else {
+                    loadExecutor.execute(created);
+                }
+                return created.future;
+            }
+        }
+
+        // merge with the request already in flight
+        if (generate) {
+            request.generate = true;
+        }
+        if (priority < request.priority && loadExecutor.remove(request)) {
+            // re-queue so the new priority takes effect
+            request.priority = priority;
+            loadExecutor.execute(request);
+        }
+        return request.future;
+    }
+
+    /**
+     * Install chunks which have finished loading asynchronously. Must be
+     * called from the world thread.
+     */
+    public void processPendingLoads() {
+        LoadRequest request;
+        while ((request = finishedLoads.poll()) != null) {
+            GlowChunk chunk = getChunk(request.x, request.z);
+            if (!chunk.isLoaded()) {
+                DecodedChunk cached = recentlyUnloaded.remove(new GlowChunk.Key(request.x, request.z));
+                if (cached != null) {
+                    // unloaded since the request was read, so this is newer
+                    request.data = cached;
+                    request.generated = false;
+                } else if (request.stale || request.data == null && request.generate && !request.triedGenerate) {
+                    // read before the chunk was last loaded or unloaded, or found
+                    // missing before a merged request asked for it to be generated
+                    request.restart();
+                    loadExecutor.execute(request);
+                    continue;
+                }
+            }
+            pendingLoads.remove(GlowChunk.Key.pack(request.x, request.z), request);
+
+            // the chunk may have been loaded synchronously in the meantime
+            if (!chunk.isLoaded() && request.data != null) {
+                try {
+                    if (request.generated) {
+                        installGenerated(chunk, request.data);
+                    } else {
+                        service.install(chunk, request.data);
+                        chunk.markSaved();
+                    }
+                    EventFactory.callEvent(new ChunkLoadEvent(chunk, request.generated));
+                    scheduleUnloadIfUnused(request.x, request.z);
+                } catch (Exception e) {
+                    GlowServer.logger.log(Level.SEVERE, "Error while installing chunk (" + request.x + "," + request.z + ")", e);
+                    chunk.unload(false, false);
+                }
+            }
+            if (!chunk.isLoaded()) {
+                // nothing was loaded, so the chunk object is discarded later
+                scheduleUnloadIfUnused(request.x, request.z);
+            }
+            request.future.set(chunk);
+        }
+    }
+
+    /**
+     * Get the number of asynchronous load requests which are queued or in progress.
+     * @return The number of pending loads.
+     */
+    public int getPendingLoadCount() {
+        return pendingLoads.size();
+    }
+
+    /**
+     * Stop the asynchronous load workers, discarding any queued requests.
+     */
+    public void shutdown() {
+        loadExecutor.shutdownNow();
+        generationPool.shutdownNow();
+    }
+
+    private ListenableFuture<GlowChunk> immediateChunk(int x, int z) {
+        SettableFuture<GlowChunk> future = SettableFuture.create();
+        future.set(getChunk(x, z));
+        return future;
+    }
+
+    /**
+     * Unload chunks with no tickets on them, and discard chunk objects which
+     * are no longer loaded.
      */
     public void unloadOldChunks() {
-        for (Map.Entry<GlowChunk.Key, GlowChunk> entry : chunks.entrySet()) {
-            Set<ChunkLock> lockSet = locks.get(entry.getKey());
-            if (lockSet == null || lockSet.size() == 0) {
-                if (!entry.getValue().unload(true, true)) {
-                    GlowServer.logger.warning("Failed to unload chunk " + world.getName() + ":" + entry.getKey());
+        for (ConcurrentLongObjectMap.Entry<GlowChunk> entry : chunks) {
+            tryUnload(entry.getKey(), entry.getValue(), true);
+        }
+
+        // drop counters for chunks which no longer have any tickets
+        for (ConcurrentLongObjectMap.Entry<TicketCount> entry : tickets) {
+            TicketCount count = entry.getValue();
+            if (count.retire()) {
+                tickets.remove(entry.getKey(), count);
+            }
+        }
+    }
+
+    /**
+     * Unload a chunk if it has no tickets, and discard the chunk object if
+     * it is no longer needed.
+     * @param retain Whether to keep the chunk's data in the recently
+     * unloaded cache.
+     * @return Whether the chunk was loaded and has been unloaded.
+     */
+    private boolean tryUnload(long key, GlowChunk chunk, boolean retain) {
+        TicketCount count = tickets.get(key);
+        if (count != null && count.total.get() > 0) {
+            return false;
+        }
+        boolean wasLoaded = chunk.isLoaded();
+        if (!chunk.unload(true, true, retain)) {
+            GlowServer.logger.warning("Failed to unload chunk " + world.getName() + ":" + chunk.getX() + "," + chunk.getZ());
+            return false;
+        }
+        saveQueue.remove(chunk);
+
+        // GlowBlock and GlowBlockState look their chunk up by coordinates, so unloaded
+        // chunks can be dropped; a new object is created if they are accessed again.
+        // chunks still tracking entities are kept so those entities are not lost.
+        if (chunk.getRawEntities().isEmpty() && !pendingLoads.containsKey(key)) {
+            if (chunks.remove(key, chunk)) {
+                chunk.setEvicted();
+            }
+        }
+        return wasLoaded;
+    }
+
+    /**
+     * Queue a chunk to be saved and unloaded by the rolling unloader ahead
+     * of chunks waiting out the unload delay, if it has no tickets when
+     * reached. Must be called from the world thread.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @param retain Whether to keep the chunk's data in the recently
+     * unloaded cache, which is not worth it for chunks that won't be
+     * needed again soon.
+     */
+    public void queueImmediateUnload(int x, int z, boolean retain) {
+        immediateUnloads.put(GlowChunk.Key.pack(x, z), retain);
+    }
+
+    /**
+     * Get the number of chunks queued by {@link #queueImmediateUnload} which
+     * the rolling unloader has not reached yet.
+     * @return The number of chunks.
+     */
+    public int getImmediateUnloadCount() {
+        return immediateUnloads.size();
+    }
+
+    /**
+     * Queue a chunk to be unloaded once it has gone unused for long enough,
+     * if it has no tickets.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     */
+    private void scheduleUnloadIfUnused(int x, int z) {
+        if (!isChunkInUse(x, z)) {
+            scheduleUnload(GlowChunk.Key.pack(x, z));
+        }
+    }
+
+    private void scheduleUnload(long key) {
+        UnloadEntry entry = new UnloadEntry(key, ticketTick);
+        unloadEntries.put(key, entry);
+        unloadQueue.add(entry);
+    }
+
+    /**
+     * Queue the loaded chunks which have changed to be saved over the
+     * following ticks, as part of an autosave. Chunks already waiting from an
+     * earlier autosave are not queued twice. Chunks where only entities have
+     * changed are written every autosave, unless the server is configured to
+     * leave them for every few autosaves.
+     */
+    public void queueAutosave() {
+        int entityInterval = world.getServer().getEntityAutosaveInterval();
+        boolean withEntities = entityInterval <= 1 || ++autosaves % entityInterval == 0;
+        int queued = 0, deferred = 0, skipped = 0;
+        for (GlowChunk chunk : getLoadedChunks()) {
+            if (chunk.isDirty() || withEntities && chunk.isEntityDirty()) {
+                saveQueue.add(chunk);
+                queued++;
+            } else if (chunk.isEntityDirty()) {
+                deferred++;
+            } else {
+                skipped++;
+            }
+        }
+        GlowServer.logger.info("Autosaving " + world.getName() + ": " + queued + " chunks to write, " + skipped
+                + " unchanged skipped, " + deferred + " with only entity changes deferred");
+    }
+
+    /**
+     * Save every loaded chunk which has changed since it was last saved.
+     * Chunks are encoded from their live state, so this must be called from
+     * the world thread, or from the main thread between ticks, where sync
+     * tasks and commands run.
+     * @return The number of chunks written.
+     * @throws IllegalStateException If called from any other thread.
+     */
+    public int saveAll() {
+        if (Thread.currentThread() != worldThread && !world.getServer().isPrimaryThread()) {
+            throw new IllegalStateException("Chunks of " + world.getName() + " saved from " + Thread.currentThread().getName()
+                    + " while the world may be ticking");
+        }
+        int written = 0, skipped = 0, failed = 0;
+        List<ListenableFuture<Void>> writes = new ArrayList<>();
+        for (GlowChunk chunk : getLoadedChunks()) {
+            if (!chunk.isDirty() && !chunk.isEntityDirty()) {
+                skipped++;
+                continue;
+            }
+            ListenableFuture<Void> write = startSave(chunk);
+            if (write == null) {
+                failed++;
+            } else {
+                writes.add(write);
+            }
+        }
+
+        // chunks whose writes fail are left changed, to be written by a later save
+        for (ListenableFuture<Void> write : writes) {
+            try {
+                write.get();
+                written++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        GlowServer.logger.info("Saved " + world.getName() + ": " + written + " chunks written, " + skipped + " unchanged skipped"
+                + (failed > 0 ? ", " + failed + " failed" : ""));
+        return written;
+    }
+
+    /**
+     * Unload chunks queued for immediate unloading and those which have gone
+     * unused for long enough, then continue any rolling autosave, within the
+     * per-tick budget. Must be called from
+     * the world thread once per tick.
+     */
+    public void processUnloadsAndSaves() {
+        GlowServer server = world.getServer();
+        int budget = server.getChunkUnloadsPerTick();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(server.getChunkUnloadMillisPerTick());
+        long cutoff = ticketTick - server.getChunkUnloadDelay();
+
+        Iterator<Map.Entry<Long, Boolean>> immediate = immediateUnloads.entrySet().iterator();
+        while (budget > 0 && immediate.hasNext() && System.nanoTime() <= deadline) {
+            Map.Entry<Long, Boolean> next = immediate.next();
+            immediate.remove();
+            // a chunk which has picked up a ticket since is left to the delayed unloader
+            GlowChunk chunk = chunks.get(next.getKey());
+            if (chunk != null && tryUnload(next.getKey(), chunk, next.getValue())) {
+                unloadedCount++;
+                budget--;
+            }
+        }
+
+        UnloadEntry entry;
+        while (budget > 0 && (entry = unloadQueue.peek()) != null) {
+            if (unloadEntries.get(entry.key) != entry) {
+                // superseded by a later entry for the same chunk
+                unloadQueue.poll();
+                continue;
+            }
+            if (entry.since > cutoff || System.nanoTime() > deadline) {
+                // everything after this entry has been unused for less time
+                break;
+            }
+            unloadQueue.poll();
+            unloadEntries.remove(entry.key, entry);
+
+            TicketCount count = tickets.get(entry.key);
+            if (count != null) {
+                if (count.retire() || count.total.get() < 0) {
+                    tickets.remove(entry.key, count);
+                } else {
+                    // picked up a ticket since; it is queued again when released
+                    continue;
+                }
+            }
+
+            GlowChunk chunk = chunks.get(entry.key);
+            if (chunk != null) {
+                if (tryUnload(entry.key, chunk, true)) {
+                    unloadedCount++;
+                    budget--;
+                }
+                if (chunks.get(entry.key) == chunk) {
+                    // the unload was refused, or the object is kept for its
+                    // entities or a pending load; look at it again later
+                    scheduleUnloadIfUnused(chunk.getX(), chunk.getZ());
                 }
             }
-            // cannot remove old chunks from cache - GlowBlock and GlowBlockState keep references.
-            // they must either be changed to look up the chunk again all the time, or this code left out.
-            /*if (!entry.getValue().isLoaded()) {
-                //GlowServer.logger.info("Removing from cache " + entry.getKey());
-                chunks.entrySet().remove(entry);
-                locks.remove(entry.getKey());
-            }*/
         }
+
+        // chunks whose writes failed are still changed, so try them again
+        GlowChunk failed;
+        while ((failed = failedSaves.poll()) != null) {
+            if (failed.isLoaded()) {
+                saveQueue.add(failed);
+            }
+        }
+
+        Iterator<GlowChunk> iterator = saveQueue.iterator();
+        while (budget > 0 && iterator.hasNext() && System.nanoTime() <= deadline) {
+            final GlowChunk chunk = iterator.next();
+            iterator.remove();
+            ListenableFuture<Void> write = startSave(chunk);
+            if (write != null) {
+                Futures.addCallback(write, new FutureCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        failedSaves.add(chunk);
+                    }
+                });
+                savedCount++;
+                budget--;
+            }
+        }
+    }
+
+    /**
+     * Get the number of chunks waiting to be unloaded once unused for long
+     * enough. Chunks which have picked up a ticket since being queued are
+     * included until the unloader reaches them.
+     * @return The unload queue depth.
+     */
+    public int getUnloadQueueSize() {
+        return unloadEntries.size();
+    }
+
+    /**
+     * Get the number of chunks waiting to be saved by a rolling autosave.
+     * @return The save queue depth.
+     */
+    public int getSaveQueueSize() {
+        return saveQueue.size();
+    }
+
+    /**
+     * Get the total number of chunks unloaded by the rolling unloader.
+     * @return The number of chunks unloaded.
+     */
+    public long getUnloadedCount() {
+        return unloadedCount;
+    }
+
+    /**
+     * Get the total number of chunks saved by rolling autosaves.
+     * @return The number of chunks saved.
+     */
+    public long getSavedCount() {
+        return savedCount;
+    }
+
+    /**
+     * Keep the data of a chunk which has just been saved and unloaded, so
+     * that loading it again soon is cheap.
+     * @param chunk The chunk being unloaded.
+     * @param data The chunk's data.
+     */
+    void retainUnloaded(GlowChunk chunk, DecodedChunk data) {
+        recentlyUnloaded.put(new GlowChunk.Key(chunk.getX(), chunk.getZ()), data);
+    }
+
+    /**
+     * Mark an asynchronous load of a chunk which is in flight as out of date,
+     * because the chunk has been loaded or unloaded since it was read. It is
+     * read again rather than installed.
+     * @param x The X coordinate of the chunk.
+     * @param z The Z coordinate of the chunk.
+     */
+    void invalidatePendingLoad(int x, int z) {
+        LoadRequest request = pendingLoads.get(GlowChunk.Key.pack(x, z));
+        if (request != null) {
+            request.stale = true;
+        }
+    }
+
+    /**
+     * Get the number of recently unloaded chunks whose data is being kept.
+     * @return The number of cached chunks.
+     */
+    public int getUnloadedCacheSize() {
+        return recentlyUnloaded.size();
     }
 
     /**
@@ -235,10 +886,85 @@ public final class ChunkManager {
         }
     }
 
+    /**
+     * Populate a chunk if the 3x3 area around it is available, otherwise
+     * request the missing chunks asynchronously so that it can be populated
+     * during a later tick.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @param priority The load priority for missing chunks, as in
+     *                 {@link #loadChunkAsync}.
+     * @return Whether the chunk is now loaded and populated.
+     */
+    public boolean requestPopulation(int x, int z, int priority) {
+        GlowChunk chunk = getChunk(x, z);
+        if (chunk.isLoaded() && chunk.isPopulated()) {
+            return true;
+        }
+
+        boolean ready = true;
+        for (int x2 = x - 1; x2 <= x + 1; ++x2) {
+            for (int z2 = z - 1; z2 <= z + 1; ++z2) {
+                if (!isChunkLoaded(x2, z2)) {
+                    loadChunkAsync(x2, z2, true, priority);
+                    ready = false;
+                }
+            }
+        }
+        if (!ready) {
+            return false;
+        }
+
+        try {
+            populateChunk(x, z, false);
+        } catch (Throwable ex) {
+            GlowServer.logger.log(Level.SEVERE, "Error while populating chunk (" + x + "," + z + ")", ex);
+        }
+        return true;
+    }
+
     /**
      * Initialize a single chunk from the chunk generator.
      */
     private void generateChunk(GlowChunk chunk, int x, int z) {
+        installGenerated(chunk, generate(x, z));
+    }
+
+    /**
+     * Install the output of the chunk generator into a chunk.
+     */
+    private void installGenerated(GlowChunk chunk, DecodedChunk data) {
+        chunk.initializeSections(data.getSections());
+        chunk.setBiomes(data.getBiomes());
+        chunk.automaticHeightMap();
+    }
+
+    /**
+     * Run the chunk generator for the given coordinates. May be called from
+     * any thread; our own generators run in the generation pool, several
+     * chunks at a time, while other generators are run one at a time.
+     */
+    private DecodedChunk generate(final int x, final int z) {
+        if (!(generator instanceof GlowChunkGenerator)) {
+            synchronized (generatorLock) {
+                return generateNow(x, z);
+            }
+        }
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == generationPool) {
+            return generateNow(x, z);
+        }
+        return generationPool.invoke(new RecursiveTask<DecodedChunk>() {
+            @Override
+            protected DecodedChunk compute() {
+                return generateNow(x, z);
+            }
+        });
+    }
+
+    /**
+     * Run the chunk generator on the calling thread.
+     */
+    private DecodedChunk generateNow(int x, int z) {
         Random random = new Random((long) x * 341873128712L + (long) z * 132897987541L);
         BiomeGrid biomes = new BiomeGrid();
 
@@ -247,6 +973,16 @@ public final class ChunkManager {
             biomes.biomes[i] = (byte) biomeValues[i];
         }
 
+        return new DecodedChunk(generateSections(random, x, z, biomes), biomes.biomes, null, false,
+                Collections.<CompoundTag>emptyList(),
+                Collections.<CompoundTag>emptyList());
+    }
+
+    /**
+     * Produce the sections of a chunk using whichever generation method the
+     * chunk generator supports.
+     */
+    private GlowChunk.ChunkSection[] generateSections(Random random, int x, int z, BiomeGrid biomes) {
         // extended sections with data
         if (generator instanceof GlowChunkGenerator) {
             short[][] extSections = ((GlowChunkGenerator) generator).generateExtBlockSectionsWithData(world, random, x, z, biomes);
@@ -255,17 +991,14 @@ public final class ChunkManager {
                 for (int i = 0; i < extSections.length; ++i) {
                     // this is sort of messy.
                     if (extSections[i] != null) {
-                        sections[i] = new GlowChunk.ChunkSection();
+                        char[] types = new char[extSections[i].length];
                         for (int j = 0; j < extSections[i].length; ++j) {
-                            sections[i].types[j] = (char) extSections[i][j];
+                            types[j] = (char) extSections[i][j];
                         }
-                        sections[i].recount();
+                        sections[i] = new GlowChunk.ChunkSection(types);
                     }
                 }
-                chunk.initializeSections(sections);
-                chunk.setBiomes(biomes.biomes);
-                chunk.automaticHeightMap();
-                return;
+                return sections;
             }
         }
 
@@ -276,17 +1009,14 @@ public final class ChunkManager {
             for (int i = 0; i < extSections.length; ++i) {
                 // this is sort of messy.
                 if (extSections[i] != null) {
-                    sections[i] = new GlowChunk.ChunkSection();
+                    char[] types = new char[extSections[i].length];
                     for (int j = 0; j < extSections[i].length; ++j) {
-                        sections[i].types[j] = (char) (extSections[i][j] << 4);
+                        types[j] = (char) (extSections[i][j] << 4);
                     }
-                    sections[i].recount();
+                    sections[i] = new GlowChunk.ChunkSection(types);
                 }
             }
-            chunk.initializeSections(sections);
-            chunk.setBiomes(biomes.biomes);
-            chunk.automaticHeightMap();
-            return;
+            return sections;
         }
 
         // normal sections
@@ -296,39 +1026,33 @@ public final class ChunkManager {
             for (int i = 0; i < blockSections.length; ++i) {
                 // this is sort of messy.
                 if (blockSections[i] != null) {
-                    sections[i] = new GlowChunk.ChunkSection();
+                    char[] types = new char[blockSections[i].length];
                     for (int j = 0; j < blockSections[i].length; ++j) {
-                        sections[i].types[j] = (char) (blockSections[i][j] << 4);
+                        types[j] = (char) (blockSections[i][j] << 4);
                     }
-                    sections[i].recount();
+                    sections[i] = new GlowChunk.ChunkSection(types);
                 }
             }
-            chunk.initializeSections(sections);
-            chunk.setBiomes(biomes.biomes);
-            chunk.automaticHeightMap();
-            return;
+            return sections;
         }
 
         // deprecated flat generation
         byte[] types = generator.generate(world, random, x, z);
         GlowChunk.ChunkSection[] sections = new GlowChunk.ChunkSection[8];
         for (int sy = 0; sy < sections.length; ++sy) {
-            GlowChunk.ChunkSection sec = new GlowChunk.ChunkSection();
+            char[] secTypes = new char[16 * 16 * 16];
             int by = 16 * sy;
             for (int cx = 0; cx < 16; ++cx) {
                 for (int cz = 0; cz < 16; ++cz) {
                     for (int cy = by; cy < by + 16; ++cy) {
                         char type = (char) types[(cx * 16 + cz) * 128 + cy];
-                        sec.types[sec.index(cx, cy, cz)] = (char) (type << 4);
+                        secTypes[((cy & 0xf) << 8) | (cz << 4) | cx] = (char) (type << 4);
                     }
                 }
             }
-            sec.recount();
-            sections[sy] = sec;
+            sections[sy] = new GlowChunk.ChunkSection(secTypes);
         }
-        chunk.initializeSections(sections);
-        chunk.setBiomes(biomes.biomes);
-        chunk.automaticHeightMap();
+        return sections;
     }
 
     /**
@@ -345,6 +1069,7 @@ public final class ChunkManager {
         }
 
         chunk.setPopulated(false);
+        recentlyUnloaded.remove(new GlowChunk.Key(x, z));
         try {
             generateChunk(chunk, x, z);
             populateChunk(x, z, false);  // should this be forced?
@@ -361,7 +1086,8 @@ public final class ChunkManager {
      */
     public GlowChunk[] getLoadedChunks() {
         ArrayList<GlowChunk> result = new ArrayList<>();
-        for (GlowChunk chunk : chunks.values()) {
+        for (ConcurrentLongObjectMap.Entry<GlowChunk> entry : chunks) {
+            GlowChunk chunk = entry.getValue();
             if (chunk.isLoaded()) {
                 result.add(chunk);
             }
@@ -370,24 +1096,71 @@ public final class ChunkManager {
     }
 
     /**
-     * Performs the save for the given chunk using the storage provider.
+     * Performs the save for the given chunk using the storage provider, if
+     * it has changed since it was last saved, and waits for it to reach
+     * storage.
      * @param chunk The chunk to save.
+     * @return Whether the chunk is saved.
      */
     public boolean performSave(GlowChunk chunk) {
-        if (chunk.isLoaded()) {
-            try {
-                service.write(chunk);
-                return true;
-            } catch (IOException ex) {
-                GlowServer.logger.log(Level.SEVERE, "Error while saving " + chunk, ex);
-                return false;
-            }
+        ListenableFuture<Void> write = startSave(chunk);
+        if (write == null) {
+            return false;
         }
-        return false;
+        try {
+            write.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            GlowServer.logger.log(Level.SEVERE, "Error while saving " + chunk, e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Start writing a chunk if it has changed since it was last saved. The
+     * chunk is only marked saved once the write has succeeded, so a chunk
+     * whose write fails is still changed.
+     * @param chunk The chunk to save.
+     * @return A future completed once the chunk is saved, or null if it is
+     * not loaded or could not be encoded.
+     */
+    private ListenableFuture<Void> startSave(final GlowChunk chunk) {
+        if (!chunk.isLoaded()) {
+            return null;
+        }
+        if (!chunk.isDirty() && !chunk.isEntityDirty()) {
+            return Futures.immediateFuture(null);
+        }
+        final int changes = chunk.getChangeCount(), entityChanges = chunk.getEntityChangeCount();
+        ListenableFuture<Void> write;
+        try {
+            write = service.write(chunk);
+        } catch (IOException ex) {
+            GlowServer.logger.log(Level.SEVERE, "Error while saving " + chunk, ex);
+            return null;
+        }
+        return Futures.transform(write, new Function<Void, Void>() {
+            @Override
+            public Void apply(Void input) {
+                chunk.markSaved(changes, entityChanges);
+                return null;
+            }
+        });
     }
 
-    public int[] getBiomeGridAtLowerRes(int x, int z, int sizeX, int sizeZ) {
-        return biomeGrid[1].generateValues(x, z, sizeX, sizeZ);
+    /**
+     * Get the biome the generator gives a column, without loading its chunk.
+     * @param x The X coordinate of the column.
+     * @param z The Z coordinate of the column.
+     * @return The generated biome.
+     */
+    public Biome getGeneratedBiome(int x, int z) {
+        // the layers are asked for whole chunks, as when generating them
+        int[] values = biomeGrid[0].generateValues(x & ~0xF, z & ~0xF, GlowChunk.WIDTH, GlowChunk.HEIGHT);
+        return GlowBiome.getBiome(values[(x & 0xF) | ((z & 0xF) << 4)] & 0xFF);
     }
 
     /**
@@ -408,64 +1181,387 @@ public final class ChunkManager {
     }
 
     /**
-     * Look up the set of locks on a given chunk.
-     * @param key The chunk key.
-     * @return The set of locks for that chunk.
+     * An asynchronous request to read or generate a chunk, ordered by priority.
      */
-    private Set<ChunkLock> getLockSet(GlowChunk.Key key) {
-        if (locks.containsKey(key)) {
-            return locks.get(key);
-        } else {
-            // only create chunk if it's not in the map already
-            Set<ChunkLock> set = new HashSet<>();
-            Set<ChunkLock> prev = locks.putIfAbsent(key, set);
-            // if it was created in the intervening time, the earlier one wins
-            return prev == null ? set : prev;
+    private final class LoadRequest implements Runnable, Comparable<LoadRequest> {
+        private final int x, z;
+        private final long sequence = loadSequence.getAndIncrement();
+        private final SettableFuture<GlowChunk> future = SettableFuture.create();
+        private volatile boolean generate;
+        private volatile int priority;
+        private volatile boolean stale;
+
+        // results, published to the world thread through finishedLoads
+        private DecodedChunk data;
+        private boolean generated;
+        private boolean triedGenerate;
+
+        private LoadRequest(int x, int z, boolean generate, int priority) {
+            this.x = x;
+            this.z = z;
+            this.generate = generate;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            try {
+                data = service.decode(x, z);
+            } catch (Exception e) {
+                GlowServer.logger.log(Level.SEVERE, "Error while loading chunk (" + x + "," + z + ")", e);
+            }
+
+            triedGenerate = generate;
+            if (data == null && triedGenerate) {
+                if (generator instanceof GlowChunkGenerator) {
+                    // hand the chunk to the generation pool, which finishes the
+                    // request, so this loader can move on to the next read
+                    try {
+                        generationPool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                generateData();
+                                finishedLoads.add(LoadRequest.this);
+                            }
+                        });
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // shutting down; complete without a chunk
+                    }
+                } else {
+                    generateData();
+                }
+            }
+            finishedLoads.add(this);
+        }
+
+        /**
+         * Reset the request to be run again.
+         */
+        private void restart() {
+            stale = false;
+            data = null;
+            generated = false;
+            triedGenerate = false;
+        }
+
+        private void generateData() {
+            try {
+                data = generate(x, z);
+                generated = true;
+            } catch (Throwable ex) {
+                GlowServer.logger.log(Level.SEVERE, "Error while generating chunk (" + x + "," + z + ")", ex);
+            }
+        }
+
+        @Override
+        public int compareTo(LoadRequest other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Thread factory for the chunk load workers of a world.
+     */
+    private static final class LoaderThreadFactory implements ThreadFactory {
+        private final String worldName;
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        private LoaderThreadFactory(String worldName) {
+            this.worldName = worldName;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Glowstone-chunk-loader-" + worldName + "-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Thread factory for the chunk generation pool of a world.
+     */
+    private static final class GeneratorThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final String worldName;
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        private GeneratorThreadFactory(String worldName) {
+            this.worldName = worldName;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new GeneratorThread(pool);
+            thread.setName("Glowstone-chunk-generator-" + worldName + "-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * A worker thread of the chunk generation pool.
+     */
+    private static final class GeneratorThread extends ForkJoinWorkerThread {
+        private GeneratorThread(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+
+    /**
+     * Add a ticket of the given type to a chunk.
+     */
+    private void addTicket(long key, TicketType type) {
+        while (true) {
+            TicketCount count = tickets.get(key);
+            if (count == null) {
+                TicketCount created = new TicketCount();
+                count = tickets.putIfAbsent(key, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            if (count.increment(type)) {
+                return;
+            }
+            // the counter was retired while we were looking at it
+            tickets.remove(key, count);
+        }
+    }
+
+    /**
+     * Remove a ticket of the given type from a chunk.
+     */
+    private void removeTicket(long key, TicketType type) {
+        TicketCount count = tickets.get(key);
+        if (count != null && count.decrement(type) == 0) {
+            scheduleUnload(key);
+        }
+    }
+
+    /**
+     * A chunk waiting in the unload queue, with the tick it became unused.
+     */
+    private static final class UnloadEntry {
+        private final long key;
+        private final long since;
+
+        private UnloadEntry(long key, long since) {
+            this.key = key;
+            this.since = since;
         }
     }
 
     /**
-     * A group of locks on chunks to prevent them from being unloaded while in use.
+     * The kinds of tickets which can keep a chunk loaded.
+     */
+    public enum TicketType {
+        /**
+         * Chunks within a player's view distance.
+         */
+        PLAYER,
+        /**
+         * Chunks around a world's spawn point.
+         */
+        SPAWN,
+        /**
+         * Chunks kept loaded on behalf of a plugin.
+         */
+        PLUGIN,
+        /**
+         * Chunks at the destination of a portal, kept briefly after use.
+         */
+        PORTAL,
+        /**
+         * Chunks being generated or populated by a world pregeneration.
+         */
+        PREGEN
+    }
+
+    /**
+     * The tickets on a single chunk. The total is set to -1 once the
+     * counter has been retired, after which it can no longer be used.
+     */
+    private static final class TicketCount {
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicIntegerArray byType = new AtomicIntegerArray(TicketType.values().length);
+
+        private boolean increment(TicketType type) {
+            while (true) {
+                int current = total.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (total.compareAndSet(current, current + 1)) {
+                    byType.incrementAndGet(type.ordinal());
+                    return true;
+                }
+            }
+        }
+
+        private int decrement(TicketType type) {
+            byType.decrementAndGet(type.ordinal());
+            return total.decrementAndGet();
+        }
+
+        private boolean retire() {
+            return total.compareAndSet(0, -1);
+        }
+    }
+
+    /**
+     * A ticket held on one chunk which expires after a number of ticks.
+     */
+    private static final class Ticket implements Comparable<Ticket> {
+        private final ChunkLock holder;
+        private final long key;
+        private final long expiry;
+
+        private Ticket(ChunkLock holder, long key, long expiry) {
+            this.holder = holder;
+            this.key = key;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            return Long.compare(expiry, other.expiry);
+        }
+    }
+
+    /**
+     * A holder of tickets of a single type, used by a player or other party
+     * to keep chunks loaded. A holder has at most one ticket on each chunk.
      */
     public static class ChunkLock implements Iterable<GlowChunk.Key> {
+        /**
+         * Value for tickets which do not expire.
+         */
+        private static final Ticket PERMANENT = new Ticket(null, 0, Long.MAX_VALUE);
+
         private final ChunkManager cm;
+        private final TicketType type;
         private final String desc;
-        private final Set<GlowChunk.Key> keys = new HashSet<>();
+        private final ConcurrentLongObjectMap<Ticket> held = new ConcurrentLongObjectMap<>();
 
-        public ChunkLock(ChunkManager cm, String desc) {
+        public ChunkLock(ChunkManager cm, TicketType type, String desc) {
             this.cm = cm;
+            this.type = type;
             this.desc = desc;
         }
 
+        public TicketType getType() {
+            return type;
+        }
+
+        public String getDescription() {
+            return desc;
+        }
+
+        /**
+         * Hold a ticket on a chunk until it is released.
+         * @param key The chunk key.
+         */
         public void acquire(GlowChunk.Key key) {
-            if (keys.contains(key)) return;
-            keys.add(key);
-            cm.getLockSet(key).add(this);
-            //GlowServer.logger.info(this + " acquires " + key);
+            acquire(key.pack(), PERMANENT);
+        }
+
+        /**
+         * Hold a ticket on a chunk for a number of ticks, replacing any
+         * ticket this holder already has on it.
+         * @param key The chunk key.
+         * @param ticks The number of ticks before the ticket expires.
+         */
+        public void acquire(GlowChunk.Key key, int ticks) {
+            long packed = key.pack();
+            Ticket ticket = new Ticket(this, packed, cm.ticketTick + ticks);
+            acquire(packed, ticket);
+            cm.expiringTickets.add(ticket);
+        }
+
+        private synchronized void acquire(long key, Ticket ticket) {
+            if (held.put(key, ticket) == null) {
+                if (held.size() == 1) {
+                    cm.ticketHolders.add(this);
+                }
+                cm.addTicket(key, type);
+            }
+        }
+
+        public synchronized void release(GlowChunk.Key key) {
+            long packed = key.pack();
+            if (held.remove(packed) != null) {
+                released(packed);
+            }
         }
 
-        public void release(GlowChunk.Key key) {
-            if (!keys.contains(key)) return;
-            keys.remove(key);
-            cm.getLockSet(key).remove(this);
-            //GlowServer.logger.info(this + " releases " + key);
+        private synchronized void expire(Ticket ticket) {
+            if (held.remove(ticket.key, ticket)) {
+                released(ticket.key);
+            }
         }
 
-        public void clear() {
-            for (GlowChunk.Key key : keys) {
-                cm.getLockSet(key).remove(this);
-                //GlowServer.logger.info(this + " clearing " + key);
+        private void released(long key) {
+            cm.removeTicket(key, type);
+            if (held.isEmpty()) {
+                cm.ticketHolders.remove(this);
             }
-            keys.clear();
+        }
+
+        public synchronized void clear() {
+            for (ConcurrentLongObjectMap.Entry<Ticket> entry : held) {
+                cm.removeTicket(entry.getKey(), type);
+            }
+            held.clear();
+            cm.ticketHolders.remove(this);
+        }
+
+        /**
+         * Check whether this holder has a ticket on a chunk.
+         * @param x The X coordinate.
+         * @param z The Z coordinate.
+         * @return Whether a ticket is held.
+         */
+        public boolean holds(int x, int z) {
+            return held.containsKey(GlowChunk.Key.pack(x, z));
+        }
+
+        /**
+         * Get the number of ticks until this holder's ticket on a chunk
+         * expires.
+         * @param x The X coordinate.
+         * @param z The Z coordinate.
+         * @return The remaining ticks, or -1 if the ticket does not expire
+         * or is not held.
+         */
+        public long getRemainingTicks(int x, int z) {
+            Ticket ticket = held.get(GlowChunk.Key.pack(x, z));
+            return ticket == null || ticket == PERMANENT ? -1 : Math.max(0, ticket.expiry - cm.ticketTick);
+        }
+
+        /**
+         * Get the number of tickets this holder has.
+         * @return The number of tickets.
+         */
+        public int size() {
+            return held.size();
         }
 
         @Override
         public String toString() {
-            return "ChunkLock{" + desc + "}";
+            return "ChunkLock{" + type + ":" + desc + "}";
         }
 
         @Override
         public Iterator<GlowChunk.Key> iterator() {
+            List<GlowChunk.Key> keys = new ArrayList<>(held.size());
+            for (ConcurrentLongObjectMap.Entry<Ticket> entry : held) {
+                long key = entry.getKey();
+                keys.add(new GlowChunk.Key(GlowChunk.Key.unpackX(key), GlowChunk.Key.unpackZ(key)));
+            }
             return keys.iterator();
         }
     }
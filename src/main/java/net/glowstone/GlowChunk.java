@@ -7,14 +7,18 @@ import net.glowstone.block.ItemTable;
 import net.glowstone.block.blocktype.BlockType;
 import net.glowstone.block.entity.TileEntity;
 import net.glowstone.entity.GlowEntity;
+import net.glowstone.io.ChunkIoService.DecodedChunk;
 import net.glowstone.net.message.play.game.ChunkDataMessage;
 import net.glowstone.util.NibbleArray;
+import net.glowstone.util.PalettedArray;
+import net.glowstone.util.nbt.CompoundTag;
 import org.bukkit.Chunk;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.event.world.ChunkUnloadEvent;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -33,6 +37,39 @@ public final class GlowChunk implements Chunk {
          * The coordinates.
          */
         private final int x, z;
+
+        /**
+         * Pack chunk coordinates into a single long, for use with primitive
+         * collections which avoid allocating a Key per lookup.
+         * @param x The chunk x coordinate.
+         * @param z The chunk z coordinate.
+         * @return The packed key.
+         */
+        public static long pack(int x, int z) {
+            return ((long) x << 32) | (z & 0xffffffffL);
+        }
+
+        /**
+         * Get the x coordinate from a key created by {@link #pack}.
+         */
+        public static int unpackX(long key) {
+            return (int) (key >> 32);
+        }
+
+        /**
+         * Get the z coordinate from a key created by {@link #pack}.
+         */
+        public static int unpackZ(long key) {
+            return (int) key;
+        }
+
+        /**
+         * Get the packed form of this key.
+         * @return The packed key.
+         */
+        public long pack() {
+            return pack(x, z);
+        }
     }
 
     /**
@@ -51,8 +88,12 @@ public final class GlowChunk implements Chunk {
     public static final class ChunkSection {
         private static final int ARRAY_SIZE = WIDTH * HEIGHT * SEC_DEPTH;
 
+        /**
+         * The block types and metadata, as (type << 4) | data.
+         */
+        private final PalettedArray types;
+
         // these probably should be made non-public
-        public final char[] types;
         public final NibbleArray skyLight;
         public final NibbleArray blockLight;
         public int count; // amount of non-air blocks
@@ -61,20 +102,34 @@ public final class GlowChunk implements Chunk {
          * Create a new, empty ChunkSection.
          */
         public ChunkSection() {
-            types = new char[ARRAY_SIZE];
+            types = new PalettedArray(ARRAY_SIZE);
             skyLight = new NibbleArray(ARRAY_SIZE);
             blockLight = new NibbleArray(ARRAY_SIZE);
             skyLight.fill((byte) 0xf);
         }
 
+        /**
+         * Create a ChunkSection with the specified block types, full sky
+         * light and no block light.
+         * @param types The block types, as (type << 4) | data.
+         */
+        public ChunkSection(char[] types) {
+            this(new PalettedArray(checkLength(types)), new NibbleArray(ARRAY_SIZE), new NibbleArray(ARRAY_SIZE));
+            skyLight.fill((byte) 0xf);
+        }
+
         /**
          * Create a ChunkSection with the specified chunk data. This
-         * ChunkSection assumes ownership of the arrays passed in, and they
-         * should not be further modified.
+         * ChunkSection assumes ownership of the light arrays passed in, and
+         * they should not be further modified.
          */
         public ChunkSection(char[] types, NibbleArray skyLight, NibbleArray blockLight) {
-            if (types.length != ARRAY_SIZE || skyLight.size() != ARRAY_SIZE || blockLight.size() != ARRAY_SIZE) {
-                throw new IllegalArgumentException("An array length was not " + ARRAY_SIZE + ": " + types.length + " " + skyLight.size() + " " + blockLight.size());
+            this(new PalettedArray(checkLength(types)), skyLight, blockLight);
+        }
+
+        private ChunkSection(PalettedArray types, NibbleArray skyLight, NibbleArray blockLight) {
+            if (types.size() != ARRAY_SIZE || skyLight.size() != ARRAY_SIZE || blockLight.size() != ARRAY_SIZE) {
+                throw new IllegalArgumentException("An array length was not " + ARRAY_SIZE + ": " + types.size() + " " + skyLight.size() + " " + blockLight.size());
             }
             this.types = types;
             this.skyLight = skyLight;
@@ -82,6 +137,13 @@ public final class GlowChunk implements Chunk {
             recount();
         }
 
+        private static char[] checkLength(char[] types) {
+            if (types.length != ARRAY_SIZE) {
+                throw new IllegalArgumentException("An array length was not " + ARRAY_SIZE + ": " + types.length);
+            }
+            return types;
+        }
+
         /**
          * Calculate the index into internal arrays for the given coordinates.
          */
@@ -92,23 +154,76 @@ public final class GlowChunk implements Chunk {
             return ((y & 0xf) << 8) | (z << 4) | x;
         }
 
+        /**
+         * Get the type and metadata at the given index.
+         * @param index The index, as from {@link #index}.
+         * @return The block, as (type << 4) | data.
+         */
+        public char getType(int index) {
+            return types.get(index);
+        }
+
+        /**
+         * Set the type and metadata at the given index. Does not update
+         * the block count.
+         * @param index The index, as from {@link #index}.
+         * @param type The block, as (type << 4) | data.
+         */
+        public void setType(int index, char type) {
+            types.set(index, type);
+        }
+
+        /**
+         * Get a copy of all types and metadata in this section.
+         * @return The blocks, as (type << 4) | data.
+         */
+        public char[] getTypes() {
+            return types.toArray();
+        }
+
+        /**
+         * Copy all types and metadata in this section into an array.
+         * @param out The array to fill, of at least 4096 entries.
+         */
+        public void getTypes(char[] out) {
+            types.getAll(out);
+        }
+
+        /**
+         * Check whether every block in this section is the same.
+         */
+        public boolean isUniform() {
+            return types.isUniform();
+        }
+
+        /**
+         * Get the number of bits used to store each block.
+         */
+        public int getBitsPerBlock() {
+            return types.getBitsPerEntry();
+        }
+
+        /**
+         * Estimate the memory used by this section's blocks and light, in bytes.
+         */
+        public int getMemoryUsage() {
+            return types.getMemoryUsage()
+                    + (skyLight.isShared() ? 0 : skyLight.byteSize())
+                    + (blockLight.isShared() ? 0 : blockLight.byteSize());
+        }
+
         /**
          * Recount the amount of non-air blocks in the chunk section.
          */
         public void recount() {
-            count = 0;
-            for (char type : types) {
-                if (type != 0) {
-                    count++;
-                }
-            }
+            count = types.countNonZero();
         }
 
         /**
          * Take a snapshot of this section which will not reflect future changes.
          */
         public ChunkSection snapshot() {
-            return new ChunkSection(types.clone(), skyLight.snapshot(), blockLight.snapshot());
+            return new ChunkSection(types.snapshot(), skyLight.snapshot(), blockLight.snapshot());
         }
     }
 
@@ -155,6 +270,36 @@ public final class GlowChunk implements Chunk {
      */
     private boolean populated = false;
 
+    /**
+     * Whether this chunk object has been dropped by the chunk manager, so
+     * that cached references to it are no longer valid.
+     */
+    private volatile boolean evicted = false;
+
+    /**
+     * The network encoding of each section's block types, shared by every
+     * player the chunk is sent to. An entry is null if its section has
+     * changed since it was last encoded.
+     */
+    private byte[][] encodedTypes;
+
+    /**
+     * Counts of changes to the blocks, light, biomes and tile entities of
+     * this chunk, and to the entities in it. New chunks start out changed so
+     * that they are saved at least once.
+     */
+    private volatile int changes = 1, entityChanges = 0;
+
+    /**
+     * The change counts when the chunk was last saved or read from storage.
+     */
+    private volatile int savedChanges = 0, savedEntityChanges = 0;
+
+    /**
+     * Counts of sections whose network encoding was reused or rebuilt.
+     */
+    private static final AtomicLong encodeHits = new AtomicLong(), encodeMisses = new AtomicLong();
+
     /**
      * Creates a new chunk with a specified X and Z coordinate.
      * @param x The X coordinate.
@@ -173,6 +318,19 @@ public final class GlowChunk implements Chunk {
 
     // ======== Basic stuff ========
 
+    /**
+     * Check whether this chunk object has been discarded by the chunk
+     * manager. A new object represents the chunk if it is accessed again.
+     * @return Whether the chunk has been evicted.
+     */
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    void setEvicted() {
+        evicted = true;
+    }
+
     @Override
     public GlowWorld getWorld() {
         return world;
@@ -190,7 +348,7 @@ public final class GlowChunk implements Chunk {
 
     @Override
     public GlowBlock getBlock(int x, int y, int z) {
-        return new GlowBlock(this, (this.x << 4) | (x & 0xf), y & 0xff, (this.z << 4) | (z & 0xf));
+        return new GlowBlock(world, (this.x << 4) | (x & 0xf), y & 0xff, (this.z << 4) | (z & 0xf));
     }
 
     @Override
@@ -246,6 +404,67 @@ public final class GlowChunk implements Chunk {
      */
     public void setPopulated(boolean populated) {
         this.populated = populated;
+        changes++;
+    }
+
+    // ======== Change tracking ========
+
+    /**
+     * Note that the blocks, light, biomes or tile entities of this chunk
+     * have changed, so that it is written by the next save.
+     */
+    public void markDirty() {
+        changes++;
+    }
+
+    /**
+     * Note that entities in this chunk have appeared, moved or gone.
+     */
+    public void markEntitiesDirty() {
+        entityChanges++;
+    }
+
+    /**
+     * Check whether the blocks, light, biomes or tile entities of this chunk
+     * have changed since it was last saved. Container inventories mark
+     * their chunk changed themselves.
+     * @return Whether the chunk data needs saving.
+     */
+    public boolean isDirty() {
+        return changes != savedChanges;
+    }
+
+    /**
+     * Check whether the entities in this chunk have changed since it was
+     * last saved.
+     * @return Whether the entities need saving.
+     */
+    public boolean isEntityDirty() {
+        return entityChanges != savedEntityChanges;
+    }
+
+    int getChangeCount() {
+        return changes;
+    }
+
+    int getEntityChangeCount() {
+        return entityChanges;
+    }
+
+    /**
+     * Record that the chunk was saved when the change counts had the given
+     * values. Changes made while it was being written are kept.
+     */
+    void markSaved(int changes, int entityChanges) {
+        savedChanges = changes;
+        savedEntityChanges = entityChanges;
+    }
+
+    /**
+     * Record that the chunk matches storage, having just been read from it.
+     */
+    void markSaved() {
+        markSaved(changes, entityChanges);
     }
 
     // ======== Helper Functions ========
@@ -277,6 +496,18 @@ public final class GlowChunk implements Chunk {
 
     @Override
     public boolean unload(boolean save, boolean safe) {
+        return unload(save, safe, save);
+    }
+
+    /**
+     * Unload this chunk.
+     * @param save Whether to save the chunk first.
+     * @param safe Whether to refuse if a player may be using the chunk.
+     * @param retain Whether to keep the saved data for a while in case the
+     * chunk is loaded again soon. Has no effect if the chunk isn't saved.
+     * @return Whether the chunk was unloaded.
+     */
+    boolean unload(boolean save, boolean safe, boolean retain) {
         if (!isLoaded()) {
             return true;
         }
@@ -293,12 +524,47 @@ public final class GlowChunk implements Chunk {
             return false;
         }
 
+        // anything read for this chunk before now may be older than what it held
+        world.getChunkManager().invalidatePendingLoad(x, z);
+        if (save && retain) {
+            // the saved data is kept around briefly in case the chunk is needed again soon
+            world.getChunkManager().retainUnloaded(this, detachData());
+        }
+
         sections = null;
         biomes = null;
+        encodedTypes = null;
         tileEntities.clear();
         return true;
     }
 
+    /**
+     * Capture the data of this chunk so that it can be installed again
+     * without reading it back from storage. The sections are handed over
+     * rather than copied, so this must only be called right before unloading.
+     * @return The chunk data.
+     */
+    private DecodedChunk detachData() {
+        int[] heights = new int[heightMap.length];
+        for (int i = 0; i < heights.length; ++i) {
+            heights[i] = heightMap[i] & 0xff;
+        }
+
+        List<CompoundTag> tileEntityTags = new ArrayList<>(tileEntities.size());
+        for (TileEntity entity : tileEntities.values()) {
+            try {
+                CompoundTag tag = new CompoundTag();
+                entity.saveNbt(tag);
+                tileEntityTags.add(tag);
+            } catch (Exception ex) {
+                GlowServer.logger.log(Level.SEVERE, "Error saving tile entity at " + entity.getBlock(), ex);
+            }
+        }
+
+        // entities are not unloaded along with the chunk, so they are not kept
+        return new DecodedChunk(sections, biomes, heights, populated, Collections.<CompoundTag>emptyList(), tileEntityTags);
+    }
+
     /**
      * Initialize this chunk from the given sections.
      * @param initSections The ChunkSections to use.
@@ -312,6 +578,8 @@ public final class GlowChunk implements Chunk {
 
         sections = new ChunkSection[DEPTH / SEC_DEPTH];
         System.arraycopy(initSections, 0, sections, 0, Math.min(sections.length, initSections.length));
+        encodedTypes = new byte[sections.length][];
+        changes++;
 
         biomes = new byte[WIDTH * HEIGHT];
         heightMap = new byte[WIDTH * HEIGHT];
@@ -356,7 +624,7 @@ public final class GlowChunk implements Chunk {
      */
     private ChunkSection getSection(int y) {
         int idx = y >> 4;
-        if (y < 0 || y >= DEPTH || !load() || idx >= sections.length) {
+        if (y < 0 || y >= DEPTH || !load() || sections == null || idx >= sections.length) {
             return null;
         }
         return sections[idx];
@@ -392,7 +660,7 @@ public final class GlowChunk implements Chunk {
      */
     public int getType(int x, int z, int y) {
         ChunkSection section = getSection(y);
-        return section == null ? 0 : (section.types[section.index(x, y, z)] >> 4);
+        return section == null ? 0 : (section.getType(section.index(x, y, z)) >> 4);
     }
 
     /**
@@ -432,7 +700,7 @@ public final class GlowChunk implements Chunk {
         int index = section.index(x, y, z);
         int heightIndex = z * WIDTH + x;
         if (type == 0) {
-            if (section.types[index] != 0) {
+            if (section.getType(index) != 0) {
                 section.count--;
             }
             if (heightMap[heightIndex] == y + 1) {
@@ -440,7 +708,7 @@ public final class GlowChunk implements Chunk {
                 heightMap[heightIndex] = (byte) lowerHeightMap(x, y, z);
             }
         } else {
-            if (section.types[index] == 0) {
+            if (section.getType(index) == 0) {
                 section.count++;
             }
             if (heightMap[heightIndex] <= y) {
@@ -449,7 +717,8 @@ public final class GlowChunk implements Chunk {
             }
         }
         // update the type - also sets metadata to 0
-        section.types[index] = (char) (type << 4);
+        section.setType(index, (char) (type << 4));
+        typesChanged(y >> 4);
 
         if (type == 0 && section.count == 0) {
             // destroy the empty section
@@ -482,7 +751,7 @@ public final class GlowChunk implements Chunk {
      */
     public int getMetaData(int x, int z, int y) {
         ChunkSection section = getSection(y);
-        return section == null ? 0 : section.types[section.index(x, y, z)] & 0xF;
+        return section == null ? 0 : section.getType(section.index(x, y, z)) & 0xF;
     }
 
     /**
@@ -498,9 +767,10 @@ public final class GlowChunk implements Chunk {
         ChunkSection section = getSection(y);
         if (section == null) return;  // can't set metadata on an empty section
         int index = section.index(x, y, z);
-        int type = section.types[index];
+        int type = section.getType(index);
         if (type == 0) return;  // can't set metadata on air
-        section.types[index] = (char) ((type & 0xfff0) | metaData);
+        section.setType(index, (char) ((type & 0xfff0) | metaData));
+        typesChanged(y >> 4);
     }
 
     /**
@@ -526,6 +796,7 @@ public final class GlowChunk implements Chunk {
         ChunkSection section = getSection(y);
         if (section == null) return;  // can't set light on an empty section
         section.skyLight.set(section.index(x, y, z), (byte) skyLight);
+        changes++;
     }
 
     /**
@@ -551,6 +822,7 @@ public final class GlowChunk implements Chunk {
         ChunkSection section = getSection(y);
         if (section == null) return;  // can't set light on an empty section
         section.blockLight.set(section.index(x, y, z), (byte) blockLight);
+        changes++;
     }
 
     /**
@@ -573,6 +845,7 @@ public final class GlowChunk implements Chunk {
     public void setBiome(int x, int z, int biome) {
         if (biomes == null) return;
         biomes[z * WIDTH + x] = (byte) biome;
+        changes++;
     }
 
     /**
@@ -587,6 +860,7 @@ public final class GlowChunk implements Chunk {
             throw new IllegalArgumentException("Biomes array not of length " + biomes.length);
         }
         System.arraycopy(newBiomes, 0, biomes, 0, biomes.length);
+        changes++;
     }
 
     /**
@@ -614,6 +888,7 @@ public final class GlowChunk implements Chunk {
         for (int i = 0; i < heightMap.length; ++i) {
             heightMap[i] = (byte) newHeightMap[i];
         }
+        changes++;
     }
 
     /**
@@ -729,28 +1004,22 @@ public final class GlowChunk implements Chunk {
             ChunkSection[] sendSections = new ChunkSection[sectionCount];
             for (int i = 0, j = 0, mask = 1; i < sections.length; ++i, mask <<= 1) {
                 if ((sectionBitmask & mask) != 0) {
+                    byte[] encoded = getEncodedTypes(i);
+                    System.arraycopy(encoded, 0, tileData, pos, encoded.length);
+                    pos += encoded.length;
                     sendSections[j++] = sections[i];
                 }
             }
 
             for (ChunkSection sec : sendSections) {
-                for (char t : sec.types) {
-                    tileData[pos++] = (byte) (t & 0xff);
-                    tileData[pos++] = (byte) (t >> 8);
-                }
-            }
-
-            for (ChunkSection sec : sendSections) {
-                byte[] blockLight = sec.blockLight.getRawData();
-                System.arraycopy(blockLight, 0, tileData, pos, blockLight.length);
-                pos += blockLight.length;
+                sec.blockLight.copyRawData(tileData, pos);
+                pos += sec.blockLight.byteSize();
             }
 
             if (skylight) {
                 for (ChunkSection sec : sendSections) {
-                    byte[] skyLight = sec.skyLight.getRawData();
-                    System.arraycopy(skyLight, 0, tileData, pos, skyLight.length);
-                    pos += skyLight.length;
+                    sec.skyLight.copyRawData(tileData, pos);
+                    pos += sec.skyLight.byteSize();
                 }
             }
         }
@@ -769,6 +1038,57 @@ public final class GlowChunk implements Chunk {
         return new ChunkDataMessage(x, z, entireChunk, sectionBitmask, tileData);
     }
 
+    /**
+     * Get the network encoding of a section's block types, encoding it if
+     * the section has changed since it was last sent.
+     */
+    private byte[] getEncodedTypes(int index) {
+        byte[] encoded = encodedTypes[index];
+        if (encoded != null) {
+            encodeHits.incrementAndGet();
+            return encoded;
+        }
+        encodeMisses.incrementAndGet();
+
+        char[] types = sections[index].getTypes();
+        encoded = new byte[types.length * 2];
+        int pos = 0;
+        for (char t : types) {
+            encoded[pos++] = (byte) (t & 0xff);
+            encoded[pos++] = (byte) (t >> 8);
+        }
+        encodedTypes[index] = encoded;
+        return encoded;
+    }
+
+    /**
+     * Drop the cached network encoding of a section whose blocks changed.
+     */
+    private void typesChanged(int index) {
+        if (encodedTypes != null && index >= 0 && index < encodedTypes.length) {
+            encodedTypes[index] = null;
+        }
+        changes++;
+    }
+
+    /**
+     * Get the number of times a section's network encoding was reused
+     * rather than rebuilt, across all chunks.
+     * @return The number of cache hits.
+     */
+    public static long getEncodeCacheHits() {
+        return encodeHits.get();
+    }
+
+    /**
+     * Get the number of times a section's network encoding had to be
+     * built, across all chunks.
+     * @return The number of cache misses.
+     */
+    public static long getEncodeCacheMisses() {
+        return encodeMisses.get();
+    }
+
     private int countBits(int v) {
         // http://graphics.stanford.edu/~seander/bithacks.html#CountBitsSetKernighan
         int c;
@@ -109,13 +109,13 @@ public class GlowChunkSnapshot implements ChunkSnapshot {
     @Override
     public int getBlockTypeId(int x, int y, int z) {
         ChunkSection section = getSection(y);
-        return section == null ? 0 : section.types[section.index(x, y, z)] >> 4;
+        return section == null ? 0 : section.getType(section.index(x, y, z)) >> 4;
     }
 
     @Override
     public int getBlockData(int x, int y, int z) {
         ChunkSection section = getSection(y);
-        return section == null ? 0 : section.types[section.index(x, y, z)] & 0xF;
+        return section == null ? 0 : section.getType(section.index(x, y, z)) & 0xF;
     }
 
     @Override
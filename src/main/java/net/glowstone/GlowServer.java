@@ -7,7 +7,12 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import net.glowstone.block.BuiltinMaterialValueManager;
 import net.glowstone.block.MaterialValueManager;
+import net.glowstone.command.ChunkMemoryCommand;
+import net.glowstone.command.ChunkTicketsCommand;
 import net.glowstone.command.ColorCommand;
+import net.glowstone.command.NetworkStatsCommand;
+import net.glowstone.command.PregenCommand;
+import net.glowstone.command.RegionStatsCommand;
 import net.glowstone.command.TellrawCommand;
 import net.glowstone.command.TitleCommand;
 import net.glowstone.constants.GlowEnchantment;
@@ -26,6 +31,7 @@ import net.glowstone.io.ScoreboardIoService;
 import net.glowstone.map.GlowMapView;
 import net.glowstone.net.GlowNetworkServer;
 import net.glowstone.net.SessionRegistry;
+import net.glowstone.net.pipeline.CompressionPool;
 import net.glowstone.net.query.QueryServer;
 import net.glowstone.net.rcon.RconServer;
 import net.glowstone.scheduler.GlowScheduler;
@@ -378,6 +384,12 @@ public final class GlowServer implements Server {
      */
     private final GlowNetworkServer networkServer = new GlowNetworkServer(this);
 
+    /**
+     * The pool which compresses large messages off the network threads, or
+     * null if disabled.
+     */
+    private CompressionPool compressionPool;
+
     /**
      * The query server for this server, or null if disabled.
      */
@@ -543,6 +555,11 @@ public final class GlowServer implements Server {
     private void bind() throws BindException {
         SocketAddress address = getBindAddress(ServerConfig.Key.SERVER_PORT);
 
+        int compressionThreads = config.getInt(ServerConfig.Key.COMPRESSION_THREADS);
+        if (compressionThreads > 0 && getCompressionThreshold() >= 0) {
+            compressionPool = new CompressionPool(compressionThreads, compressionThreads * 64);
+        }
+
         logger.info("Binding to address: " + address + "...");
         ChannelFuture future = networkServer.bind(address);
         Channel channel = future.awaitUninterruptibly().channel();
@@ -634,6 +651,9 @@ public final class GlowServer implements Server {
         // Stop the network servers - starts the shutdown process
         // It may take a second or two for Netty to totally clean up
         networkServer.shutdown();
+        if (compressionPool != null) {
+            compressionPool.shutdown();
+        }
         if (queryServer != null) {
             queryServer.shutdown();
         }
@@ -696,6 +716,11 @@ public final class GlowServer implements Server {
         commandMap.register("glowstone", new ColorCommand());
         commandMap.register("glowstone", new TellrawCommand());
         commandMap.register("glowstone", new TitleCommand());
+        commandMap.register("glowstone", new ChunkTicketsCommand());
+        commandMap.register("glowstone", new ChunkMemoryCommand());
+        commandMap.register("glowstone", new RegionStatsCommand());
+        commandMap.register("glowstone", new PregenCommand());
+        commandMap.register("glowstone", new NetworkStatsCommand());
 
         File folder = new File(config.getString(ServerConfig.Key.PLUGIN_FOLDER));
         if (!folder.isDirectory() && !folder.mkdirs()) {
@@ -933,6 +958,155 @@ public final class GlowServer implements Server {
         return config.getInt(ServerConfig.Key.COMPRESSION_THRESHOLD);
     }
 
+    /**
+     * Get the deflate level to use for network compression defined in the
+     * config.
+     * @return The compression level from 0 to 9, or -1 for the default.
+     */
+    public int getCompressionLevel() {
+        return config.getInt(ServerConfig.Key.COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Get the pool which compresses large messages sent to players, so that
+     * compressing them does not hold up other connections.
+     * @return The compression pool, or null if messages are compressed on
+     * the network threads.
+     */
+    public CompressionPool getCompressionPool() {
+        return compressionPool;
+    }
+
+    /**
+     * Get the size from which messages are compressed on the compression
+     * pool rather than the network threads.
+     * @return The compression offload size in bytes.
+     */
+    public int getCompressionOffloadSize() {
+        return config.getInt(ServerConfig.Key.COMPRESSION_OFFLOAD_SIZE);
+    }
+
+    /**
+     * Get the most received messages queued for handling per session before
+     * reading from its connection is paused.
+     * @return The inbound message queue size.
+     */
+    public int getInboundQueueSize() {
+        return config.getInt(ServerConfig.Key.INBOUND_QUEUE_SIZE);
+    }
+
+    /**
+     * Get whether messages sent to players are flushed once at the end of
+     * each tick, rather than as each is sent.
+     * @return True if flushes are coalesced.
+     */
+    public boolean useFlushCoalescing() {
+        return config.getBoolean(ServerConfig.Key.FLUSH_COALESCING);
+    }
+
+    /**
+     * Get the number of unflushed bytes after which a player's connection is
+     * flushed before the end of the tick, when flushes are coalesced.
+     * @return The flush threshold in bytes, or 0 for no threshold.
+     */
+    public int getFlushThreshold() {
+        return config.getInt(ServerConfig.Key.FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Get the number of worker threads each world uses to load chunks.
+     * @return The number of chunk load threads.
+     */
+    public int getChunkLoadThreads() {
+        return config.getInt(ServerConfig.Key.CHUNK_LOAD_THREADS);
+    }
+
+    /**
+     * Get how many recently unloaded chunks each world keeps in memory.
+     * @return The unloaded chunk cache size.
+     */
+    public int getUnloadedChunkCacheSize() {
+        return config.getInt(ServerConfig.Key.UNLOADED_CHUNK_CACHE);
+    }
+
+    /**
+     * Get how many chunks each world may unload or autosave per tick.
+     * @return The per-tick chunk budget.
+     */
+    public int getChunkUnloadsPerTick() {
+        return config.getInt(ServerConfig.Key.CHUNK_UNLOADS_PER_TICK);
+    }
+
+    /**
+     * Get how many milliseconds each world may spend unloading or
+     * autosaving chunks per tick.
+     * @return The per-tick time budget in milliseconds.
+     */
+    public int getChunkUnloadMillisPerTick() {
+        return config.getInt(ServerConfig.Key.CHUNK_UNLOAD_MILLIS_PER_TICK);
+    }
+
+    /**
+     * Get how many ticks a chunk must go unused before it is unloaded.
+     * @return The unload delay in ticks.
+     */
+    public int getChunkUnloadDelay() {
+        return config.getInt(ServerConfig.Key.CHUNK_UNLOAD_DELAY);
+    }
+
+    /**
+     * Get how many autosaves chunks whose only changes are to their entities
+     * may wait before being written.
+     * @return The entity autosave interval, where 1 writes them every autosave.
+     */
+    public int getEntityAutosaveInterval() {
+        return config.getInt(ServerConfig.Key.ENTITY_AUTOSAVE_INTERVAL);
+    }
+
+    /**
+     * Get the number of worker threads each world uses to read and write
+     * region files.
+     * @return The number of region I/O threads.
+     */
+    public int getRegionIoThreads() {
+        return config.getInt(ServerConfig.Key.REGION_IO_THREADS);
+    }
+
+    /**
+     * Get the most region files each world keeps open at once.
+     * @return The region file cache size.
+     */
+    public int getRegionFileCacheSize() {
+        return config.getInt(ServerConfig.Key.REGION_FILE_CACHE_SIZE);
+    }
+
+    /**
+     * Get whether region files should be accessed through memory mapping.
+     * @return True if region files are opened as mapped files.
+     */
+    public boolean useMappedRegionFiles() {
+        return config.getBoolean(ServerConfig.Key.REGION_FILE_MMAP);
+    }
+
+    /**
+     * Get the zlib compression level used when saving chunks, from 0 (no
+     * compression) to 9 (smallest output).
+     * @return The chunk compression level.
+     */
+    public int getRegionCompressionLevel() {
+        return config.getInt(ServerConfig.Key.REGION_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Get the milliseconds between syncs of written region files. When
+     * positive, chunks are written crash-consistently to new sectors and
+     * each region file is forced to disk at most once per interval.
+     * @return The region sync interval, or 0 to write chunks in place.
+     */
+    public int getRegionSyncInterval() {
+        return config.getInt(ServerConfig.Key.REGION_SYNC_INTERVAL);
+    }
+
     /**
      * Get the default game difficulty defined in the config.
      * @return The default difficulty.
@@ -1434,7 +1608,7 @@ public final class GlowServer implements Server {
         GlowWorld world = (GlowWorld) bWorld;
         if (save) {
             world.setAutoSave(false);
-            world.save(false);
+            world.save();
         }
         if (worlds.removeWorld(world)) {
             world.unload();
@@ -9,6 +9,7 @@ import net.glowstone.constants.GlowBiome;
 import net.glowstone.constants.GlowBiomeClimate;
 import net.glowstone.constants.GlowEffect;
 import net.glowstone.constants.GlowParticle;
+import net.glowstone.constants.GlowSound;
 import net.glowstone.constants.GlowTree;
 import net.glowstone.entity.*;
 import net.glowstone.entity.objects.GlowItem;
@@ -17,7 +18,10 @@ import net.glowstone.generator.structures.GlowStructure;
 import net.glowstone.io.WorldMetadataService.WorldFinalValues;
 import net.glowstone.io.WorldStorageProvider;
 import net.glowstone.io.anvil.AnvilWorldStorageProvider;
+import net.glowstone.net.SharedMessage;
 import net.glowstone.net.message.play.entity.EntityStatusMessage;
+import net.glowstone.net.message.play.game.PlayEffectMessage;
+import net.glowstone.net.message.play.game.PlaySoundMessage;
 import net.glowstone.net.message.play.player.ServerDifficultyMessage;
 import net.glowstone.util.BlockStateDelegate;
 import net.glowstone.util.GameRuleManager;
@@ -26,6 +30,7 @@ import org.bukkit.*;
 import org.bukkit.block.Biome;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.*;
 import org.bukkit.event.weather.LightningStrikeEvent;
 import org.bukkit.event.weather.ThunderChangeEvent;
@@ -98,11 +103,22 @@ public final class GlowWorld implements World {
      */
     private final ChunkManager chunks;
 
+    /**
+     * The number of ticks a chunk is kept loaded after an entity arrives
+     * in it through a portal.
+     */
+    private static final int PORTAL_TICKET_TICKS = 300;
+
     /**
      * A lock kept on the spawn chunks.
      */
     private final ChunkManager.ChunkLock spawnChunkLock;
 
+    /**
+     * Short-lived tickets kept on portal destinations.
+     */
+    private final ChunkManager.ChunkLock portalChunkLock;
+
     /**
      * The world metadata service used.
      */
@@ -255,7 +271,17 @@ public final class GlowWorld implements World {
      */
     private int maxBuildHeight;
 
-    private Set<GlowChunk.Key> activeChunksSet = new HashSet<GlowChunk.Key>();
+    /**
+     * The pregeneration in progress, if any.
+     */
+    private Pregenerator pregenerator;
+
+    /**
+     * Packed keys of the chunks near players which are ticked this pulse.
+     * Reused between pulses and may contain duplicates until sorted.
+     */
+    private long[] activeChunks = new long[256];
+    private int activeChunkCount;
 
     /**
      * Creates a new world from the options in the given WorldCreator.
@@ -314,7 +340,8 @@ public final class GlowWorld implements World {
         }
 
         // begin loading spawn area
-        spawnChunkLock = newChunkLock("spawn");
+        spawnChunkLock = newChunkLock(ChunkManager.TicketType.SPAWN, "spawn");
+        portalChunkLock = newChunkLock(ChunkManager.TicketType.PORTAL, "portals");
         server.addWorld(this);
         server.getLogger().info("Preparing spawn for " + name + "...");
         EventFactory.callEvent(new WorldInitEvent(this));
@@ -364,6 +391,9 @@ public final class GlowWorld implements World {
         }
         server.getLogger().info("Preparing spawn for " + name + ": done");
         EventFactory.callEvent(new WorldLoadEvent(this));
+
+        // pick up a pregeneration which was interrupted by a shutdown
+        pregenerator = Pregenerator.resume(this);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -386,11 +416,70 @@ public final class GlowWorld implements World {
     }
 
     /**
-     * Get a new chunk lock object a player or other party can use to keep chunks loaded.
+     * Get a new chunk lock object a plugin can use to keep chunks loaded.
      * @return The ChunkLock.
      */
     public ChunkManager.ChunkLock newChunkLock(String desc) {
-        return new ChunkManager.ChunkLock(chunks, name + ": " + desc);
+        return newChunkLock(ChunkManager.TicketType.PLUGIN, desc);
+    }
+
+    /**
+     * Get a new chunk lock object a player or other party can use to keep chunks loaded.
+     * @param type The type of tickets the lock holds.
+     * @param desc A description of the holder.
+     * @return The ChunkLock.
+     */
+    public ChunkManager.ChunkLock newChunkLock(ChunkManager.TicketType type, String desc) {
+        return new ChunkManager.ChunkLock(chunks, type, name + ": " + desc);
+    }
+
+    /**
+     * Generate and populate the chunks within a radius of the spawn chunk,
+     * saving and unloading them as they are finished. The work is spread
+     * over the following ticks and resumes if the server is restarted.
+     * @param radius The radius in chunks.
+     * @param circular Whether to generate a circle rather than a square.
+     * @param workers The number of chunks to read or generate at once.
+     * @param sender Where to send progress reports, or null to log them.
+     * @return The pregeneration.
+     * @throws IllegalStateException if a pregeneration is already running.
+     */
+    public Pregenerator pregenerate(int radius, boolean circular, int workers, CommandSender sender) {
+        if (pregenerator != null) {
+            throw new IllegalStateException("Pregeneration of " + name + " is already running");
+        }
+        pregenerator = Pregenerator.start(this, spawnLocation.getBlockX() >> 4, spawnLocation.getBlockZ() >> 4, radius, circular, workers, sender);
+        return pregenerator;
+    }
+
+    /**
+     * Get the pregeneration in progress.
+     * @return The pregeneration, or null if none is running.
+     */
+    public Pregenerator getPregenerator() {
+        return pregenerator;
+    }
+
+    /**
+     * Stop the pregeneration in progress, if any.
+     * @return Whether a pregeneration was running.
+     */
+    public boolean cancelPregeneration() {
+        if (pregenerator == null) {
+            return false;
+        }
+        pregenerator.cancel();
+        pregenerator = null;
+        return true;
+    }
+
+    /**
+     * Keep the chunk at a portal destination loaded for a short while, so
+     * that it is not unloaded while an entity is arriving.
+     * @param location The destination.
+     */
+    public void addPortalTicket(Location location) {
+        portalChunkLock.acquire(new GlowChunk.Key(location.getBlockX() >> 4, location.getBlockZ() >> 4), PORTAL_TICKET_TICKS);
     }
 
     /**
@@ -400,7 +489,11 @@ public final class GlowWorld implements World {
         List<GlowEntity> temp = new ArrayList<>(entities.getAll());
         List<GlowPlayer> players = new LinkedList<>();
 
-        activeChunksSet.clear();
+        activeChunkCount = 0;
+
+        // install chunks which finished loading in the background
+        chunks.processPendingLoads();
+        chunks.expireTickets();
 
         // We should pulse our tickmap, so blocks get updated.
         this.pulseTickMap();
@@ -421,8 +514,8 @@ public final class GlowWorld implements World {
                     final int cz = playerLocation.getBlockZ() >> 4;
                     for (int x = cx - radius; x <= cx + radius; x++) {
                         for (int z = cz - radius; z <= cz + radius; z++) {
-                            if (isChunkLoaded(cx, cz)) {
-                                activeChunksSet.add(new GlowChunk.Key(x, z));
+                            if (isChunkLoaded(x, z)) {
+                                addActiveChunk(GlowChunk.Key.pack(x, z));
                             }
                         }
                     }
@@ -432,9 +525,15 @@ public final class GlowWorld implements World {
             }
         }
 
-        for (GlowChunk.Key key : activeChunksSet) {
-            final int cx = key.getX();
-            final int cz = key.getZ();
+        // sort so that chunks near several players are only ticked once
+        Arrays.sort(activeChunks, 0, activeChunkCount);
+        for (int k = 0; k < activeChunkCount; ++k) {
+            final long key = activeChunks[k];
+            if (k > 0 && key == activeChunks[k - 1]) {
+                continue;
+            }
+            final int cx = GlowChunk.Key.unpackX(key);
+            final int cz = GlowChunk.Key.unpackZ(key);
             // check the chunk is loaded
             if (isChunkLoaded(cx, cz)) {
                 final GlowChunk chunk = getChunkAt(cx, cz);
@@ -497,7 +596,7 @@ public final class GlowWorld implements World {
                             final int x = n & 0xF;
                             final int z = n >> 8 & 0xF;
                             final int y = n >> 16 & 0xF;
-                            final int type = section.types[(y << 8) | (z << 4) | x] >> 4;
+                            final int type = section.getType((y << 8) | (z << 4) | x) >> 4;
                             if (type != 0) { // filter air blocks
                                 final BlockType blockType = ItemTable.instance().getBlock(type);
                                 // does this block needs random tick ?
@@ -576,11 +675,18 @@ public final class GlowWorld implements World {
             }
         }
 
+        // continue any pregeneration
+        if (pregenerator != null && pregenerator.pulse()) {
+            pregenerator = null;
+        }
+
+        // unload unused chunks and continue any autosave a few chunks at a time
+        chunks.processUnloadsAndSaves();
+
         if (--saveTimer <= 0) {
             saveTimer = AUTOSAVE_TIME;
-            chunks.unloadOldChunks();
             if (autosave) {
-                save(true);
+                autosave();
             }
         }
     }
@@ -762,9 +868,13 @@ public final class GlowWorld implements World {
     @Override
     public void setDifficulty(Difficulty difficulty) {
         this.difficulty = difficulty;
-        ServerDifficultyMessage message = new ServerDifficultyMessage(difficulty.getValue());
-        for (GlowPlayer player : getRawPlayers()) {
-            player.getSession().send(message);
+        SharedMessage message = new SharedMessage(new ServerDifficultyMessage(difficulty.getValue()));
+        try {
+            for (GlowPlayer player : getRawPlayers()) {
+                message.sendTo(player);
+            }
+        } finally {
+            message.release();
         }
     }
 
@@ -893,30 +1003,44 @@ public final class GlowWorld implements World {
     ////////////////////////////////////////////////////////////////////////////
     // force-save
 
+    /**
+     * Save the world metadata, chunks and players, waiting for the writes to
+     * finish. Chunks are encoded from their live state, so this must be
+     * called from the world thread or from the main thread between ticks,
+     * where sync tasks and commands run.
+     */
     @Override
     public void save() {
-        save(false);
-    }
-
-    public void save(boolean async) {
         EventFactory.callEvent(new WorldSaveEvent(this));
 
         // save metadata
-        writeWorldData(async);
+        writeWorldData(false);
 
         // save chunks
-        maybeAsync(async, new Runnable() {
-            @Override
-            public void run() {
-                for (GlowChunk chunk : chunks.getLoadedChunks()) {
-                    chunks.performSave(chunk);
-                }
-            }
-        });
+        chunks.saveAll();
+        // wait for the region writes to finish
+        try {
+            storageProvider.getChunkIoService().flush();
+        } catch (IOException e) {
+            server.getLogger().log(Level.SEVERE, "Error flushing chunks of world " + name, e);
+        }
 
         // save players
         for (GlowPlayer player : getRawPlayers()) {
-            player.saveData(async);
+            player.saveData(false);
+        }
+    }
+
+    /**
+     * Save the world metadata and players, and queue the loaded chunks to be
+     * saved a few at a time over the following ticks.
+     */
+    private void autosave() {
+        EventFactory.callEvent(new WorldSaveEvent(this));
+        writeWorldData(true);
+        chunks.queueAutosave();
+        for (GlowPlayer player : getRawPlayers()) {
+            player.saveData(true);
         }
     }
 
@@ -962,12 +1086,19 @@ public final class GlowWorld implements World {
         return structures;
     }
 
+    private void addActiveChunk(long key) {
+        if (activeChunkCount == activeChunks.length) {
+            activeChunks = Arrays.copyOf(activeChunks, activeChunkCount * 2);
+        }
+        activeChunks[activeChunkCount++] = key;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // get block, chunk, id, highest methods with coords
 
     @Override
     public GlowBlock getBlockAt(int x, int y, int z) {
-        return new GlowBlock(getChunkAt(x >> 4, z >> 4), x, y & 0xff, z);
+        return new GlowBlock(this, x, y & 0xff, z);
     }
 
     @Override
@@ -1145,6 +1276,20 @@ public final class GlowWorld implements World {
         return GlowBiome.getBiome(getChunkAt(x >> 4, z >> 4).getBiome(x & 0xF, z & 0xF));
     }
 
+    /**
+     * Gets the biome of a column without loading its chunk. If the chunk is
+     * not loaded, this is the biome the generator would give it.
+     * @param x The X coordinate of the column.
+     * @param z The Z coordinate of the column.
+     * @return The biome.
+     */
+    public Biome getBiomeWithoutLoading(int x, int z) {
+        if (environment != Environment.NORMAL || chunks.isChunkLoaded(x >> 4, z >> 4)) {
+            return getBiome(x, z);
+        }
+        return chunks.getGeneratedBiome(x, z);
+    }
+
     @Override
     public void setBiome(int x, int z, Biome bio) {
         getChunkAt(x >> 4, z >> 4).setBiome(x & 0xF, z & 0xF, GlowBiome.getId(bio));
@@ -1448,12 +1593,7 @@ public final class GlowWorld implements World {
 
     @Override
     public void playEffect(Location location, Effect effect, int data, int radius) {
-        final int radiusSquared = radius * radius;
-        for (Player player : getRawPlayers()) {
-            if (player.getLocation().distanceSquared(location) <= radiusSquared) {
-                player.playEffect(location, effect, data);
-            }
-        }
+        playEffectExceptTo(location, effect, data, radius, null);
     }
 
     @Override
@@ -1468,10 +1608,16 @@ public final class GlowWorld implements World {
 
     public void playEffectExceptTo(Location location, Effect effect, int data, int radius, Player exclude) {
         final int radiusSquared = radius * radius;
-        for (Player player : getRawPlayers()) {
-            if (!player.equals(exclude) && player.getLocation().distanceSquared(location) <= radiusSquared) {
-                player.playEffect(location, effect, data);
+        SharedMessage message = new SharedMessage(new PlayEffectMessage(effect.getId(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ(), data, effect.isDistanceIgnored()));
+        try {
+            for (GlowPlayer player : getRawPlayers()) {
+                if (!player.equals(exclude) && player.getLocation().distanceSquared(location) <= radiusSquared) {
+                    message.sendTo(player);
+                }
             }
+        } finally {
+            message.release();
         }
     }
 
@@ -1480,10 +1626,17 @@ public final class GlowWorld implements World {
         if (location == null || sound == null) return;
 
         final double radiusSquared = Math.pow(volume * 16, 2);
-        for (Player player : getRawPlayers()) {
-            if (player.getLocation().distanceSquared(location) <= radiusSquared) {
-                player.playSound(location, sound, volume, pitch);
+        // the same position as GlowPlayer.playSound sends
+        SharedMessage message = new SharedMessage(new PlaySoundMessage(GlowSound.getName(sound),
+                location.getBlockX() + 0.5, location.getBlockY() + 0.5, location.getBlockZ() + 0.5, volume, pitch));
+        try {
+            for (GlowPlayer player : getRawPlayers()) {
+                if (player.getLocation().distanceSquared(location) <= radiusSquared) {
+                    message.sendTo(player);
+                }
             }
+        } finally {
+            message.release();
         }
     }
 
@@ -1582,6 +1735,7 @@ public final class GlowWorld implements World {
      */
     public boolean unload() {
         EventFactory.callEvent(new WorldUnloadEvent(this));
+        chunks.shutdown();
         try {
             storageProvider.getChunkIoService().unload();
             storageProvider.getScoreboardIoService().unload();
@@ -1633,9 +1787,13 @@ public final class GlowWorld implements World {
             }
         } else if (rule.equals("reducedDebugInfo")) {
             // inform clients about the debug info change
-            EntityStatusMessage message = new EntityStatusMessage(0, gameRules.getBoolean("reducedDebugInfo") ? EntityStatusMessage.ENABLE_REDUCED_DEBUG_INFO : EntityStatusMessage.DISABLE_REDUCED_DEBUG_INFO);
-            for (GlowPlayer player : getRawPlayers()) {
-                player.getSession().send(message);
+            SharedMessage message = new SharedMessage(new EntityStatusMessage(0, gameRules.getBoolean("reducedDebugInfo") ? EntityStatusMessage.ENABLE_REDUCED_DEBUG_INFO : EntityStatusMessage.DISABLE_REDUCED_DEBUG_INFO));
+            try {
+                for (GlowPlayer player : getRawPlayers()) {
+                    message.sendTo(player);
+                }
+            } finally {
+                message.release();
             }
         }
         return true;
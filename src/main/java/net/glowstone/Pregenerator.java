@@ -0,0 +1,359 @@
+package net.glowstone;
+
+import org.bukkit.command.CommandSender;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Generates and populates a square or circular region of a world ahead of
+ * time. Chunks are worked through row by row from the world thread: chunks
+ * ahead of the current one are loaded or generated asynchronously, with no
+ * more than the given number of loads in flight at once, chunks are
+ * populated in order once their neighbours are
+ * available, and rows which can no longer be touched by population are
+ * handed to the chunk manager's rolling unloader to be saved and unloaded.
+ *
+ * Progress is checkpointed to the world folder whenever rows are unloaded,
+ * so that an interrupted run resumes when the world is loaded again.
+ */
+public final class Pregenerator {
+
+    /**
+     * The name of the checkpoint file in the world folder.
+     */
+    private static final String CHECKPOINT_FILE = "pregen.properties";
+
+    /**
+     * The load priority of pregeneration, after any chunk a player wants.
+     */
+    private static final int PRIORITY = Integer.MAX_VALUE;
+
+    /**
+     * The time per tick that may be spent populating chunks.
+     */
+    private static final long MILLIS_PER_TICK = 20;
+
+    /**
+     * The number of rows past the current one which may be requested ahead.
+     */
+    private static final int LOOKAHEAD_ROWS = 2;
+
+    /**
+     * The time between progress reports.
+     */
+    private static final long REPORT_MILLIS = 5000;
+
+    private final GlowWorld world;
+    private final ChunkManager chunks;
+    private final ChunkManager.ChunkLock lock;
+    private final CommandSender sender;
+    private final int centerX, centerZ, radius, workers;
+    private final boolean circular;
+    private final long total;
+
+    /**
+     * The next chunk to populate, relative to the center.
+     */
+    private int headX, headZ;
+
+    /**
+     * The number of chunks populated, including those done before a resume.
+     */
+    private long done;
+
+    private final long doneAtStart;
+    private final long startTime = System.currentTimeMillis();
+    private long lastReport = startTime;
+
+    private Pregenerator(GlowWorld world, int centerX, int centerZ, int radius, boolean circular, int workers, int startRow, CommandSender sender) {
+        this.world = world;
+        this.chunks = world.getChunkManager();
+        this.lock = world.newChunkLock(ChunkManager.TicketType.PREGEN, "pregeneration");
+        this.sender = sender;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.circular = circular;
+        this.workers = Math.max(1, workers);
+
+        long count = 0, before = 0;
+        for (int dz = -radius; dz <= radius; ++dz) {
+            int width = 2 * halfWidth(dz) + 1;
+            count += width;
+            if (dz < startRow) {
+                before += width;
+            }
+        }
+        total = count;
+        done = doneAtStart = before;
+        headZ = startRow;
+        headX = -halfWidth(startRow);
+    }
+
+    /**
+     * Start pregenerating a region of a world.
+     * @param world The world.
+     * @param centerX The X coordinate of the center chunk.
+     * @param centerZ The Z coordinate of the center chunk.
+     * @param radius The radius of the region, in chunks.
+     * @param circular Whether the region is a circle rather than a square.
+     * @param workers The number of chunks to read or generate at once.
+     * @param sender Where to send progress reports, or null to log them.
+     * @return The new pregenerator.
+     */
+    static Pregenerator start(GlowWorld world, int centerX, int centerZ, int radius, boolean circular, int workers, CommandSender sender) {
+        Pregenerator pregenerator = new Pregenerator(world, centerX, centerZ, radius, circular, workers, -radius, sender);
+        pregenerator.writeCheckpoint();
+        return pregenerator;
+    }
+
+    /**
+     * Resume an interrupted run from the checkpoint in a world's folder.
+     * @param world The world.
+     * @return The resumed pregenerator, or null if there was nothing to resume.
+     */
+    static Pregenerator resume(GlowWorld world) {
+        File file = new File(world.getWorldFolder(), CHECKPOINT_FILE);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+            Pregenerator pregenerator = new Pregenerator(world,
+                    Integer.parseInt(props.getProperty("center-x")),
+                    Integer.parseInt(props.getProperty("center-z")),
+                    Integer.parseInt(props.getProperty("radius")),
+                    Boolean.parseBoolean(props.getProperty("circular")),
+                    Integer.parseInt(props.getProperty("workers")),
+                    Integer.parseInt(props.getProperty("row")),
+                    null);
+            GlowServer.logger.info("Resuming pregeneration of " + world.getName() + " at " + pregenerator.getProgressMessage());
+            return pregenerator;
+        } catch (IOException | RuntimeException e) {
+            GlowServer.logger.log(Level.WARNING, "Could not resume pregeneration of " + world.getName() + " from " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the total number of chunks in the region.
+     * @return The number of chunks.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the number of chunks which have been populated.
+     * @return The number of chunks done.
+     */
+    public long getDone() {
+        return done;
+    }
+
+    /**
+     * Check whether the whole region has been populated.
+     * @return Whether pregeneration is finished.
+     */
+    public boolean isFinished() {
+        return headZ > radius;
+    }
+
+    /**
+     * Get the rate at which chunks have been populated since this run
+     * started.
+     * @return The rate in chunks per second.
+     */
+    public double getChunksPerSecond() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : (done - doneAtStart) * 1000.0 / elapsed;
+    }
+
+    /**
+     * Get a description of the progress, rate and estimated time remaining.
+     * @return The progress message.
+     */
+    public String getProgressMessage() {
+        double rate = getChunksPerSecond();
+        String eta = rate <= 0 ? "unknown" : formatDuration((long) ((total - done) / rate));
+        return String.format("%d/%d chunks (%.1f%%), %.1f chunks/s, ETA %s",
+                done, total, total == 0 ? 100.0 : 100.0 * done / total, rate, eta);
+    }
+
+    /**
+     * Work on the region for one tick. Must be called from the world thread.
+     * @return Whether pregeneration has finished.
+     */
+    boolean pulse() {
+        if (isFinished()) {
+            return true;
+        }
+
+        // don't get more than about a row ahead of the unloader
+        boolean unloadsBehind = chunks.getImmediateUnloadCount() > 2 * radius + 3;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MILLIS_PER_TICK);
+        while (!unloadsBehind && !isFinished() && System.nanoTime() < deadline && request(headX, headZ)) {
+            done++;
+            int row = headZ;
+            advance();
+            if (headZ != row) {
+                // nothing populated from now on reaches back past the previous row
+                evictRowsBefore(headZ - 1);
+                writeCheckpoint();
+            }
+        }
+
+        // keep up to the given number of chunks loading or generating in the
+        // background, looking no more than a few rows ahead
+        int dx = headX, dz = headZ;
+        while (chunks.getPendingLoadCount() < workers && dz <= radius && dz <= headZ + LOOKAHEAD_ROWS) {
+            prefetch(dx, dz);
+            if (++dx > halfWidth(dz)) {
+                dz++;
+                dx = -halfWidth(dz);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (isFinished()) {
+            evictRowsBefore(radius + 2);
+            lock.clear();
+            deleteCheckpoint();
+            report("Pregeneration of " + world.getName() + " finished: " + total + " chunks in "
+                    + formatDuration((now - startTime) / 1000));
+            return true;
+        }
+        if (now >= lastReport + REPORT_MILLIS) {
+            lastReport = now;
+            report("Pregenerating " + world.getName() + ": " + getProgressMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Stop pregenerating and forget the checkpoint. Chunks still held are
+     * left to the normal unloader.
+     */
+    void cancel() {
+        lock.clear();
+        deleteCheckpoint();
+        report("Pregeneration of " + world.getName() + " cancelled at " + done + "/" + total + " chunks");
+    }
+
+    /**
+     * Hold the 3x3 area around a chunk and request that it be populated.
+     * @return Whether the chunk is populated.
+     */
+    private boolean request(int dx, int dz) {
+        int x = centerX + dx, z = centerZ + dz;
+        for (int x2 = x - 1; x2 <= x + 1; ++x2) {
+            for (int z2 = z - 1; z2 <= z + 1; ++z2) {
+                lock.acquire(new GlowChunk.Key(x2, z2));
+            }
+        }
+        return chunks.requestPopulation(x, z, PRIORITY);
+    }
+
+    /**
+     * Hold the 3x3 area around a chunk and start loading any of it which
+     * isn't loaded, leaving population to {@link #request}.
+     */
+    private void prefetch(int dx, int dz) {
+        int x = centerX + dx, z = centerZ + dz;
+        for (int x2 = x - 1; x2 <= x + 1; ++x2) {
+            for (int z2 = z - 1; z2 <= z + 1; ++z2) {
+                lock.acquire(new GlowChunk.Key(x2, z2));
+                if (!chunks.isChunkLoaded(x2, z2)) {
+                    chunks.loadChunkAsync(x2, z2, true, PRIORITY);
+                }
+            }
+        }
+    }
+
+    private void advance() {
+        if (++headX > halfWidth(headZ)) {
+            headZ++;
+            headX = -halfWidth(headZ);
+        }
+    }
+
+    /**
+     * Get the distance from the center column to the edge of a row.
+     */
+    private int halfWidth(int dz) {
+        if (dz > radius) {
+            return 0;
+        }
+        if (!circular) {
+            return radius;
+        }
+        return (int) Math.sqrt((double) radius * radius - (double) dz * dz);
+    }
+
+    /**
+     * Release the held chunks in rows before the given one and queue them to
+     * be saved and unloaded within the unloader's per-tick budget.
+     */
+    private void evictRowsBefore(int row) {
+        int limit = centerZ + row;
+        for (GlowChunk.Key key : lock) {
+            if (key.getZ() < limit) {
+                lock.release(key);
+                // finished with for good, so don't push players' chunks out of the cache
+                chunks.queueImmediateUnload(key.getX(), key.getZ(), false);
+            }
+        }
+    }
+
+    private void report(String message) {
+        if (sender != null) {
+            sender.sendMessage(message);
+        } else {
+            GlowServer.logger.info(message);
+        }
+    }
+
+    private void writeCheckpoint() {
+        Properties props = new Properties();
+        props.setProperty("center-x", Integer.toString(centerX));
+        props.setProperty("center-z", Integer.toString(centerZ));
+        props.setProperty("radius", Integer.toString(radius));
+        props.setProperty("circular", Boolean.toString(circular));
+        props.setProperty("workers", Integer.toString(workers));
+        // the previous row has been populated but not yet saved
+        props.setProperty("row", Integer.toString(Math.max(-radius, headZ - 1)));
+
+        File file = new File(world.getWorldFolder(), CHECKPOINT_FILE);
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "Pregeneration progress for " + world.getName());
+        } catch (IOException e) {
+            GlowServer.logger.log(Level.WARNING, "Could not write pregeneration checkpoint " + file, e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        File file = new File(world.getWorldFolder(), CHECKPOINT_FILE);
+        if (file.exists() && !file.delete()) {
+            GlowServer.logger.warning("Could not delete pregeneration checkpoint " + file);
+        }
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds < 60) {
+            return seconds + "s";
+        } else if (seconds < 3600) {
+            return (seconds / 60) + "m " + (seconds % 60) + "s";
+        }
+        return (seconds / 3600) + "h " + (seconds / 60 % 60) + "m";
+    }
+}
@@ -67,13 +67,13 @@ public final class GlowBlock implements Block {
      */
     private static final MetadataStore<Block> metadata = new BlockMetadataStore();
 
-    private final GlowChunk chunk;
+    private final GlowWorld world;
     private final int x;
     private final int y;
     private final int z;
 
-    public GlowBlock(GlowChunk chunk, int x, int y, int z) {
-        this.chunk = chunk;
+    public GlowBlock(GlowWorld world, int x, int y, int z) {
+        this.world = world;
         this.x = x;
         this.y = y;
         this.z = z;
@@ -83,12 +83,17 @@ public final class GlowBlock implements Block {
     // Basics
     @Override
     public GlowWorld getWorld() {
-        return chunk.getWorld();
+        return world;
     }
 
+    /**
+     * Get the chunk this block is in. The chunk is looked up by coordinates
+     * each time, since chunk objects are discarded after they unload.
+     * @return The chunk.
+     */
     @Override
     public GlowChunk getChunk() {
-        return chunk;
+        return world.getChunkAt(x >> 4, z >> 4);
     }
 
     @Override
@@ -124,7 +129,7 @@ public final class GlowBlock implements Block {
     }
 
     public TileEntity getTileEntity() {
-        return chunk.getEntity(x & 0xf, y, z & 0xf);
+        return getChunk().getEntity(x & 0xf, y, z & 0xf);
     }
 
     @Override
@@ -197,7 +202,7 @@ public final class GlowBlock implements Block {
 
     @Override
     public int getTypeId() {
-        return chunk.getType(x & 0xf, z & 0xf, y);
+        return getChunk().getType(x & 0xf, z & 0xf, y);
     }
 
     @Override
@@ -236,6 +241,7 @@ public final class GlowBlock implements Block {
         Material oldTypeId = getType();
         byte oldData = getData();
 
+        GlowChunk chunk = getChunk();
         chunk.setType(x & 0xf, z & 0xf, y, type);
         chunk.setMetaData(x & 0xf, z & 0xf, y, data);
 
@@ -293,7 +299,7 @@ public final class GlowBlock implements Block {
     // Data and light getters/setters
     @Override
     public byte getData() {
-        return (byte) chunk.getMetaData(x & 0xf, z & 0xf, y);
+        return (byte) getChunk().getMetaData(x & 0xf, z & 0xf, y);
     }
 
     @Override
@@ -304,7 +310,7 @@ public final class GlowBlock implements Block {
     @Override
     public void setData(byte data, boolean applyPhysics) {
         byte oldData = getData();
-        chunk.setMetaData(x & 0xf, z & 0xf, y & 0x7f, data);
+        getChunk().setMetaData(x & 0xf, z & 0xf, y & 0x7f, data);
         if (applyPhysics) {
             applyPhysics(getType(), getTypeId(), oldData, data);
         }
@@ -321,12 +327,12 @@ public final class GlowBlock implements Block {
 
     @Override
     public byte getLightFromSky() {
-        return chunk.getSkyLight(x & 0xf, z & 0xf, y);
+        return getChunk().getSkyLight(x & 0xf, z & 0xf, y);
     }
 
     @Override
     public byte getLightFromBlocks() {
-        return chunk.getBlockLight(x & 0xf, z & 0xf, y);
+        return getChunk().getBlockLight(x & 0xf, z & 0xf, y);
     }
 
     ////////////////////////////////////////////////////////////////////////////
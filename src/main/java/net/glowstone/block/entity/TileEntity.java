@@ -39,6 +39,8 @@ public abstract class TileEntity {
      * Update this TileEntity's visible state to all players in range.
      */
     public final void updateInRange() {
+        // a visible change is also one that needs saving
+        ((GlowChunk) block.getChunk()).markDirty();
         GlowChunk.Key key = new GlowChunk.Key(block.getChunk().getX(), block.getChunk().getZ());
         for (GlowPlayer player : block.getWorld().getRawPlayers()) {
             if (player.canSeeChunk(key)) {
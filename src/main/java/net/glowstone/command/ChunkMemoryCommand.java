@@ -0,0 +1,85 @@
+package net.glowstone.command;
+
+import net.glowstone.GlowChunk;
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.GlowWorld;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.defaults.BukkitCommand;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A built-in command to report how much memory loaded chunk sections use.
+ */
+public class ChunkMemoryCommand extends BukkitCommand {
+
+    /**
+     * The size of a section before paletted storage: a char per block plus
+     * two nibble arrays of light.
+     */
+    private static final int UNPACKED_SECTION_BYTES = 4096 * 2 + 2048 * 2;
+
+    public ChunkMemoryCommand() {
+        super("chunkmemory");
+        this.description = "Reports the memory used by loaded chunk sections";
+        this.usageMessage = "/chunkmemory [world]";
+        this.setAliases(Arrays.<String>asList());
+        this.setPermission("glowstone.command.chunkmemory");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        List<World> worlds;
+        if (args.length == 0) {
+            worlds = Bukkit.getWorlds();
+        } else if (args.length == 1) {
+            World world = Bukkit.getWorld(args[0]);
+            if (world == null) {
+                sender.sendMessage(ChatColor.RED + "No world named " + args[0]);
+                return false;
+            }
+            worlds = Collections.singletonList(world);
+        } else {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        for (World world : worlds) {
+            int chunks = 0, sections = 0;
+            long bytes = 0;
+            // index 0 is single-valued, then 1, 2, 4, 8 and 16 bits per block
+            int[] byBits = new int[6];
+            for (GlowChunk chunk : ((GlowWorld) world).getChunkManager().getLoadedChunks()) {
+                ChunkSection[] chunkSections = chunk.getSections();
+                if (chunkSections == null) {
+                    continue;
+                }
+                chunks++;
+                for (ChunkSection section : chunkSections) {
+                    if (section != null) {
+                        sections++;
+                        bytes += section.getMemoryUsage();
+                        int bits = section.getBitsPerBlock();
+                        byBits[bits == 0 ? 0 : Integer.numberOfTrailingZeros(bits) + 1]++;
+                    }
+                }
+            }
+
+            long average = sections == 0 ? 0 : bytes / sections;
+            sender.sendMessage(ChatColor.YELLOW + world.getName() + ": " + chunks + " chunks, " + sections + " sections, "
+                    + (bytes / 1024) + " KiB (" + average + " bytes/section, was " + UNPACKED_SECTION_BYTES + ")");
+            sender.sendMessage(" - bits per block: uniform=" + byBits[0] + " 1=" + byBits[1] + " 2=" + byBits[2]
+                    + " 4=" + byBits[3] + " 8=" + byBits[4] + " 16=" + byBits[5]);
+        }
+
+        return true;
+    }
+
+}
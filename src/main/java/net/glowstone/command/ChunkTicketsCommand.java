@@ -0,0 +1,74 @@
+package net.glowstone.command;
+
+import net.glowstone.ChunkManager;
+import net.glowstone.GlowWorld;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.defaults.BukkitCommand;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+
+/**
+ * A built-in command to list the tickets keeping a chunk loaded.
+ */
+public class ChunkTicketsCommand extends BukkitCommand {
+
+    public ChunkTicketsCommand() {
+        super("chunktickets");
+        this.description = "Lists the tickets keeping a chunk loaded";
+        this.usageMessage = "/chunktickets [<world> <chunkX> <chunkZ>]";
+        this.setAliases(Arrays.<String>asList());
+        this.setPermission("glowstone.command.chunktickets");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        World world;
+        int x, z;
+        if (args.length == 0 && sender instanceof Player) {
+            Location location = ((Player) sender).getLocation();
+            world = location.getWorld();
+            x = location.getBlockX() >> 4;
+            z = location.getBlockZ() >> 4;
+        } else if (args.length == 3) {
+            world = Bukkit.getWorld(args[0]);
+            if (world == null) {
+                sender.sendMessage(ChatColor.RED + "No world named " + args[0]);
+                return false;
+            }
+            try {
+                x = Integer.parseInt(args[1]);
+                z = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(ChatColor.RED + "Chunk coordinates must be numbers");
+                return false;
+            }
+        } else {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        ChunkManager manager = ((GlowWorld) world).getChunkManager();
+        StringBuilder counts = new StringBuilder();
+        for (ChunkManager.TicketType type : ChunkManager.TicketType.values()) {
+            counts.append(' ').append(type.name().toLowerCase()).append('=').append(manager.getTicketCount(x, z, type));
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Chunk " + world.getName() + " (" + x + ", " + z + "): "
+                + manager.getTicketCount(x, z) + " tickets," + counts
+                + (manager.isChunkLoaded(x, z) ? ", loaded" : ", not loaded"));
+
+        for (ChunkManager.ChunkLock holder : manager.getTicketHolders(x, z)) {
+            long remaining = holder.getRemainingTicks(x, z);
+            sender.sendMessage(" - " + holder.getType().name().toLowerCase() + " " + holder.getDescription()
+                    + (remaining < 0 ? "" : " (expires in " + remaining + " ticks)"));
+        }
+        return true;
+    }
+
+}
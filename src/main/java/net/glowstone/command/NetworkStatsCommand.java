@@ -0,0 +1,110 @@
+package net.glowstone.command;
+
+import net.glowstone.GlowServer;
+import net.glowstone.entity.GlowPlayer;
+import net.glowstone.net.GlowSession;
+import net.glowstone.net.SharedMessage;
+import net.glowstone.net.pipeline.CompressionHandler;
+import net.glowstone.net.pipeline.FlushHandler;
+import net.glowstone.net.pipeline.FramingHandler;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.defaults.BukkitCommand;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A built-in command to report the socket flushes and encoded bytes of all
+ * connections, and the network queues of connected players.
+ */
+public class NetworkStatsCommand extends BukkitCommand {
+
+    /**
+     * The length of a tick, in nanoseconds.
+     */
+    private static final double TICK_NANOS = 50e6;
+
+    /**
+     * The counts and time of the last report, to give rates since then.
+     */
+    private long lastFlushes = FlushHandler.getFlushes();
+    private long lastEncoded = getEncodedBytes();
+    private long lastShared = SharedMessage.getSharedBytes();
+    private long lastOffloaded = CompressionHandler.getOffloaded();
+    private long lastReport = System.nanoTime();
+
+    public NetworkStatsCommand() {
+        super("netstats");
+        this.description = "Reports socket flushes, compression and the network queues of connected players";
+        this.usageMessage = "/netstats [player]";
+        this.setAliases(Arrays.<String>asList());
+        this.setPermission("glowstone.command.netstats");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        Collection<? extends Player> players;
+        if (args.length == 0) {
+            players = Bukkit.getOnlinePlayers();
+        } else if (args.length == 1) {
+            Player player = Bukkit.getPlayerExact(args[0]);
+            if (player == null) {
+                sender.sendMessage(ChatColor.RED + "No player named " + args[0]);
+                return false;
+            }
+            players = Collections.singletonList(player);
+        } else {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        // each flush of written data is a write system call on the socket
+        long flushes = FlushHandler.getFlushes(), now = System.nanoTime();
+        double ticks = Math.max(1, now - lastReport) / TICK_NANOS;
+        long average = flushes == 0 ? 0 : FlushHandler.getFlushedBytes() / flushes;
+        sender.sendMessage(ChatColor.YELLOW + "Socket flushes: " + flushes + " (" + String.format("%.1f", (flushes - lastFlushes) / ticks)
+                + " per tick since last report, " + average + " bytes each)");
+
+        // shared bytes would have been encoded again by each recipient's pipeline
+        long encoded = getEncodedBytes(), shared = SharedMessage.getSharedBytes();
+        long encodedPerTick = (long) ((encoded - lastEncoded) / ticks);
+        long withoutSharing = (long) ((encoded - lastEncoded + shared - lastShared) / ticks);
+        sender.sendMessage(ChatColor.YELLOW + "Messages encoded: " + encodedPerTick + " bytes per tick since last report, "
+                + withoutSharing + " without shared broadcasts");
+
+        // offloaded messages would otherwise have been compressed on the network threads
+        long offloaded = CompressionHandler.getOffloaded();
+        long offloadedAverage = offloaded == 0 ? 0 : CompressionHandler.getOffloadedBytes() / offloaded;
+        sender.sendMessage(ChatColor.YELLOW + "Compression offloaded: " + offloaded + " messages (" + String.format("%.1f", (offloaded - lastOffloaded) / ticks)
+                + " per tick since last report, " + offloadedAverage + " bytes each), " + CompressionHandler.getOffloadsRejected() + " compressed inline with the pool full");
+        lastFlushes = flushes;
+        lastEncoded = encoded;
+        lastShared = shared;
+        lastOffloaded = offloaded;
+        lastReport = now;
+
+        int capacity = ((GlowServer) Bukkit.getServer()).getInboundQueueSize();
+        sender.sendMessage(ChatColor.YELLOW + "Inbound queues (" + capacity + " messages each):");
+        for (Player player : players) {
+            GlowSession session = ((GlowPlayer) player).getSession();
+            sender.sendMessage(" - " + player.getName() + ": " + session.getMessageQueueSize() + " queued, "
+                    + (session.isReadPaused() ? ChatColor.RED + "paused" + ChatColor.RESET : "reading")
+                    + ", paused " + session.getReadPauses() + " times");
+        }
+        return true;
+    }
+
+    /**
+     * Get the framed bytes encoded by connections and by shared broadcasts.
+     */
+    private static long getEncodedBytes() {
+        return FramingHandler.getFramedBytes() + SharedMessage.getEncodedBytes();
+    }
+
+}
@@ -0,0 +1,91 @@
+package net.glowstone.command;
+
+import net.glowstone.GlowWorld;
+import net.glowstone.Pregenerator;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.defaults.BukkitCommand;
+
+import java.util.Arrays;
+
+/**
+ * A built-in command to generate a region of a world ahead of time.
+ */
+public class PregenCommand extends BukkitCommand {
+
+    public PregenCommand() {
+        super("pregen");
+        this.description = "Generates the chunks around a world's spawn ahead of time";
+        this.usageMessage = "/pregen <world> <radius> [square|circle] | /pregen <world> <status|cancel>";
+        this.setAliases(Arrays.<String>asList());
+        this.setPermission("glowstone.command.pregen");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        if (args.length < 2 || args.length > 3) {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        World world = Bukkit.getWorld(args[0]);
+        if (world == null) {
+            sender.sendMessage(ChatColor.RED + "No world named " + args[0]);
+            return false;
+        }
+        GlowWorld glowWorld = (GlowWorld) world;
+        Pregenerator running = glowWorld.getPregenerator();
+
+        if (args[1].equalsIgnoreCase("status")) {
+            if (running == null) {
+                sender.sendMessage(ChatColor.YELLOW + "No pregeneration is running in " + world.getName());
+            } else {
+                sender.sendMessage(ChatColor.YELLOW + "Pregenerating " + world.getName() + ": " + running.getProgressMessage());
+            }
+            return true;
+        }
+        if (args[1].equalsIgnoreCase("cancel")) {
+            if (!glowWorld.cancelPregeneration()) {
+                sender.sendMessage(ChatColor.RED + "No pregeneration is running in " + world.getName());
+            }
+            return true;
+        }
+
+        int radius;
+        try {
+            radius = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            sender.sendMessage(ChatColor.RED + "Radius must be a number");
+            return false;
+        }
+        if (radius < 0) {
+            sender.sendMessage(ChatColor.RED + "Radius must not be negative");
+            return false;
+        }
+
+        boolean circular = false;
+        if (args.length == 3) {
+            if (args[2].equalsIgnoreCase("circle")) {
+                circular = true;
+            } else if (!args[2].equalsIgnoreCase("square")) {
+                sender.sendMessage(ChatColor.RED + "Shape must be square or circle");
+                return false;
+            }
+        }
+
+        if (running != null) {
+            sender.sendMessage(ChatColor.RED + "A pregeneration is already running in " + world.getName());
+            return false;
+        }
+        // twice the generator threads, so they stay busy while finished chunks wait to be installed
+        int workers = 2 * Runtime.getRuntime().availableProcessors();
+        Pregenerator pregenerator = glowWorld.pregenerate(radius, circular, workers, sender);
+        sender.sendMessage(ChatColor.YELLOW + "Pregenerating " + pregenerator.getTotal() + " chunks in " + world.getName());
+        return true;
+    }
+
+}
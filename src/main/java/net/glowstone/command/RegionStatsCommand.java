@@ -0,0 +1,89 @@
+package net.glowstone.command;
+
+import net.glowstone.ChunkManager;
+import net.glowstone.GlowChunk;
+import net.glowstone.GlowWorld;
+import net.glowstone.io.anvil.RegionFileCache;
+import net.glowstone.io.anvil.RegionIoExecutor;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.defaults.BukkitCommand;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A built-in command to report the region file cache, chunk writes and
+ * fsyncs, how often chunk sections are encoded for the network, and the
+ * unload and save queues of each world.
+ */
+public class RegionStatsCommand extends BukkitCommand {
+
+    /**
+     * The chunk write count and time of the last report, to give the write
+     * rate since then.
+     */
+    private long lastWrites = RegionIoExecutor.getChunkWrites();
+    private long lastReport = System.nanoTime();
+
+    public RegionStatsCommand() {
+        super("regionstats");
+        this.description = "Reports the region file cache, chunk writes, section encoding and unload queues";
+        this.usageMessage = "/regionstats [world]";
+        this.setAliases(Arrays.<String>asList());
+        this.setPermission("glowstone.command.regionstats");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        List<World> worlds;
+        if (args.length == 0) {
+            worlds = Bukkit.getWorlds();
+        } else if (args.length == 1) {
+            World world = Bukkit.getWorld(args[0]);
+            if (world == null) {
+                sender.sendMessage(ChatColor.RED + "No world named " + args[0]);
+                return false;
+            }
+            worlds = Collections.singletonList(world);
+        } else {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        long regionHits = RegionFileCache.getHits(), regionMisses = RegionFileCache.getMisses();
+        long regionRate = regionHits + regionMisses == 0 ? 0 : 100 * regionHits / (regionHits + regionMisses);
+        sender.sendMessage(ChatColor.YELLOW + "Region file cache: " + regionHits + " hits, " + regionMisses + " misses ("
+                + regionRate + "% hits), " + RegionFileCache.getOpens() + " opened, " + RegionFileCache.getEvictions() + " evicted");
+
+        long writes = RegionIoExecutor.getChunkWrites(), now = System.nanoTime();
+        double writeRate = (writes - lastWrites) * 1e9 / Math.max(1, now - lastReport);
+        lastWrites = writes;
+        lastReport = now;
+        long syncs = RegionIoExecutor.getSyncs();
+        double syncAverage = syncs == 0 ? 0 : RegionIoExecutor.getSyncNanos() / 1e6 / syncs;
+        sender.sendMessage(ChatColor.YELLOW + "Region writes: " + writes + " chunks (" + String.format("%.1f", writeRate)
+                + "/s since last report), " + syncs + " fsyncs (" + String.format("%.2f", syncAverage) + " ms average, "
+                + String.format("%.2f", RegionIoExecutor.getMaxSyncNanos() / 1e6) + " ms max)");
+
+        long hits = GlowChunk.getEncodeCacheHits(), misses = GlowChunk.getEncodeCacheMisses();
+        long rate = hits + misses == 0 ? 0 : 100 * hits / (hits + misses);
+        sender.sendMessage(ChatColor.YELLOW + "Section network encoding: " + hits + " reused, " + misses + " encoded (" + rate + "% reused)");
+
+        sender.sendMessage(ChatColor.YELLOW + "Chunk unloads and saves:");
+        for (World world : worlds) {
+            ChunkManager manager = ((GlowWorld) world).getChunkManager();
+            sender.sendMessage(" - " + world.getName() + ": " + manager.getUnloadQueueSize() + " waiting to unload, "
+                    + manager.getImmediateUnloadCount() + " to unload now, " + manager.getSaveQueueSize() + " to autosave; "
+                    + manager.getUnloadedCount() + " unloaded, " + manager.getSavedCount() + " autosaved, "
+                    + manager.getUnloadedCacheSize() + " kept after unloading");
+        }
+        return true;
+    }
+
+}
@@ -68,7 +68,9 @@ public final class EntityManager implements Iterable<GlowEntity> {
         }
         entities.put(entity.id, entity);
         ((Collection<GlowEntity>) getAll(entity.getClass())).add(entity);
-        ((GlowChunk) entity.location.getChunk()).getRawEntities().add(entity);
+        GlowChunk chunk = (GlowChunk) entity.location.getChunk();
+        chunk.getRawEntities().add(entity);
+        chunk.markEntitiesDirty();
     }
 
     /**
@@ -78,7 +80,9 @@ public final class EntityManager implements Iterable<GlowEntity> {
     void unregister(GlowEntity entity) {
         entities.remove(entity.id);
         getAll(entity.getClass()).remove(entity);
-        ((GlowChunk) entity.location.getChunk()).getRawEntities().remove(entity);
+        GlowChunk chunk = (GlowChunk) entity.location.getChunk();
+        chunk.getRawEntities().remove(entity);
+        chunk.markEntitiesDirty();
     }
 
     /**
@@ -92,8 +96,10 @@ public final class EntityManager implements Iterable<GlowEntity> {
         Chunk newChunk = newLocation.getChunk();
         if (prevChunk != newChunk) {
             ((GlowChunk) prevChunk).getRawEntities().remove(entity);
+            ((GlowChunk) prevChunk).markEntitiesDirty();
             ((GlowChunk) newChunk).getRawEntities().add(entity);
         }
+        ((GlowChunk) newChunk).markEntitiesDirty();
     }
 
     @Override
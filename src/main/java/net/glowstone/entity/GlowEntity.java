@@ -511,6 +511,7 @@ public abstract class GlowEntity implements Entity {
         }
         target = event.getTo();
 
+        ((GlowWorld) target.getWorld()).addPortalTicket(target);
         teleport(target);
         return true;
     }
@@ -541,6 +542,7 @@ public abstract class GlowEntity implements Entity {
         }
         target = event.getTo();
 
+        ((GlowWorld) target.getWorld()).addPortalTicket(target);
         teleport(target);
         return true;
     }
@@ -300,7 +300,7 @@ public final class GlowPlayer extends GlowHumanEntity implements Player {
         setBoundingBox(0.6, 1.8);
         this.session = session;
 
-        chunkLock = world.newChunkLock(getName());
+        chunkLock = world.newChunkLock(ChunkManager.TicketType.PLAYER, getName());
 
         // enable compression if needed
         int compression = session.getServer().getCompressionThreshold();
@@ -586,9 +586,19 @@ public final class GlowPlayer extends GlowHumanEntity implements Player {
         // this prevents sending a chunk then immediately sending block changes in it because
         // one of its neighbors has populated
 
-        // first step: force population then acquire lock on each chunk
-        for (GlowChunk.Key key : newChunks) {
-            world.getChunkManager().forcePopulation(key.getX(), key.getZ());
+        // first step: populate then acquire lock on each chunk. chunks which
+        // can't be populated yet are loaded in the background and left for a
+        // later tick, except the one the player is standing in
+        ChunkManager chunkManager = world.getChunkManager();
+        for (Iterator<GlowChunk.Key> it = newChunks.iterator(); it.hasNext(); ) {
+            GlowChunk.Key key = it.next();
+            int dx = key.getX() - centralX, dz = key.getZ() - centralZ;
+            if (dx == 0 && dz == 0) {
+                chunkManager.forcePopulation(key.getX(), key.getZ());
+            } else if (!chunkManager.requestPopulation(key.getX(), key.getZ(), dx * dx + dz * dz)) {
+                it.remove();
+                continue;
+            }
             knownChunks.add(key);
             chunkLock.acquire(key);
         }
@@ -658,7 +668,7 @@ public final class GlowPlayer extends GlowHumanEntity implements Player {
         // no need to send chunk unload messages - respawn unloads all chunks
         knownChunks.clear();
         chunkLock.clear();
-        chunkLock = world.newChunkLock(getName());
+        chunkLock = world.newChunkLock(ChunkManager.TicketType.PLAYER, getName());
 
         // spawn into world
         String type = world.getWorldType().getName().toLowerCase();
@@ -1345,6 +1355,7 @@ public final class GlowPlayer extends GlowHumanEntity implements Player {
         }
         target = event.getTo();
 
+        ((GlowWorld) target.getWorld()).addPortalTicket(target);
         spawnAt(target);
         teleported = true;
 
@@ -1374,6 +1385,7 @@ public final class GlowPlayer extends GlowHumanEntity implements Player {
         }
         target = event.getTo();
 
+        ((GlowWorld) target.getWorld()).addPortalTicket(target);
         spawnAt(target);
         teleported = true;
 
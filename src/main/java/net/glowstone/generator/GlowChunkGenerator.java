@@ -10,6 +10,8 @@ import org.bukkit.generator.ChunkGenerator;
 import org.bukkit.util.noise.OctaveGenerator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Base chunk generator class.
@@ -20,7 +22,7 @@ public abstract class GlowChunkGenerator extends ChunkGenerator {
     protected static final int WORLD_DEPTH = 128;
 
     private static final Set<Material> noSpawnFloors = new HashSet<>(Arrays.asList(Material.FIRE, Material.CACTUS, Material.LEAVES));
-    private final Map<String, Map<String, OctaveGenerator>> octaveCache = new HashMap<>();
+    private final ConcurrentMap<String, Map<String, OctaveGenerator>> octaveCache = new ConcurrentHashMap<>();
     private final List<BlockPopulator> populators;
 
     protected GlowChunkGenerator(BlockPopulator... args) {
@@ -39,13 +41,17 @@ public abstract class GlowChunkGenerator extends ChunkGenerator {
      * @return A map of {@link OctaveGenerator}s created by {@link #createWorldOctaves(World, Map)}
      */
     protected final Map<String, OctaveGenerator> getWorldOctaves(World world) {
-        if (octaveCache.get(world.getName()) == null) {
-            Map<String, OctaveGenerator> octaves = new HashMap<>();
+        Map<String, OctaveGenerator> octaves = octaveCache.get(world.getName());
+        if (octaves == null) {
+            octaves = new HashMap<>();
             createWorldOctaves(world, octaves);
-            octaveCache.put(world.getName(), octaves);
-            return octaves;
+            // another thread may have got there first; both maps are equal
+            Map<String, OctaveGenerator> existing = octaveCache.putIfAbsent(world.getName(), octaves);
+            if (existing != null) {
+                octaves = existing;
+            }
         }
-        return octaveCache.get(world.getName());
+        return octaves;
     }
 
     /**
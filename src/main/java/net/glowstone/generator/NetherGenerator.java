@@ -24,7 +24,16 @@ public class NetherGenerator extends GlowChunkGenerator {
     private static final double DETAIL_NOISE_SCALE_Z = 80.0D;  // mainNoiseScaleZ
     private static final double SURFACE_SCALE = 0.0625D;
 
-    private final double[] density = new double[5 * 17 * 5];
+    /**
+     * Scratch buffer for the terrain densities of the chunk being generated,
+     * one per generating thread.
+     */
+    private static final ThreadLocal<double[]> DENSITY = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[5 * 17 * 5];
+        }
+    };
 
     public NetherGenerator() {
         super(new NetherPopulator());
@@ -130,7 +139,8 @@ public class NetherGenerator extends GlowChunkGenerator {
     }
 
     private short[][] generateRawTerrain(World world, int chunkX, int chunkZ) {
-        generateTerrainDensity(world, chunkX * 4, chunkZ * 4);
+        final double[] density = DENSITY.get();
+        generateTerrainDensity(density, world, chunkX * 4, chunkZ * 4);
 
         final short[][] buf = new short[16][];
 
@@ -180,7 +190,7 @@ public class NetherGenerator extends GlowChunkGenerator {
         return buf;
     }
 
-    private void generateTerrainDensity(World world, int x, int z) {
+    private void generateTerrainDensity(double[] density, World world, int x, int z) {
         final Map<String, OctaveGenerator> octaves = getWorldOctaves(world);
         final double[] heightNoise = ((PerlinOctaveGenerator) octaves.get("height")).fBm(x, z, 0.5D, 2.0D);
         final double[] roughnessNoise = ((PerlinOctaveGenerator) octaves.get("roughness")).fBm(x, 0, z, 0.5D, 2.0D);
@@ -1,7 +1,7 @@
 package net.glowstone.generator;
 
-import net.glowstone.GlowWorld;
 import net.glowstone.constants.GlowBiome;
+import net.glowstone.generator.biomegrid.MapLayer;
 import net.glowstone.generator.ground.*;
 import net.glowstone.generator.ground.MesaGroundGenerator.MesaType;
 import net.glowstone.generator.populators.*;
@@ -20,6 +20,8 @@ import org.bukkit.util.noise.OctaveGenerator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.bukkit.block.Biome.*;
 
@@ -45,7 +47,18 @@ public class OverworldGenerator extends GlowChunkGenerator {
     private static final double[][] ELEVATION_WEIGHT = new double[5][5];
     private static final Map<Biome, GroundGenerator> GROUND_MAP = new HashMap<>();
     private static final Map<Biome, BiomeHeight> HEIGHT_MAP = new HashMap<>();
-    private final double[][][] density = new double[5][5][33];
+
+    /**
+     * Scratch buffer for the terrain densities of the chunk being generated,
+     * one per generating thread.
+     */
+    private static final ThreadLocal<double[][][]> DENSITY = new ThreadLocal<double[][][]>() {
+        @Override
+        protected double[][][] initialValue() {
+            return new double[5][5][33];
+        }
+    };
+    private final ConcurrentMap<String, MapLayer> biomeLayers = new ConcurrentHashMap<>();
     private final GroundGenerator groundGen = new GroundGenerator();
     private final BiomeHeight defaultHeight = BiomeHeight.DEFAULT;
 
@@ -113,6 +126,23 @@ public class OverworldGenerator extends GlowChunkGenerator {
         octaves.put("surface", gen);
     }
 
+    /**
+     * @param world The world to look for in the cache
+     * @return The world's biome layer at a quarter of the block resolution
+     */
+    private MapLayer getBiomeLayer(World world) {
+        MapLayer layer = biomeLayers.get(world.getName());
+        if (layer == null) {
+            layer = MapLayer.initialize(world.getSeed(), world.getEnvironment(), world.getWorldType())[1];
+            // another thread may have got there first; both layers are equal
+            MapLayer existing = biomeLayers.putIfAbsent(world.getName(), layer);
+            if (existing != null) {
+                layer = existing;
+            }
+        }
+        return layer;
+    }
+
     @SuppressWarnings("deprecation")
     private void set(short[][] buf, int x, int y, int z, Material id) {
         if (buf[y >> 4] == null) {
@@ -122,7 +152,8 @@ public class OverworldGenerator extends GlowChunkGenerator {
     }
 
     private short[][] generateRawTerrain(World world, int chunkX, int chunkZ) {
-        generateTerrainDensity(world, chunkX, chunkZ);
+        final double[][][] density = DENSITY.get();
+        generateTerrainDensity(density, world, chunkX, chunkZ);
 
         int seaLevel = world.getSeaLevel();
 
@@ -178,7 +209,7 @@ public class OverworldGenerator extends GlowChunkGenerator {
         return buf;
     }
 
-    private void generateTerrainDensity(World world, int x, int z) {
+    private void generateTerrainDensity(double[][][] density, World world, int x, int z) {
 
         final WorldType type = world.getWorldType();
 
@@ -193,7 +224,7 @@ public class OverworldGenerator extends GlowChunkGenerator {
         // 4 + 1 + 2 + 2 = 9 columns but the biomegrid generator needs a multiple of 2 so we ask 10 columns wide
         // to the biomegrid generator.
         // This gives a total of 81 biome grid columns to work with, and this includes the chunk neighborhood.
-        final int[] biomeGrid = ((GlowWorld) world).getChunkManager().getBiomeGridAtLowerRes(x - 2, z - 2, 10, 10);
+        final int[] biomeGrid = getBiomeLayer(world).generateValues(x - 2, z - 2, 10, 10);
 
         final Map<String, OctaveGenerator> octaves = getWorldOctaves(world);
         final double[] heightNoise = ((PerlinOctaveGenerator) octaves.get("height")).fBm(x, z, 0.5D, 2.0D);
@@ -11,7 +11,17 @@ import net.glowstone.generator.biomegrid.ZoomMapLayer.ZoomType;
 
 public abstract class MapLayer {
 
-    private final Random random = new Random();
+    /**
+     * The random number generator seeded by {@link #setCoordsSeed(int, int)},
+     * kept per thread so that a layer can generate values for several chunks
+     * at once.
+     */
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
     private long seed;
 
     public MapLayer(long seed) {
@@ -19,12 +29,13 @@ public abstract class MapLayer {
     }
 
     public void setCoordsSeed(int x, int z) {
+        Random random = this.random.get();
         random.setSeed(seed);
         random.setSeed(x * random.nextLong() + z * random.nextLong() ^ seed);
     }
 
     public int nextInt(int max) {
-        return random.nextInt(max);
+        return random.get().nextInt(max);
     }
 
     public abstract int[] generateValues(int x, int z, int sizeX, int sizeZ);
@@ -10,16 +10,12 @@ public class DirtAndStonePatchGroundGenerator extends GroundGenerator {
     @Override
     public void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise) {
         if (surfaceNoise > 1.75D) {
-            setTopMaterial(Material.STONE);
-            setGroundMaterial(Material.STONE);
+            generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, Material.STONE, 0, Material.STONE, 0);
         } else if (surfaceNoise > -0.5D) {
-            setTopMaterial(Material.DIRT, 1); // coarse dirt
-            setGroundMaterial(Material.DIRT);
+            // coarse dirt
+            generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, Material.DIRT, 1, Material.DIRT, 0);
         } else {
-            setTopMaterial(Material.GRASS);
-            setGroundMaterial(Material.DIRT);
+            generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, Material.GRASS, 0, Material.DIRT, 0);
         }
-
-        super.generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise);
     }
 }
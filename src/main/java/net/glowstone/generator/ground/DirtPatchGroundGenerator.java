@@ -9,15 +9,18 @@ import org.bukkit.block.Biome;
 public class DirtPatchGroundGenerator extends GroundGenerator {
     @Override
     public void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise) {
+        Material top;
+        int topData = 0;
         if (surfaceNoise > 1.75D) {
-            setTopMaterial(Material.DIRT, 1); // coarse dirt
+            top = Material.DIRT;
+            topData = 1; // coarse dirt
         } else if (surfaceNoise > -0.95D) {
-            setTopMaterial(Material.DIRT, 2); // podzol
+            top = Material.DIRT;
+            topData = 2; // podzol
         } else {
-            setTopMaterial(Material.GRASS);
+            top = Material.GRASS;
         }
-        setGroundMaterial(Material.DIRT);
 
-        super.generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise);
+        generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, top, topData, Material.DIRT, 0);
     }
 }
@@ -10,12 +10,9 @@ public class GravelPatchGroundGenerator extends GroundGenerator {
     @Override
     public void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise) {
         if (surfaceNoise < -1.0D || surfaceNoise > 2.0D) {
-            setTopMaterial(Material.GRAVEL);
-            setGroundMaterial(Material.GRAVEL);
+            generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, Material.GRAVEL, 0, Material.GRAVEL, 0);
         } else {
-            setTopMaterial(Material.GRASS);
-            setGroundMaterial(Material.DIRT);
+            generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, Material.GRASS, 0, Material.DIRT, 0);
         }
-        super.generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise);
     }
 }
@@ -21,13 +21,24 @@ public class GroundGenerator {
     }
 
     public void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise) {
+        generateTerrainColumn(buf, world, random, x, z, biome, surfaceNoise, topMaterial, topMaterialData, groundMaterial, groundMaterialData);
+    }
+
+    /**
+     * Generate a terrain column with the given surface materials. Subclasses
+     * which pick their materials per column pass them here rather than
+     * changing the generator's own materials, so that one generator can be
+     * used by several generating threads at once.
+     */
+    protected final void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise,
+                                               Material top, int topData, Material ground, int groundData) {
 
         int seaLevel = world.getSeaLevel();
 
-        Material topMat = topMaterial;
-        int topMatData = topMaterialData;
-        Material groundMat = groundMaterial;
-        int groundMatData = groundMaterialData;
+        Material topMat = top;
+        int topMatData = topData;
+        Material groundMat = ground;
+        int groundMatData = groundData;
 
         int chunkX = x;
         int chunkZ = z;
@@ -46,10 +57,10 @@ public class GroundGenerator {
                 } else if (mat == Material.STONE) {
                     if (deep == -1) {
                         if (y >= seaLevel - 5 && y <= seaLevel) {
-                            topMat = topMaterial;
-                            topMatData = topMaterialData;
-                            groundMat = groundMaterial;
-                            groundMatData = groundMaterialData;
+                            topMat = top;
+                            topMatData = topData;
+                            groundMat = ground;
+                            groundMatData = groundData;
                         }
 
                         deep = surfaceHeight;
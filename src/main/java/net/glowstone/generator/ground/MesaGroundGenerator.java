@@ -12,29 +12,24 @@ import org.bukkit.block.Biome;
 public class MesaGroundGenerator extends GroundGenerator {
 
     private final MesaType type;
-    private final int[] colorLayer = new int[64];
     private Material topMaterial;
     private int topMaterialData;
     private Material groundMaterial;
     private int groundMaterialData;
-    private SimplexOctaveGenerator colorNoise;
-    private SimplexOctaveGenerator canyonHeightNoise;
-    private SimplexOctaveGenerator canyonScaleNoise;
-    private long seed;
-
-    private void initialize(long seed) {
-        if (seed != this.seed || colorNoise == null || canyonScaleNoise == null || canyonHeightNoise == null) {
-            final Random random = new Random(seed);
-            colorNoise = new SimplexOctaveGenerator(random, 1);
-            colorNoise.setScale(1 / 512.0D);
-            initializeColorLayers(random);
-
-            canyonHeightNoise = new SimplexOctaveGenerator(random, 4);
-            canyonHeightNoise.setScale(1 / 4.0D);
-            canyonScaleNoise = new SimplexOctaveGenerator(random, 1);
-            canyonScaleNoise.setScale(1 / 512.0D);
-            this.seed = seed;
+    private volatile MesaNoise worldNoise;
+
+    /**
+     * Get the noise for the given seed, replacing it as a whole when the seed
+     * changes so that threads generating at the same time never see it half
+     * initialized.
+     */
+    private MesaNoise initialize(long seed) {
+        MesaNoise current = worldNoise;
+        if (current == null || current.seed != seed) {
+            current = new MesaNoise(seed);
+            worldNoise = current;
         }
+        return current;
     }
 
     public MesaGroundGenerator() {
@@ -52,7 +47,8 @@ public class MesaGroundGenerator extends GroundGenerator {
     @Override
     public void generateTerrainColumn(short[][] buf, World world, Random random, int x, int z, Biome biome, double surfaceNoise) {
 
-        initialize(world.getSeed());
+        MesaNoise noise = initialize(world.getSeed());
+        int[] colorLayer = noise.colorLayer;
 
         int seaLevel = world.getSeaLevel();
 
@@ -67,9 +63,9 @@ public class MesaGroundGenerator extends GroundGenerator {
         if (type == MesaType.BRYCE) {
             int nX = (x & 0xFFFFFFF0) + (z & 0xF);
             int nZ = (z & 0xFFFFFFF0) + (x & 0xF);
-            double noiseCanyonHeight = Math.min(Math.abs(surfaceNoise), canyonHeightNoise.noise(nX, nZ, 0.5D, 2.0D));
+            double noiseCanyonHeight = Math.min(Math.abs(surfaceNoise), noise.canyonHeightNoise.noise(nX, nZ, 0.5D, 2.0D));
             if (noiseCanyonHeight > 0) {
-                double heightScale = Math.abs(canyonScaleNoise.noise(nX, nZ, 0.5D, 2.0D));
+                double heightScale = Math.abs(noise.canyonScaleNoise.noise(nX, nZ, 0.5D, 2.0D));
                 bryceCanyonHeight = Math.pow(noiseCanyonHeight, 2) * 2.5D;
                 double maxHeight = Math.ceil(50 * heightScale) + 14;
                 if (bryceCanyonHeight > maxHeight) {
@@ -110,7 +106,7 @@ public class MesaGroundGenerator extends GroundGenerator {
                                 topMatData = colored ? 0 : 1; // grass or coarse dirt
                                 set(buf, x, y, z, topMat, topMatData);
                             } else if (y > seaLevel + 2 + surfaceHeight) {
-                                int color = colorLayer[(y + (int) Math.round(colorNoise.noise(chunkX, chunkX, 0.5D, 2.0D) * 2.0D)) % colorLayer.length];
+                                int color = colorLayer[(y + (int) Math.round(noise.colorNoise.noise(chunkX, chunkX, 0.5D, 2.0D) * 2.0D)) % colorLayer.length];
                                 setColoredGroundLayer(buf, x, y, z, y < seaLevel || y > 128 ? 1 : colored ? color : -1);
                             } else {
                                 set(buf, x, y, z, topMaterial, topMaterialData);
@@ -124,7 +120,7 @@ public class MesaGroundGenerator extends GroundGenerator {
                         if (groundSet) {
                             set(buf, x, y, z, groundMaterial, groundMaterialData);
                         } else {
-                            int color = colorLayer[(y + (int) Math.round(colorNoise.noise(chunkX, chunkX, 0.5D, 2.0D) * 2.0D)) % colorLayer.length];
+                            int color = colorLayer[(y + (int) Math.round(noise.colorNoise.noise(chunkX, chunkX, 0.5D, 2.0D) * 2.0D)) % colorLayer.length];
                             setColoredGroundLayer(buf, x, y, z, color);
                         }
                     }
@@ -147,7 +143,7 @@ public class MesaGroundGenerator extends GroundGenerator {
         }
     }
 
-    private void setRandomLayerColor(Random random, int minLayerCount, int minLayerHeight, int color) {
+    private static void setRandomLayerColor(int[] colorLayer, Random random, int minLayerCount, int minLayerHeight, int color) {
         for (int i = 0; i < random.nextInt(4) + minLayerCount; i++) {
             int j = random.nextInt(colorLayer.length);
             int k = 0;
@@ -158,7 +154,7 @@ public class MesaGroundGenerator extends GroundGenerator {
         }
     }
 
-    private void initializeColorLayers(Random random) {
+    private static void initializeColorLayers(int[] colorLayer, Random random) {
         Arrays.fill(colorLayer, -1); // hard clay, other values are stained clay
         int i = 0;
         while (i < colorLayer.length) {
@@ -167,9 +163,9 @@ public class MesaGroundGenerator extends GroundGenerator {
                 colorLayer[i++] = 1; // orange
             }
         }
-        setRandomLayerColor(random, 2, 1, 4); // yellow
-        setRandomLayerColor(random, 2, 2, 12); // brown
-        setRandomLayerColor(random, 2, 1, 14); // red
+        setRandomLayerColor(colorLayer, random, 2, 1, 4); // yellow
+        setRandomLayerColor(colorLayer, random, 2, 2, 12); // brown
+        setRandomLayerColor(colorLayer, random, 2, 1, 14); // red
         int j = 0;
         for (i = 0; i < random.nextInt(3) + 3; i++) {
             j += random.nextInt(16) + 4;
@@ -183,4 +179,28 @@ public class MesaGroundGenerator extends GroundGenerator {
             }
         }
     }
+
+    /**
+     * The noise generators and clay color layers for one world seed.
+     */
+    private static final class MesaNoise {
+        private final long seed;
+        private final int[] colorLayer = new int[64];
+        private final SimplexOctaveGenerator colorNoise;
+        private final SimplexOctaveGenerator canyonHeightNoise;
+        private final SimplexOctaveGenerator canyonScaleNoise;
+
+        private MesaNoise(long seed) {
+            this.seed = seed;
+            final Random random = new Random(seed);
+            colorNoise = new SimplexOctaveGenerator(random, 1);
+            colorNoise.setScale(1 / 512.0D);
+            initializeColorLayers(colorLayer, random);
+
+            canyonHeightNoise = new SimplexOctaveGenerator(random, 4);
+            canyonHeightNoise.setScale(1 / 4.0D);
+            canyonScaleNoise = new SimplexOctaveGenerator(random, 1);
+            canyonScaleNoise.setScale(1 / 512.0D);
+        }
+    }
 }
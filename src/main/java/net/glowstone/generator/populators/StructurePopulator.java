@@ -34,20 +34,20 @@ public class StructurePopulator extends BlockPopulator {
             boolean placed = false;
             for (int x = cx - 8; x <= cx + 8 && !placed; x++) {
                 for (int z = cz - 8; z <= cz + 8 && !placed; z++) {
-                    if (world.getChunkAt(x, z).isLoaded() || world.getChunkAt(x, z).load(true)) {
-                        random.setSeed((long) x * xRand + (long) z * zRand ^ world.getSeed());
-                        final Map<Integer, GlowStructure> structures = ((GlowWorld) world).getStructures();
-                        final int key = new GlowChunk.Key(x, z).hashCode();
-                        if (!structures.containsKey(key)) {
-                            for (StructureStore<?> store : StructureStorage.getStructureStores()) {
-                                final GlowStructure structure = store.createNewStructure((GlowWorld) world, random, x, z);
-                                if (structure.shouldGenerate(random)) {
-                                    structure.setDirty(true);
-                                    structures.put(key, structure);
-                                    GlowServer.logger.info("structure in chunk " + x + "," + z);
-                                    placed = true;
-                                    break;
-                                }
+                    // structure origins only depend on the seed and the generated
+                    // biomes, so the chunks around need not be loaded
+                    random.setSeed((long) x * xRand + (long) z * zRand ^ world.getSeed());
+                    final Map<Integer, GlowStructure> structures = ((GlowWorld) world).getStructures();
+                    final int key = new GlowChunk.Key(x, z).hashCode();
+                    if (!structures.containsKey(key)) {
+                        for (StructureStore<?> store : StructureStorage.getStructureStores()) {
+                            final GlowStructure structure = store.createNewStructure((GlowWorld) world, random, x, z);
+                            if (structure.shouldGenerate(random)) {
+                                structure.setDirty(true);
+                                structures.put(key, structure);
+                                GlowServer.logger.info("structure in chunk " + x + "," + z);
+                                placed = true;
+                                break;
                             }
                         }
                     }
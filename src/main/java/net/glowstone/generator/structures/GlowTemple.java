@@ -4,6 +4,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
+import net.glowstone.GlowWorld;
+
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Biome;
@@ -28,7 +30,7 @@ public class GlowTemple extends GlowStructure {
 
         final int x = chunkX << 4;
         final int z = chunkZ << 4;
-        final Biome biome = world.getBiome(x + 8, z + 8);
+        final Biome biome = getBiome(world, x + 8, z + 8);
 
         if (types.containsKey(biome)) {
             switch (types.get(biome)) {
@@ -47,7 +49,7 @@ public class GlowTemple extends GlowStructure {
 
     @Override
     public boolean shouldGenerate(Random random) {
-        final Biome biome = world.getBiome((chunkX << 4) + 8, (chunkZ << 4) + 8);
+        final Biome biome = getBiome(world, (chunkX << 4) + 8, (chunkZ << 4) + 8);
         if (types.containsKey(biome)) {
             int x = chunkX < 0 ? (chunkX - MAX_DISTANCE - 1) / MAX_DISTANCE : chunkX / MAX_DISTANCE;
             int z = chunkZ < 0 ? (chunkZ - MAX_DISTANCE - 1) / MAX_DISTANCE : chunkZ / MAX_DISTANCE;
@@ -60,6 +62,17 @@ public class GlowTemple extends GlowStructure {
         return false;
     }
 
+    /**
+     * Get a biome without loading its chunk, since temples are looked for
+     * in every chunk around the one being populated.
+     */
+    private static Biome getBiome(World world, int x, int z) {
+        if (world instanceof GlowWorld) {
+            return ((GlowWorld) world).getBiomeWithoutLoading(x, z);
+        }
+        return world.getBiome(x, z);
+    }
+
     public enum TempleType {
         DESERT_TEMPLE,
         JUNGLE_TEMPLE,
@@ -1,5 +1,6 @@
 package net.glowstone.inventory;
 
+import net.glowstone.block.GlowBlockState;
 import net.glowstone.entity.GlowPlayer;
 import org.bukkit.Material;
 import org.bukkit.entity.HumanEntity;
@@ -320,6 +321,7 @@ public class GlowInventory implements Inventory {
     @Override
     public void setItem(int index, ItemStack item) {
         slots.get(index).setItem(item);
+        contentsChanged();
     }
 
     @Override
@@ -375,6 +377,10 @@ public class GlowInventory implements Inventory {
             }
         }
 
+        if (toAdd < item.getAmount()) {
+            contentsChanged();
+        }
+
         if (toAdd > 0) {
             ItemStack remaining = new ItemStack(item);
             remaining.setAmount(toAdd);
@@ -401,6 +407,7 @@ public class GlowInventory implements Inventory {
 
     public ItemStack removeItemStack(ItemStack item, boolean ignoreMeta) {
         int toRemove = item.getAmount();
+        boolean changed = false;
 
         Iterator<GlowInventorySlot> iterator = slots.iterator();
         while (toRemove > 0 && iterator.hasNext()) {
@@ -414,9 +421,14 @@ public class GlowInventory implements Inventory {
                     toRemove -= slotItem.getAmount();
                     slot.setItem(null);
                 }
+                changed = true;
             }
         }
 
+        if (changed) {
+            contentsChanged();
+        }
+
         if (toRemove > 0) {
             ItemStack remaining = new ItemStack(item);
             remaining.setAmount(toRemove);
@@ -457,6 +469,7 @@ public class GlowInventory implements Inventory {
         for (int i = 0; i < getSize(); i++) {
             iterator.next().setItem(items[i]);
         }
+        contentsChanged();
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -628,6 +641,18 @@ public class GlowInventory implements Inventory {
         while (iterator.hasNext()) {
             iterator.next().setItem(null);
         }
+        contentsChanged();
+    }
+
+    /**
+     * Called when items have been put into or taken out of this inventory.
+     * The chunk holding a block's inventory is marked changed, so that it
+     * is written by the next save.
+     */
+    protected void contentsChanged() {
+        if (owner instanceof GlowBlockState) {
+            ((GlowBlockState) owner).getChunk().markDirty();
+        }
     }
 
 }
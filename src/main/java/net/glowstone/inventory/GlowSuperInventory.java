@@ -55,4 +55,12 @@ public class GlowSuperInventory extends GlowInventory {
     public List<GlowInventory> getParents() {
         return parents;
     }
+
+    @Override
+    protected void contentsChanged() {
+        // the slots belong to the parents, so their owners are the ones changed
+        for (GlowInventory parent : parents) {
+            parent.contentsChanged();
+        }
+    }
 }
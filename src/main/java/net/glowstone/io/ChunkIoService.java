@@ -1,8 +1,12 @@
 package net.glowstone.io;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import net.glowstone.GlowChunk;
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.util.nbt.CompoundTag;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Provider of chunk I/O services. Implemented by classes to provide a way of
@@ -18,11 +22,40 @@ public interface ChunkIoService {
     boolean read(GlowChunk chunk) throws IOException;
 
     /**
-     * Writes a single chunk.
+     * Reads the stored data of a single chunk without installing it into the
+     * world. Unlike {@link #read}, this may be called from any thread.
+     * @param x The X coordinate of the chunk.
+     * @param z The Z coordinate of the chunk.
+     * @return The decoded chunk data, or null if the chunk is not stored.
+     * @throws IOException if an I/O error occurs.
+     */
+    DecodedChunk decode(int x, int z) throws IOException;
+
+    /**
+     * Installs previously decoded data into a chunk, including its entities
+     * and tile entities. The provided chunk must not yet be initialized, and
+     * this must be called from the world thread.
+     * @param chunk The GlowChunk to install into.
+     * @param data The data returned by {@link #decode}.
+     */
+    void install(GlowChunk chunk, DecodedChunk data);
+
+    /**
+     * Writes a single chunk. The chunk's data is captured before this
+     * returns, but may reach storage later.
      * @param chunk The {@link GlowChunk} to write from.
+     * @return A future completed once the chunk has been written, or failed
+     * if it could not be.
+     * @throws IOException if the chunk could not be encoded.
+     */
+    ListenableFuture<Void> write(GlowChunk chunk) throws IOException;
+
+    /**
+     * Wait until every chunk written so far has reached storage. Writes may
+     * otherwise complete after {@link #write} returns.
      * @throws IOException if an I/O error occurs.
      */
-    void write(GlowChunk chunk) throws IOException;
+    void flush() throws IOException;
 
     /**
      * Unload the service, performing any cleanup necessary.
@@ -30,4 +63,56 @@ public interface ChunkIoService {
      */
     void unload() throws IOException;
 
+    /**
+     * The data of a chunk which has been read from storage but not yet
+     * installed into the world.
+     */
+    class DecodedChunk {
+        private final ChunkSection[] sections;
+        private final byte[] biomes;
+        private final int[] heightMap;
+        private final boolean populated;
+        private final List<CompoundTag> entities;
+        private final List<CompoundTag> tileEntities;
+
+        public DecodedChunk(ChunkSection[] sections, byte[] biomes, int[] heightMap, boolean populated, List<CompoundTag> entities, List<CompoundTag> tileEntities) {
+            this.sections = sections;
+            this.biomes = biomes;
+            this.heightMap = heightMap;
+            this.populated = populated;
+            this.entities = entities;
+            this.tileEntities = tileEntities;
+        }
+
+        public ChunkSection[] getSections() {
+            return sections;
+        }
+
+        /**
+         * Get the biome array, or null if none was stored.
+         */
+        public byte[] getBiomes() {
+            return biomes;
+        }
+
+        /**
+         * Get the height map, or null if it should be calculated on install.
+         */
+        public int[] getHeightMap() {
+            return heightMap;
+        }
+
+        public boolean isPopulated() {
+            return populated;
+        }
+
+        public List<CompoundTag> getEntities() {
+            return entities;
+        }
+
+        public List<CompoundTag> getTileEntities() {
+            return tileEntities;
+        }
+    }
+
 }
@@ -0,0 +1,227 @@
+package net.glowstone.io.anvil;
+
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.io.ChunkIoService.DecodedChunk;
+import net.glowstone.util.NibbleArray;
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NBTInputStream;
+import net.glowstone.util.nbt.NBTVisitor;
+import net.glowstone.util.nbt.Tag;
+import net.glowstone.util.nbt.TagType;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the NBT of an Anvil chunk straight into chunk sections, visiting
+ * the stream rather than building a tree of tags. Block arrays are merged
+ * into a reused type array as they are read, and only the entities and tile
+ * entities are read as tags.
+ */
+public final class AnvilChunkDecoder extends NBTVisitor {
+
+    private static final int SECTION_BLOCKS = 4096;
+    private static final int SECTION_COUNT = 16;
+
+    /**
+     * Buffers reused by every section of the chunk.
+     */
+    private final byte[] scratch = new byte[SECTION_BLOCKS];
+    private final char[] types = new char[SECTION_BLOCKS];
+
+    private final ChunkSection[] sections = new ChunkSection[SECTION_COUNT];
+    private byte[] biomes;
+    private int[] heightMap;
+    private boolean populated;
+    private List<CompoundTag> entities = Collections.emptyList();
+    private List<CompoundTag> tileEntities = Collections.emptyList();
+    private boolean foundLevel;
+
+    private AnvilChunkDecoder() {
+    }
+
+    /**
+     * Decode a chunk from its uncompressed NBT.
+     * @param in The stream of NBT.
+     * @return The decoded chunk.
+     * @throws IOException if an I/O error occurs or the chunk is invalid.
+     */
+    public static DecodedChunk decode(InputStream in) throws IOException {
+        AnvilChunkDecoder decoder = new AnvilChunkDecoder();
+        try (NBTInputStream nbt = new NBTInputStream(in, false)) {
+            nbt.readCompound(decoder);
+        }
+        if (!decoder.foundLevel) {
+            throw new IOException("Chunk has no Level compound");
+        }
+        return new DecodedChunk(decoder.sections, decoder.biomes, decoder.heightMap, decoder.populated,
+                decoder.entities, decoder.tileEntities);
+    }
+
+    @Override
+    public NBTVisitor visitCompound(String name) {
+        if (name.equals("Level")) {
+            foundLevel = true;
+            return level;
+        }
+        return null;
+    }
+
+    private final NBTVisitor level = new NBTVisitor() {
+        @Override
+        public NBTVisitor visitList(String name, TagType type, int length) {
+            if (type != TagType.COMPOUND) {
+                // empty lists are stored with the END type
+                return null;
+            }
+            switch (name) {
+                case "Sections":
+                    return sectionList;
+                case "Entities":
+                    entities = new ArrayList<>(length);
+                    return new TagCollector(entities);
+                case "TileEntities":
+                    tileEntities = new ArrayList<>(length);
+                    return new TagCollector(tileEntities);
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public boolean visitByteArray(String name, int length, DataInput in) throws IOException {
+            if (!name.equals("Biomes")) {
+                return false;
+            }
+            biomes = new byte[length];
+            in.readFully(biomes);
+            return true;
+        }
+
+        @Override
+        public void visitIntArray(String name, int[] value) {
+            if (name.equals("HeightMap")) {
+                heightMap = value;
+            }
+        }
+
+        @Override
+        public void visitByte(String name, byte value) {
+            if (name.equals("TerrainPopulated")) {
+                populated = value != 0;
+            }
+        }
+    };
+
+    private final NBTVisitor sectionList = new NBTVisitor() {
+        @Override
+        public NBTVisitor visitCompound(String name) {
+            Arrays.fill(types, (char) 0);
+            return new SectionVisitor();
+        }
+    };
+
+    /**
+     * Reads the elements of a compound list as tags.
+     */
+    private static final class TagCollector extends NBTVisitor {
+        private final List<CompoundTag> tags;
+
+        private TagCollector(List<CompoundTag> tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public boolean wantsTag(String name, TagType type) {
+            return true;
+        }
+
+        @Override
+        public void visitTag(String name, Tag tag) {
+            tags.add((CompoundTag) tag);
+        }
+    }
+
+    /**
+     * Reads one section, merging the block, data and add arrays into the
+     * shared type array.
+     */
+    private final class SectionVisitor extends NBTVisitor {
+        private int y = -1;
+        private boolean hasBlocks;
+        private byte[] skyLight, blockLight;
+
+        @Override
+        public void visitByte(String name, byte value) {
+            if (name.equals("Y")) {
+                y = value;
+            }
+        }
+
+        @Override
+        public boolean visitByteArray(String name, int length, DataInput in) throws IOException {
+            switch (name) {
+                case "Blocks":
+                    in.readFully(scratch, 0, checkLength(name, length, SECTION_BLOCKS));
+                    for (int i = 0; i < SECTION_BLOCKS; ++i) {
+                        types[i] |= (scratch[i] & 0xff) << 4;
+                    }
+                    hasBlocks = true;
+                    return true;
+                case "Data":
+                    readNibbles(name, length, in, 0);
+                    return true;
+                case "Add":
+                    readNibbles(name, length, in, 12);
+                    return true;
+                case "BlockLight":
+                    blockLight = new byte[checkLength(name, length, SECTION_BLOCKS / 2)];
+                    in.readFully(blockLight);
+                    return true;
+                case "SkyLight":
+                    skyLight = new byte[checkLength(name, length, SECTION_BLOCKS / 2)];
+                    in.readFully(skyLight);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private void readNibbles(String name, int length, DataInput in, int shift) throws IOException {
+            in.readFully(scratch, 0, checkLength(name, length, SECTION_BLOCKS / 2));
+            for (int i = 0; i < SECTION_BLOCKS / 2; ++i) {
+                int b = scratch[i];
+                types[2 * i] |= (b & 0xf) << shift;
+                types[2 * i + 1] |= ((b >> 4) & 0xf) << shift;
+            }
+        }
+
+        @Override
+        public void visitEnd() throws IOException {
+            if (!hasBlocks) {
+                // nothing to keep from a section without blocks
+                return;
+            }
+            if (y < 0 || y >= SECTION_COUNT) {
+                throw new IOException("Invalid section Y: " + y);
+            }
+            sections[y] = new ChunkSection(types, lightArray(skyLight), lightArray(blockLight));
+        }
+    }
+
+    private static int checkLength(String name, int length, int expected) throws IOException {
+        if (length != expected) {
+            throw new IOException("Section " + name + " has length " + length + ", not " + expected);
+        }
+        return length;
+    }
+
+    private static NibbleArray lightArray(byte[] light) {
+        return NibbleArray.compact(light == null ? new byte[SECTION_BLOCKS / 2] : light);
+    }
+}
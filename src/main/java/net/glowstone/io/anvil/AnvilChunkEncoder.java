@@ -0,0 +1,278 @@
+package net.glowstone.io.anvil;
+
+import net.glowstone.GlowChunk;
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.GlowServer;
+import net.glowstone.block.entity.TileEntity;
+import net.glowstone.entity.GlowEntity;
+import net.glowstone.io.entity.EntityStorage;
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NBTOutputStream;
+import net.glowstone.util.nbt.Tag;
+import net.glowstone.util.nbt.TagType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a chunk to compressed Anvil NBT in a single pass. The NBT framing
+ * and section arrays are written straight into a buffer and deflated with a
+ * Deflater, both reused by every chunk encoded on the same thread; only the
+ * entities and tile entities go through tags.
+ */
+public final class AnvilChunkEncoder {
+
+    private static final int SECTION_BLOCKS = 4096;
+
+    private static final ThreadLocal<AnvilChunkEncoder> encoders = new ThreadLocal<AnvilChunkEncoder>() {
+        @Override
+        protected AnvilChunkEncoder initialValue() {
+            return new AnvilChunkEncoder();
+        }
+    };
+
+    private final NbtBuffer nbt = new NbtBuffer();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[16384];
+
+    /**
+     * Buffers reused by every section.
+     */
+    private final char[] types = new char[SECTION_BLOCKS];
+    private final byte[] blocks = new byte[SECTION_BLOCKS];
+    private final byte[] data = new byte[SECTION_BLOCKS / 2];
+    private final byte[] add = new byte[SECTION_BLOCKS / 2];
+
+    private AnvilChunkEncoder() {
+    }
+
+    /**
+     * Encode and compress a chunk on the calling thread.
+     * @param chunk The chunk, which must be loaded.
+     * @param level The zlib compression level, from 0 to 9.
+     * @return The compressed NBT of the chunk.
+     * @throws IOException if the chunk could not be encoded.
+     */
+    public static byte[] encode(GlowChunk chunk, int level) throws IOException {
+        return encoders.get().encodeChunk(chunk, level);
+    }
+
+    private byte[] encodeChunk(GlowChunk chunk, int level) throws IOException {
+        // tags are built first, so that the list lengths are known
+        List<CompoundTag> entities = new ArrayList<>();
+        for (GlowEntity entity : chunk.getRawEntities()) {
+            if (!entity.shouldSave()) {
+                continue;
+            }
+            try {
+                CompoundTag tag = new CompoundTag();
+                EntityStorage.save(entity, tag);
+                entities.add(tag);
+            } catch (Exception e) {
+                GlowServer.logger.log(Level.WARNING, "Error saving " + entity + " in " + chunk, e);
+            }
+        }
+        List<CompoundTag> tileEntities = new ArrayList<>();
+        for (TileEntity entity : chunk.getRawTileEntities()) {
+            try {
+                CompoundTag tag = new CompoundTag();
+                entity.saveNbt(tag);
+                tileEntities.add(tag);
+            } catch (Exception ex) {
+                GlowServer.logger.log(Level.SEVERE, "Error saving tile entity at " + entity.getBlock(), ex);
+            }
+        }
+
+        nbt.reset();
+        nbt.name(TagType.COMPOUND, "");
+        nbt.name(TagType.COMPOUND, "Level");
+
+        // core properties
+        nbt.name(TagType.INT, "xPos");
+        nbt.writeInt(chunk.getX());
+        nbt.name(TagType.INT, "zPos");
+        nbt.writeInt(chunk.getZ());
+        nbt.name(TagType.BYTE, "TerrainPopulated");
+        nbt.write(chunk.isPopulated() ? 1 : 0);
+        nbt.name(TagType.LONG, "LastUpdate");
+        nbt.writeLong(0);
+
+        // chunk sections
+        ChunkSection[] sections = chunk.getSections();
+        int count = 0;
+        for (ChunkSection section : sections) {
+            if (section != null) {
+                count++;
+            }
+        }
+        nbt.name(TagType.LIST, "Sections");
+        nbt.write(TagType.COMPOUND.getId());
+        nbt.writeInt(count);
+        for (int y = 0; y < sections.length; ++y) {
+            if (sections[y] != null) {
+                writeSection(y, sections[y]);
+            }
+        }
+
+        // height map and biomes
+        nbt.name(TagType.INT_ARRAY, "HeightMap");
+        nbt.writeInt(GlowChunk.WIDTH * GlowChunk.HEIGHT);
+        for (int z = 0; z < GlowChunk.HEIGHT; ++z) {
+            for (int x = 0; x < GlowChunk.WIDTH; ++x) {
+                nbt.writeInt(chunk.getHeight(x, z));
+            }
+        }
+        nbt.name(TagType.BYTE_ARRAY, "Biomes");
+        nbt.writeInt(GlowChunk.WIDTH * GlowChunk.HEIGHT);
+        for (int z = 0; z < GlowChunk.HEIGHT; ++z) {
+            for (int x = 0; x < GlowChunk.WIDTH; ++x) {
+                nbt.write(chunk.getBiome(x, z));
+            }
+        }
+
+        writeCompoundList("Entities", entities);
+        writeCompoundList("TileEntities", tileEntities);
+
+        nbt.write(TagType.END.getId());
+        nbt.write(TagType.END.getId());
+
+        return deflate(level);
+    }
+
+    private void writeSection(int y, ChunkSection section) throws IOException {
+        nbt.name(TagType.BYTE, "Y");
+        nbt.write(y);
+
+        // split the types into the block, add and data arrays
+        boolean hasAdd = false;
+        section.getTypes(types);
+        for (int i = 0; i < SECTION_BLOCKS; i += 2) {
+            char first = types[i], second = types[i + 1];
+            blocks[i] = (byte) (first >> 4);
+            blocks[i + 1] = (byte) (second >> 4);
+            data[i >> 1] = (byte) ((first & 0xf) | ((second & 0xf) << 4));
+            byte extra = (byte) ((first >> 12) | ((second >> 12) << 4));
+            add[i >> 1] = extra;
+            hasAdd |= extra != 0;
+        }
+
+        nbt.name(TagType.BYTE_ARRAY, "Blocks");
+        nbt.writeInt(SECTION_BLOCKS);
+        nbt.write(blocks);
+        if (hasAdd) {
+            nbt.name(TagType.BYTE_ARRAY, "Add");
+            nbt.writeInt(add.length);
+            nbt.write(add);
+        }
+        nbt.name(TagType.BYTE_ARRAY, "Data");
+        nbt.writeInt(data.length);
+        nbt.write(data);
+
+        byte[] light = section.blockLight.getRawDataReadOnly();
+        nbt.name(TagType.BYTE_ARRAY, "BlockLight");
+        nbt.writeInt(light.length);
+        nbt.write(light);
+        light = section.skyLight.getRawDataReadOnly();
+        nbt.name(TagType.BYTE_ARRAY, "SkyLight");
+        nbt.writeInt(light.length);
+        nbt.write(light);
+
+        nbt.write(TagType.END.getId());
+    }
+
+    private void writeCompoundList(String name, List<CompoundTag> tags) throws IOException {
+        nbt.name(TagType.LIST, name);
+        nbt.write(TagType.COMPOUND.getId());
+        nbt.writeInt(tags.size());
+        if (tags.isEmpty()) {
+            return;
+        }
+        NBTOutputStream out = new NBTOutputStream(nbt, false);
+        for (CompoundTag tag : tags) {
+            for (Map.Entry<String, Tag> entry : tag.getValue().entrySet()) {
+                out.writeTag(entry.getKey(), entry.getValue());
+            }
+            nbt.write(TagType.END.getId());
+        }
+    }
+
+    private byte[] deflate(int level) {
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(nbt.buf, 0, nbt.count);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        // the region write happens later on another thread, so the result can't be pooled
+        return Arrays.copyOf(compressed, length);
+    }
+
+    /**
+     * A growable buffer of uncompressed NBT.
+     */
+    private static final class NbtBuffer extends OutputStream {
+        private byte[] buf = new byte[65536];
+        private int count;
+
+        private void reset() {
+            count = 0;
+        }
+
+        private void ensure(int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, count, length);
+            count += length;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            buf[count++] = (byte) (value >>> 24);
+            buf[count++] = (byte) (value >>> 16);
+            buf[count++] = (byte) (value >>> 8);
+            buf[count++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        /**
+         * Write the type and name of a tag. Names are all ASCII.
+         */
+        private void name(TagType type, String name) {
+            int length = name.length();
+            ensure(3 + length);
+            buf[count++] = type.getId();
+            buf[count++] = (byte) (length >>> 8);
+            buf[count++] = (byte) length;
+            for (int i = 0; i < length; ++i) {
+                buf[count++] = (byte) name.charAt(i);
+            }
+        }
+    }
+}
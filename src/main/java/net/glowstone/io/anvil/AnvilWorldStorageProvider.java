@@ -36,7 +36,10 @@ public class AnvilWorldStorageProvider implements WorldStorageProvider {
         if (this.world != null)
             throw new IllegalArgumentException("World is already set");
         this.world = world;
-        service = new AnvilChunkIoService(dir);
+        service = new AnvilChunkIoService(dir, world.getName(),
+                world.getServer().getRegionIoThreads(), world.getServer().getRegionFileCacheSize(),
+                world.getServer().useMappedRegionFiles(), world.getServer().getRegionCompressionLevel(),
+                world.getServer().getRegionSyncInterval());
         meta = new NbtWorldMetadataService(world, dir);
         structures = new NbtStructureDataService(world, new File(dir, "data"));
     }
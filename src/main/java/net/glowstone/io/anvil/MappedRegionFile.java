@@ -0,0 +1,361 @@
+package net.glowstone.io.anvil;
+
+import net.glowstone.GlowServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A region file in the same format as {@link RegionFile}, accessed through a
+ * {@link FileChannel} instead of seeks on a RandomAccessFile.
+ *
+ * The 8 KiB header of chunk offsets and timestamps is memory mapped, so
+ * opening the file and looking chunks up does not read it int by int. Chunk
+ * sectors are read with a single positional read into a per-thread buffer
+ * and inflated with a per-thread Inflater, and free sectors are tracked in a
+ * bitmap.
+ *
+ * In synced mode, chunks are always written to newly allocated sectors and
+ * their header entries are kept in memory until {@link #sync}, which forces
+ * the new sectors to disk before pointing the header at them. The sectors a
+ * chunk used before are freed one sync later, once the header no longer
+ * pointing to them is on disk as well, so the file on disk always holds a
+ * complete copy of every chunk.
+ */
+public final class MappedRegionFile implements RegionStorage {
+
+    private static final int VERSION_GZIP = 1;
+    private static final int VERSION_DEFLATE = 2;
+
+    private static final int SECTOR_BYTES = 4096;
+    private static final int SECTOR_INTS = SECTOR_BYTES / 4;
+    private static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+
+    private static final int CHUNK_HEADER_SIZE = 5;
+
+    /**
+     * The read buffer and Inflater of each I/O thread.
+     */
+    private static final ThreadLocal<ReadBuffers> buffers = new ThreadLocal<ReadBuffers>() {
+        @Override
+        protected ReadBuffers initialValue() {
+            return new ReadBuffers();
+        }
+    };
+
+    private final File path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    /**
+     * The sectors in use by the header and stored chunks.
+     */
+    private final BitSet usedSectors = new BitSet();
+
+    /**
+     * The length of the file, in sectors.
+     */
+    private int sectorCount;
+
+    /**
+     * Whether header updates are deferred until {@link #sync}.
+     */
+    private final boolean synced;
+
+    /**
+     * The header entries changed since the last sync, and their new offsets
+     * and timestamps.
+     */
+    private final BitSet dirty = new BitSet();
+    private final int[] pendingOffsets;
+    private final int[] pendingTimestamps;
+
+    /**
+     * The sector runs to free after the next sync, and the one after.
+     */
+    private List<Integer> releasing = new ArrayList<>();
+    private List<Integer> retiring = new ArrayList<>();
+
+    /**
+     * Whether header entries have been written since the file was last forced.
+     */
+    private boolean headerUnsynced;
+
+    public MappedRegionFile(File path) throws IOException {
+        this(path, false);
+    }
+
+    public MappedRegionFile(File path, boolean synced) throws IOException {
+        this.path = path;
+        this.synced = synced;
+        pendingOffsets = synced ? new int[SECTOR_INTS] : null;
+        pendingTimestamps = synced ? new int[SECTOR_INTS] : null;
+        boolean existed = path.exists();
+        channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            // grow the file to hold the header and to a whole number of sectors
+            long length = channel.size();
+            long aligned = Math.max(HEADER_BYTES, (length + SECTOR_BYTES - 1) & ~(long) (SECTOR_BYTES - 1));
+            if (length < HEADER_BYTES) {
+                if (existed) {
+                    // only give a warning if the region file existed beforehand
+                    GlowServer.logger.warning("Region \"" + path + "\" under 8K: " + length + " increasing by " + (aligned - length));
+                }
+            } else if (aligned != length) {
+                GlowServer.logger.warning("Region \"" + path + "\" not aligned: " + length + " increasing by " + (aligned - length));
+            }
+            if (aligned != length) {
+                writeFully(ByteBuffer.allocate(1), aligned - 1);
+            }
+            sectorCount = (int) (aligned / SECTOR_BYTES);
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            usedSectors.set(0, 2);
+            for (int i = 0; i < SECTOR_INTS; ++i) {
+                int offset = header.getInt(i * 4);
+                int startSector = offset >> 8;
+                int numSectors = offset & 0xff;
+                if (offset != 0 && startSector >= 0 && startSector + numSectors <= sectorCount) {
+                    usedSectors.set(startSector, startSector + numSectors);
+                } else if (offset != 0) {
+                    GlowServer.logger.warning("Region \"" + path + "\": offsets[" + i + "] = " + offset + " -> " + startSector + "," + numSectors + " does not fit");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized boolean hasChunk(int x, int z) {
+        return getOffset(x, z) != 0;
+    }
+
+    @Override
+    public synchronized DataInputStream getChunkDataInputStream(int x, int z) throws IOException {
+        int offset = getOffset(x, z);
+        if (offset == 0) {
+            // does not exist
+            return null;
+        }
+
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xff;
+        if (sectorNumber + numSectors > sectorCount) {
+            throw new IOException("Invalid sector: " + sectorNumber + "+" + numSectors + " > " + sectorCount);
+        }
+
+        // read every sector of the chunk at once
+        ReadBuffers local = buffers.get();
+        ByteBuffer buf = local.input(numSectors * SECTOR_BYTES);
+        readFully(buf, (long) sectorNumber * SECTOR_BYTES);
+        buf.flip();
+
+        int length = buf.getInt();
+        if (length < 1 || length > SECTOR_BYTES * numSectors - 4) {
+            throw new IOException("Invalid length: " + length + " > " + (SECTOR_BYTES * numSectors));
+        }
+
+        byte version = buf.get();
+        if (version == VERSION_GZIP) {
+            byte[] data = Arrays.copyOfRange(buf.array(), CHUNK_HEADER_SIZE, CHUNK_HEADER_SIZE + length - 1);
+            return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+        } else if (version == VERSION_DEFLATE) {
+            return new DataInputStream(local.inflate(buf.array(), CHUNK_HEADER_SIZE, length - 1));
+        }
+
+        throw new IOException("Unknown version: " + version);
+    }
+
+    @Override
+    public synchronized void write(int x, int z, byte[] data, int length) throws IOException {
+        int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+        // maximum chunk size is 1MB
+        if (sectorsNeeded >= 256) {
+            throw new IOException("Chunk (" + x + "," + z + ") of " + path + " is too large: " + length + " bytes");
+        }
+
+        int offset = getOffset(x, z);
+        int sectorNumber = offset >> 8;
+        int sectorsAllocated = offset & 0xff;
+        if (synced) {
+            // never overwrite sectors the header on disk may point to
+            sectorNumber = allocate(sectorsNeeded);
+        } else if (sectorNumber == 0 || sectorsAllocated != sectorsNeeded) {
+            if (sectorNumber != 0) {
+                usedSectors.clear(sectorNumber, sectorNumber + sectorsAllocated);
+            }
+            sectorNumber = allocate(sectorsNeeded);
+        }
+
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+        chunkHeader.putInt(length + 1).put((byte) VERSION_DEFLATE).flip();
+        writeFully(chunkHeader, position);
+        writeFully(ByteBuffer.wrap(data, 0, length), position + CHUNK_HEADER_SIZE);
+
+        if (sectorNumber + sectorsNeeded > sectorCount) {
+            // pad the file out to the end of the new sectors
+            sectorCount = sectorNumber + sectorsNeeded;
+            writeFully(ByteBuffer.allocate(1), (long) sectorCount * SECTOR_BYTES - 1);
+        }
+
+        int index = x + z * 32;
+        int timestamp = (int) (System.currentTimeMillis() / 1000L);
+        if (!synced) {
+            header.putInt(index * 4, (sectorNumber << 8) | sectorsNeeded);
+            header.putInt(SECTOR_BYTES + index * 4, timestamp);
+            return;
+        }
+
+        if (offset != 0) {
+            if (dirty.get(index)) {
+                // the header on disk never pointed to these sectors
+                usedSectors.clear(offset >> 8, (offset >> 8) + (offset & 0xff));
+            } else {
+                retiring.add(offset);
+            }
+        }
+        pendingOffsets[index] = (sectorNumber << 8) | sectorsNeeded;
+        pendingTimestamps[index] = timestamp;
+        dirty.set(index);
+    }
+
+    @Override
+    public synchronized boolean sync() throws IOException {
+        if (!synced || dirty.isEmpty() && releasing.isEmpty() && !headerUnsynced) {
+            return false;
+        }
+        // the header is mapped shared, so forcing the channel writes it too
+        channel.force(true);
+
+        for (int offset : releasing) {
+            usedSectors.clear(offset >> 8, (offset >> 8) + (offset & 0xff));
+        }
+        releasing.clear();
+        List<Integer> released = releasing;
+        releasing = retiring;
+        retiring = released;
+
+        headerUnsynced = !dirty.isEmpty();
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            header.putInt(i * 4, pendingOffsets[i]);
+            header.putInt(SECTOR_BYTES + i * 4, pendingTimestamps[i]);
+        }
+        dirty.clear();
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+            header.force();
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Find the first run of free sectors of the given length, possibly
+     * running past the end of the file, and mark it as used.
+     */
+    private int allocate(int count) {
+        int start = usedSectors.nextClearBit(0);
+        while (true) {
+            int end = usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= count) {
+                break;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+        usedSectors.set(start, start + count);
+        return start;
+    }
+
+    private int getOffset(int x, int z) {
+        if (x < 0 || x >= 32 || z < 0 || z >= 32) {
+            throw new IllegalArgumentException("Chunk out of bounds: (" + x + ", " + z + ")");
+        }
+        int index = x + z * 32;
+        return dirty.get(index) ? pendingOffsets[index] : header.getInt(index * 4);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of region \"" + path + "\" at " + (start + buf.position()));
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, start + buf.position());
+        }
+    }
+
+    /**
+     * Buffers reused by every read made on one thread.
+     */
+    private static final class ReadBuffers {
+        private final Inflater inflater = new Inflater();
+        private ByteBuffer input = ByteBuffer.allocate(4 * SECTOR_BYTES);
+
+        /**
+         * Get the input buffer, cleared and limited to the given size.
+         */
+        private ByteBuffer input(int size) {
+            if (input.capacity() < size) {
+                input = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+            }
+            input.clear();
+            input.limit(size);
+            return input;
+        }
+
+        /**
+         * Inflate zlib data completely into a new stream.
+         */
+        private ByteArrayInputStream inflate(byte[] data, int offset, int length) throws IOException {
+            inflater.reset();
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[Math.max(4 * length, 8192)];
+            int count = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (count == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    int n = inflater.inflate(out, count, out.length - count);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Unexpected end of chunk data");
+                    }
+                    count += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid chunk data", e);
+            }
+            return new ByteArrayInputStream(out, 0, count);
+        }
+    }
+}
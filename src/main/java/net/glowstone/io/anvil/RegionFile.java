@@ -65,13 +65,16 @@ package net.glowstone.io.anvil;
 import net.glowstone.GlowServer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
-public class RegionFile {
+public class RegionFile implements RegionStorage {
 
     private static final int VERSION_GZIP = 1;
     private static final int VERSION_DEFLATE = 2;
@@ -89,7 +92,24 @@ public class RegionFile {
     private int sizeDelta;
     private long lastModified = 0;
 
+    /*
+     * in synced mode, chunks are always written to new sectors and the
+     * header is only updated by sync(), after the new sectors are on disk.
+     * the sectors a chunk used before are only freed once the header no
+     * longer pointing to them is on disk too.
+     */
+    private final boolean synced;
+    private final BitSet dirty = new BitSet();
+    private List<Integer> retiring = new ArrayList<>();
+    private List<Integer> releasing = new ArrayList<>();
+    private boolean headerUnsynced;
+
     public RegionFile(File path) throws IOException {
+        this(path, false);
+    }
+
+    public RegionFile(File path, boolean synced) throws IOException {
+        this.synced = synced;
         offsets = new int[SECTOR_INTS];
         chunkTimestamps = new int[SECTOR_INTS];
 
@@ -176,7 +196,8 @@ public class RegionFile {
      * gets an (uncompressed) stream representing the chunk data returns null if
      * the chunk is not found or an error occurs
      */
-    public DataInputStream getChunkDataInputStream(int x, int z) throws IOException {
+    @Override
+    public synchronized DataInputStream getChunkDataInputStream(int x, int z) throws IOException {
         checkBounds(x, z);
 
         int offset = getOffset(x, z);
@@ -240,7 +261,8 @@ public class RegionFile {
     }
 
     /* write a chunk at (x,z) with length bytes of data to disk */
-    protected void write(int x, int z, byte[] data, int length) throws IOException {
+    @Override
+    public synchronized void write(int x, int z, byte[] data, int length) throws IOException {
         int offset = getOffset(x, z);
         int sectorNumber = offset >> 8;
         int sectorsAllocated = offset & 0xFF;
@@ -251,6 +273,25 @@ public class RegionFile {
             return;
         }
 
+        if (synced) {
+            /* write to new sectors, leaving the header until the next sync */
+            int index = x + z * 32;
+            sectorNumber = allocate(sectorsNeeded);
+            write(sectorNumber, data, length);
+            if (offset != 0) {
+                if (dirty.get(index)) {
+                    /* the header on disk never pointed to these sectors */
+                    free(offset);
+                } else {
+                    retiring.add(offset);
+                }
+            }
+            offsets[index] = (sectorNumber << 8) | sectorsNeeded;
+            chunkTimestamps[index] = (int) (System.currentTimeMillis() / 1000L);
+            dirty.set(index);
+            return;
+        }
+
         if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
             /* we can simply overwrite the old sectors */
             write(sectorNumber, data, length);
@@ -258,55 +299,61 @@ public class RegionFile {
             /* we need to allocate new sectors */
 
             /* mark the sectors previously used for this chunk as free */
-            for (int i = 0; i < sectorsAllocated; ++i) {
-                sectorFree.set(sectorNumber + i, true);
-            }
+            free(offset);
 
-            /* scan for a free space large enough to store this chunk */
-            int runStart = sectorFree.indexOf(true);
-            int runLength = 0;
-            if (runStart != -1) {
-                for (int i = runStart; i < sectorFree.size(); ++i) {
-                    if (runLength != 0) {
-                        if (sectorFree.get(i)) runLength++;
-                        else runLength = 0;
-                    } else if (sectorFree.get(i)) {
-                        runStart = i;
-                        runLength = 1;
-                    }
-                    if (runLength >= sectorsNeeded) {
-                        break;
-                    }
-                }
-            }
+            sectorNumber = allocate(sectorsNeeded);
+            write(sectorNumber, data, length);
+            setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+        }
+        setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+    }
 
-            if (runLength >= sectorsNeeded) {
-                /* we found a free space large enough */
-                sectorNumber = runStart;
-                setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
-                for (int i = 0; i < sectorsNeeded; ++i) {
-                    sectorFree.set(sectorNumber + i, false);
+    /* find a run of free sectors, growing the file if needed, and mark it as used */
+    private int allocate(int sectorsNeeded) throws IOException {
+        /* scan for a free space large enough to store this chunk */
+        int runStart = sectorFree.indexOf(true);
+        int runLength = 0;
+        if (runStart != -1) {
+            for (int i = runStart; i < sectorFree.size(); ++i) {
+                if (runLength != 0) {
+                    if (sectorFree.get(i)) runLength++;
+                    else runLength = 0;
+                } else if (sectorFree.get(i)) {
+                    runStart = i;
+                    runLength = 1;
                 }
-                write(sectorNumber, data, length);
-            } else {
-                /*
-                 * no free space large enough found -- we need to grow the
-                 * file
-                 */
-                file.seek(file.length());
-                sectorNumber = sectorFree.size();
-                for (int i = 0; i < sectorsNeeded; ++i) {
-                    file.write(emptySector);
-                    sectorFree.add(false);
+                if (runLength >= sectorsNeeded) {
+                    break;
                 }
-                sizeDelta += SECTOR_BYTES * sectorsNeeded;
+            }
+        }
 
-                write(sectorNumber, data, length);
-                setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+        if (runLength >= sectorsNeeded) {
+            /* we found a free space large enough */
+            for (int i = 0; i < sectorsNeeded; ++i) {
+                sectorFree.set(runStart + i, false);
             }
+            return runStart;
+        }
+
+        /* no free space large enough found -- we need to grow the file */
+        file.seek(file.length());
+        int sectorNumber = sectorFree.size();
+        for (int i = 0; i < sectorsNeeded; ++i) {
+            file.write(emptySector);
+            sectorFree.add(false);
+        }
+        sizeDelta += SECTOR_BYTES * sectorsNeeded;
+        return sectorNumber;
+    }
+
+    /* mark the sectors of a chunk offset as free */
+    private void free(int offset) {
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+        for (int i = 0; i < numSectors && sectorNumber + i < sectorFree.size(); ++i) {
+            sectorFree.set(sectorNumber + i, true);
         }
-        setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
-        //file.getChannel().force(true);
     }
 
     /* write a chunk data to the region file at specified sector number */
@@ -328,7 +375,8 @@ public class RegionFile {
         return offsets[x + z * 32];
     }
 
-    public boolean hasChunk(int x, int z) {
+    @Override
+    public synchronized boolean hasChunk(int x, int z) {
         return getOffset(x, z) != 0;
     }
 
@@ -344,8 +392,44 @@ public class RegionFile {
         file.writeInt(value);
     }
 
-    public void close() throws IOException {
+    /*
+     * in synced mode: force the chunks written since the last sync to disk,
+     * then point the header at them. the header itself reaches the disk on
+     * the next sync, which also frees the sectors it no longer points to.
+     */
+    @Override
+    public synchronized boolean sync() throws IOException {
+        if (!synced || dirty.isEmpty() && releasing.isEmpty() && !headerUnsynced) {
+            return false;
+        }
         file.getChannel().force(true);
-        file.close();
+
+        for (int offset : releasing) {
+            free(offset);
+        }
+        releasing.clear();
+        List<Integer> released = releasing;
+        releasing = retiring;
+        retiring = released;
+
+        headerUnsynced = !dirty.isEmpty();
+        if (headerUnsynced) {
+            ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_BYTES);
+            header.asIntBuffer().put(offsets).put(chunkTimestamps);
+            file.seek(0);
+            file.write(header.array());
+            dirty.clear();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+            file.getChannel().force(true);
+        } finally {
+            file.close();
+        }
     }
 }
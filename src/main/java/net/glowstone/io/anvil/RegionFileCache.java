@@ -31,59 +31,225 @@ import net.glowstone.GlowServer;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple cache and wrapper for efficiently accessing multiple RegionFiles
  * simultaneously.
+ *
+ * At most a fixed number of region files are kept open, and the least
+ * recently used one is closed when another must be opened. A region file is
+ * pinned between {@link #acquire} and {@link #release} and is never closed
+ * while pinned, so the cache may briefly grow past its capacity while many
+ * files are in use.
  */
 public class RegionFileCache {
 
-    private static final int MAX_CACHE_SIZE = 256;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong opens = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
 
-    private final Map<File, Reference<RegionFile>> cache = new HashMap<>();
+    /**
+     * The open region files, from least to most recently used.
+     */
+    private final LinkedHashMap<File, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
 
     private final String extension;
     private final File regionDir;
+    private final int capacity;
+    private final boolean mapped;
+    private final boolean synced;
+
+    /**
+     * Creates a new cache for the region folder of a world.
+     * @param basePath The world folder.
+     * @param extension The extension of the region files.
+     * @param capacity The most region files to keep open at once.
+     * @param mapped Whether to open region files as {@link MappedRegionFile}s.
+     */
+    public RegionFileCache(File basePath, String extension, int capacity, boolean mapped) {
+        this(basePath, extension, capacity, mapped, false);
+    }
 
-    public RegionFileCache(File basePath, String extension) {
+    /**
+     * Creates a new cache for the region folder of a world.
+     * @param basePath The world folder.
+     * @param extension The extension of the region files.
+     * @param capacity The most region files to keep open at once.
+     * @param mapped Whether to open region files as {@link MappedRegionFile}s.
+     * @param synced Whether to open region files in synced mode, in which
+     * writes only become durable through {@link RegionStorage#sync}.
+     */
+    public RegionFileCache(File basePath, String extension, int capacity, boolean mapped, boolean synced) {
         this.extension = extension;
+        this.capacity = Math.max(1, capacity);
+        this.mapped = mapped;
+        this.synced = synced;
         regionDir = new File(basePath, "region");
     }
 
-    public RegionFile getRegionFile(int chunkX, int chunkZ) throws IOException {
-        File file = new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + extension);
-
-        Reference<RegionFile> ref = cache.get(file);
-
-        if (ref != null && ref.get() != null) {
-            return ref.get();
+    /**
+     * Get the region file containing a chunk, opening it if needed, and pin
+     * it until {@link #release} is called with a chunk in the same region.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The pinned region file.
+     * @throws IOException if the region file could not be opened.
+     */
+    public synchronized RegionStorage acquire(int chunkX, int chunkZ) throws IOException {
+        File file = getFile(chunkX, chunkZ);
+
+        Entry entry = cache.get(file);
+        if (entry != null) {
+            hits.incrementAndGet();
+            entry.pins++;
+            return entry.region;
         }
+        misses.incrementAndGet();
 
         if (!regionDir.isDirectory() && !regionDir.mkdirs()) {
             GlowServer.logger.warning("Failed to create directory: " + regionDir);
         }
 
-        if (cache.size() >= MAX_CACHE_SIZE) {
-            clear();
+        // make room before opening, so the open file count stays in bounds
+        evict(capacity - 1);
+
+        entry = new Entry(mapped ? new MappedRegionFile(file, synced) : new RegionFile(file, synced));
+        opens.incrementAndGet();
+        entry.pins++;
+        cache.put(file, entry);
+        return entry.region;
+    }
+
+    /**
+     * Pin the region file containing a chunk if it is already open, as
+     * {@link #acquire} does, without opening it otherwise.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The pinned region file, or null if it is not open.
+     */
+    public synchronized RegionStorage acquireIfOpen(int chunkX, int chunkZ) {
+        Entry entry = cache.get(getFile(chunkX, chunkZ));
+        if (entry == null) {
+            return null;
         }
+        entry.pins++;
+        return entry.region;
+    }
 
-        RegionFile reg = new RegionFile(file);
-        cache.put(file, new SoftReference<>(reg));
-        return reg;
+    /**
+     * Unpin a region file previously returned by {@link #acquire}.
+     * @param chunkX The X coordinate of a chunk in the region.
+     * @param chunkZ The Z coordinate of a chunk in the region.
+     */
+    public synchronized void release(int chunkX, int chunkZ) {
+        File file = getFile(chunkX, chunkZ);
+        Entry entry = cache.get(file);
+        if (entry == null || entry.pins <= 0) {
+            throw new IllegalStateException("Region file " + file + " is not pinned");
+        }
+        entry.pins--;
+        if (cache.size() > capacity) {
+            try {
+                evict(capacity);
+            } catch (IOException e) {
+                GlowServer.logger.warning("Error closing region file: " + e);
+            }
+        }
     }
 
-    public void clear() throws IOException {
-        for (Reference<RegionFile> ref : cache.values()) {
-            RegionFile value = ref.get();
-            if (value != null) {
-                value.close();
+    /**
+     * Close every region file, pinned or not.
+     * @throws IOException if a region file could not be closed.
+     */
+    public synchronized void clear() throws IOException {
+        IOException error = null;
+        for (Entry entry : cache.values()) {
+            try {
+                entry.region.close();
+            } catch (IOException e) {
+                error = e;
             }
         }
         cache.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get the number of region files currently open.
+     * @return The number of open region files.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups, across all caches, which found the region
+     * file already open.
+     * @return The number of cache hits.
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups, across all caches, which had to open the
+     * region file.
+     * @return The number of cache misses.
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of region files opened across all caches.
+     * @return The number of region files opened.
+     */
+    public static long getOpens() {
+        return opens.get();
+    }
+
+    /**
+     * Get the number of region files closed to make room across all caches.
+     * @return The number of evictions.
+     */
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    private File getFile(int chunkX, int chunkZ) {
+        return new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + extension);
+    }
+
+    /**
+     * Close unpinned region files, least recently used first, until at most
+     * the given number remain open.
+     */
+    private void evict(int target) throws IOException {
+        Iterator<Entry> it = cache.values().iterator();
+        while (cache.size() > target && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.pins == 0) {
+                it.remove();
+                evictions.incrementAndGet();
+                entry.region.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final RegionStorage region;
+        private int pins;
+
+        private Entry(RegionStorage region) {
+            this.region = region;
+        }
     }
 
 }
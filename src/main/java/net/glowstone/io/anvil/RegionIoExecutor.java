@@ -0,0 +1,387 @@
+package net.glowstone.io.anvil;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import net.glowstone.GlowChunk;
+import net.glowstone.GlowServer;
+import net.glowstone.util.collection.ConcurrentLongObjectMap;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs region file reads and writes on a pool of worker threads. Requests
+ * are routed to one lane per region file, and each lane runs its requests
+ * one at a time and in order, so a region file is never accessed by two
+ * threads at once while different regions proceed in parallel.
+ *
+ * With a sync interval, region files are opened in synced mode, and every
+ * region written to since its last sync is synced once per interval on its
+ * own lane, so the writes of one interval share a single fsync per region.
+ */
+public final class RegionIoExecutor {
+
+    /**
+     * The size of a region - a 32x32 group of chunks.
+     */
+    private static final int REGION_SIZE = 32;
+
+    /**
+     * The most requests a lane runs before letting other lanes have the
+     * worker thread.
+     */
+    private static final int LANE_BATCH = 16;
+
+    private final RegionFileCache cache;
+    private final ExecutorService workers;
+    private final ConcurrentLongObjectMap<Lane> lanes = new ConcurrentLongObjectMap<>();
+
+    private static final AtomicLong chunkWrites = new AtomicLong();
+    private static final AtomicLong syncs = new AtomicLong();
+    private static final AtomicLong syncNanos = new AtomicLong();
+    private static final AtomicLong maxSyncNanos = new AtomicLong();
+
+    /**
+     * The timer which syncs written regions, or null if regions are not
+     * opened in synced mode.
+     */
+    private final ScheduledExecutorService syncTimer;
+
+    /**
+     * The number of writes which have failed since the last flush.
+     */
+    private final AtomicInteger failedWrites = new AtomicInteger();
+
+    /**
+     * Creates a new executor for the region files of a cache.
+     * @param cache The region file cache.
+     * @param threads The number of worker threads.
+     * @param name A name for the worker threads.
+     */
+    public RegionIoExecutor(RegionFileCache cache, int threads, String name) {
+        this(cache, threads, name, 0);
+    }
+
+    /**
+     * Creates a new executor for the region files of a cache.
+     * @param cache The region file cache, which must open region files in
+     * synced mode if the sync interval is positive.
+     * @param threads The number of worker threads.
+     * @param name A name for the worker threads.
+     * @param syncInterval The milliseconds between syncs of written
+     * regions, or 0 to never sync them.
+     */
+    public RegionIoExecutor(RegionFileCache cache, int threads, String name, int syncInterval) {
+        this.cache = cache;
+        workers = Executors.newFixedThreadPool(Math.max(1, threads), new WorkerThreadFactory(name));
+        if (syncInterval > 0) {
+            syncTimer = Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory(name + "-sync"));
+            syncTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    syncAll();
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncTimer = null;
+        }
+    }
+
+    /**
+     * Read the stored data of a chunk.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return A future for the uncompressed data, or null if the chunk is
+     * not stored.
+     */
+    public ListenableFuture<DataInputStream> read(final int chunkX, final int chunkZ) {
+        final SettableFuture<DataInputStream> future = SettableFuture.create();
+        getLane(chunkX, chunkZ).submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RegionStorage region = cache.acquire(chunkX, chunkZ);
+                    try {
+                        int regionX = chunkX & (REGION_SIZE - 1);
+                        int regionZ = chunkZ & (REGION_SIZE - 1);
+                        future.set(region.hasChunk(regionX, regionZ) ? region.getChunkDataInputStream(regionX, regionZ) : null);
+                    } finally {
+                        cache.release(chunkX, chunkZ);
+                    }
+                } catch (Throwable t) {
+                    future.setException(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Write the compressed data of a chunk. Reads of the chunk submitted
+     * afterwards will see the new data.
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @param data The compressed chunk data.
+     * @param length The number of bytes of data.
+     * @return A future completed once the data has been written.
+     */
+    public ListenableFuture<Void> write(final int chunkX, final int chunkZ, final byte[] data, final int length) {
+        final SettableFuture<Void> future = SettableFuture.create();
+        final Lane lane = getLane(chunkX, chunkZ);
+        lane.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RegionStorage region = cache.acquire(chunkX, chunkZ);
+                    try {
+                        region.write(chunkX & (REGION_SIZE - 1), chunkZ & (REGION_SIZE - 1), data, length);
+                    } finally {
+                        cache.release(chunkX, chunkZ);
+                    }
+                    chunkWrites.incrementAndGet();
+                    if (syncTimer != null) {
+                        lane.unsynced.set(true);
+                    }
+                    future.set(null);
+                } catch (Throwable t) {
+                    failedWrites.incrementAndGet();
+                    GlowServer.logger.log(Level.SEVERE, "Error while writing chunk (" + chunkX + "," + chunkZ + ")", t);
+                    future.setException(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Wait until every request submitted before this call has finished, and
+     * in synced mode until every write is durable.
+     * @throws IOException if any write has failed since the last flush, or
+     * the wait was interrupted.
+     */
+    public void flush() throws IOException {
+        List<ListenableFuture<Void>> barriers = new ArrayList<>(lanes.size());
+        for (ConcurrentLongObjectMap.Entry<Lane> entry : lanes) {
+            final Lane lane = entry.getValue();
+            final SettableFuture<Void> barrier = SettableFuture.create();
+            lane.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while (lane.unsynced.getAndSet(false)) {
+                        sync(lane);
+                    }
+                    barrier.set(null);
+                }
+            });
+            barriers.add(barrier);
+        }
+
+        try {
+            Futures.allAsList(barriers).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing region files", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while flushing region files", e.getCause());
+        }
+
+        int failed = failedWrites.getAndSet(0);
+        if (failed > 0) {
+            throw new IOException(failed + " chunk writes failed since the last flush");
+        }
+    }
+
+    /**
+     * Finish all requests, stop the worker threads and close the region
+     * files.
+     * @throws IOException if a write failed or a region file could not be
+     * closed.
+     */
+    public void close() throws IOException {
+        if (syncTimer != null) {
+            syncTimer.shutdown();
+        }
+        try {
+            flush();
+        } finally {
+            workers.shutdown();
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the number of chunks written across all executors.
+     * @return The number of chunk writes.
+     */
+    public static long getChunkWrites() {
+        return chunkWrites.get();
+    }
+
+    /**
+     * Get the number of times a region file has been forced to disk by a
+     * sync, across all executors.
+     * @return The number of syncs.
+     */
+    public static long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Get the total time spent syncing region files, across all executors.
+     * @return The sync time in nanoseconds.
+     */
+    public static long getSyncNanos() {
+        return syncNanos.get();
+    }
+
+    /**
+     * Get the longest time a single region file sync has taken, across all
+     * executors.
+     * @return The longest sync time in nanoseconds.
+     */
+    public static long getMaxSyncNanos() {
+        return maxSyncNanos.get();
+    }
+
+    /**
+     * Queue a sync on every lane written to since its last sync.
+     */
+    private void syncAll() {
+        for (ConcurrentLongObjectMap.Entry<Lane> entry : lanes) {
+            final Lane lane = entry.getValue();
+            if (lane.unsynced.getAndSet(false)) {
+                lane.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sync(lane);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sync the region file of a lane, if it is open, and mark the lane as
+     * needing another sync if the region has more to make durable. Region
+     * files which have been closed were synced as they were closed.
+     */
+    private void sync(Lane lane) {
+        RegionStorage region = cache.acquireIfOpen(lane.chunkX, lane.chunkZ);
+        if (region == null) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            if (region.sync()) {
+                long elapsed = System.nanoTime() - start;
+                syncs.incrementAndGet();
+                syncNanos.addAndGet(elapsed);
+                long max;
+                while (elapsed > (max = maxSyncNanos.get()) && !maxSyncNanos.compareAndSet(max, elapsed)) {
+                    // retry
+                }
+                lane.unsynced.set(true);
+            }
+        } catch (Throwable t) {
+            failedWrites.incrementAndGet();
+            GlowServer.logger.log(Level.SEVERE, "Error while syncing region of chunk (" + lane.chunkX + "," + lane.chunkZ + ")", t);
+        } finally {
+            cache.release(lane.chunkX, lane.chunkZ);
+        }
+    }
+
+    private Lane getLane(int chunkX, int chunkZ) {
+        long key = GlowChunk.Key.pack(chunkX >> 5, chunkZ >> 5);
+        Lane lane = lanes.get(key);
+        if (lane == null) {
+            Lane created = new Lane(chunkX & ~(REGION_SIZE - 1), chunkZ & ~(REGION_SIZE - 1));
+            lane = lanes.putIfAbsent(key, created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * The requests for a single region file, run in order on whichever
+     * worker picks the lane up.
+     */
+    private final class Lane implements Runnable {
+        private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Whether the region has writes which are not yet durable.
+         */
+        private final AtomicBoolean unsynced = new AtomicBoolean();
+
+        /**
+         * The coordinates of the first chunk in the region.
+         */
+        private final int chunkX, chunkZ;
+
+        private Lane(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        private void submit(Runnable request) {
+            requests.add(request);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable request;
+            for (int i = 0; i < LANE_BATCH && (request = requests.poll()) != null; ++i) {
+                request.run();
+            }
+            scheduled.set(false);
+            // pick up requests added after the last poll, or left over from the batch
+            if (!requests.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Thread factory for the region I/O workers of a world.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        private WorkerThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Glowstone-region-io-" + name + "-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
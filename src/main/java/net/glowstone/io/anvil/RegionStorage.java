@@ -0,0 +1,54 @@
+package net.glowstone.io.anvil;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * The chunk storage of a single region file. Coordinates are of chunks
+ * within the region, from 0 to 31.
+ */
+public interface RegionStorage {
+
+    /**
+     * Check whether a chunk is stored in the region.
+     * @param x The X coordinate of the chunk within the region.
+     * @param z The Z coordinate of the chunk within the region.
+     * @return Whether the chunk is stored.
+     */
+    boolean hasChunk(int x, int z);
+
+    /**
+     * Get a stream of the uncompressed data of a chunk.
+     * @param x The X coordinate of the chunk within the region.
+     * @param z The Z coordinate of the chunk within the region.
+     * @return The chunk data, or null if the chunk is not stored.
+     * @throws IOException if an I/O error occurs.
+     */
+    DataInputStream getChunkDataInputStream(int x, int z) throws IOException;
+
+    /**
+     * Store the zlib compressed data of a chunk.
+     * @param x The X coordinate of the chunk within the region.
+     * @param z The Z coordinate of the chunk within the region.
+     * @param data The compressed data.
+     * @param length The number of bytes of data.
+     * @throws IOException if an I/O error occurs.
+     */
+    void write(int x, int z, byte[] data, int length) throws IOException;
+
+    /**
+     * Make earlier writes durable, for regions opened in synced mode. Each
+     * call forces the file to disk at most once, so a write is only
+     * complete once this has been called until it returns false.
+     * @return Whether the file was forced to disk, in which case there may
+     * be more to sync.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean sync() throws IOException;
+
+    /**
+     * Write out any pending changes and close the region.
+     * @throws IOException if an I/O error occurs.
+     */
+    void close() throws IOException;
+}
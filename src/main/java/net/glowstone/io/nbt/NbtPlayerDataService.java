@@ -112,7 +112,7 @@ public class NbtPlayerDataService implements PlayerDataService {
         CompoundTag playerTag = new CompoundTag();
         if (playerFile.exists()) {
             try (NBTInputStream in = new NBTInputStream(new FileInputStream(playerFile))) {
-                playerTag = in.readCompound();
+                playerTag = in.readLazyCompound();
             } catch (IOException e) {
                 player.kickPlayer("Failed to read player data!");
                 server.getLogger().log(Level.SEVERE, "Failed to read data for " + player.getName() + ": " + playerFile, e);
@@ -141,7 +141,7 @@ public class NbtPlayerDataService implements PlayerDataService {
         public NbtPlayerReader(File playerFile) {
             if (playerFile.exists()) {
                 try (NBTInputStream in = new NBTInputStream(new FileInputStream(playerFile))) {
-                    tag = in.readCompound();
+                    tag = in.readLazyCompound();
                     hasPlayed = true;
                 } catch (IOException e) {
                     server.getLogger().log(Level.SEVERE, "Failed to read data for player: " + playerFile, e);
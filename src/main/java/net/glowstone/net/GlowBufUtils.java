@@ -2,27 +2,22 @@ package net.glowstone.net;
 
 import com.flowpowered.networking.util.ByteBufUtils;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import net.glowstone.GlowServer;
 import net.glowstone.entity.meta.MetadataIndex;
 import net.glowstone.entity.meta.MetadataMap;
 import net.glowstone.entity.meta.MetadataType;
 import net.glowstone.inventory.GlowItemFactory;
 import net.glowstone.util.TextMessage;
 import net.glowstone.util.nbt.CompoundTag;
-import net.glowstone.util.nbt.NBTInputStream;
-import net.glowstone.util.nbt.NBTOutputStream;
+import net.glowstone.util.nbt.NBTByteBufCodec;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.BlockVector;
 import org.bukkit.util.Vector;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.logging.Level;
 
 /**
  * Contains several utility methods for writing special data types to @{link ByteBuf}s.
@@ -122,8 +117,8 @@ public final class GlowBufUtils {
         }
 
         buf.readerIndex(idx);
-        try (NBTInputStream str = new NBTInputStream(new ByteBufInputStream(buf), false)) {
-            return str.readCompound();
+        try {
+            return NBTByteBufCodec.readCompound(buf);
         } catch (IOException e) {
             return null;
         }
@@ -140,15 +135,7 @@ public final class GlowBufUtils {
             return;
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (NBTOutputStream str = new NBTOutputStream(out, false)) {
-            str.writeTag(data);
-        } catch (IOException e) {
-            GlowServer.logger.log(Level.WARNING, "Error serializing NBT: " + data, e);
-            return;
-        }
-
-        buf.writeBytes(out.toByteArray());
+        NBTByteBufCodec.writeCompound(buf, data);
     }
 
     /**
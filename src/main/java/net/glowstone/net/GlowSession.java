@@ -23,12 +23,15 @@ import net.glowstone.net.message.play.game.UserListItemMessage;
 import net.glowstone.net.message.play.player.BlockPlacementMessage;
 import net.glowstone.net.pipeline.CodecsHandler;
 import net.glowstone.net.pipeline.CompressionHandler;
+import net.glowstone.net.pipeline.EncodedMessage;
 import net.glowstone.net.pipeline.EncryptionHandler;
+import net.glowstone.net.pipeline.FlushHandler;
 import net.glowstone.net.pipeline.NoopHandler;
 import net.glowstone.net.protocol.GlowProtocol;
 import net.glowstone.net.protocol.LoginProtocol;
 import net.glowstone.net.protocol.PlayProtocol;
 import net.glowstone.net.protocol.ProtocolType;
+import net.glowstone.util.collection.BoundedMpscQueue;
 
 import org.bukkit.event.player.PlayerKickEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
@@ -37,6 +40,7 @@ import javax.crypto.SecretKey;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /**
@@ -62,9 +66,43 @@ public final class GlowSession extends BasicSession {
     private final Random random = new Random();
 
     /**
-     * A queue of incoming and unprocessed messages.
+     * A queue of incoming and unprocessed messages, added to by the network
+     * thread and polled by the server thread.
      */
-    private final Queue<Message> messageQueue = new ArrayDeque<>();
+    private final BoundedMpscQueue<Message> messageQueue;
+
+    /**
+     * Messages received while the queue was full, in order, waiting to be
+     * moved to the queue. Only accessed on the channel's event loop.
+     */
+    private final Queue<Message> overflow = new ArrayDeque<>();
+
+    /**
+     * Whether reading from the channel is paused until the queue has room.
+     */
+    private volatile boolean readPaused;
+
+    /**
+     * The number of times reading has been paused because the queue was full.
+     */
+    private volatile int readPauses;
+
+    /**
+     * Whether messages sent while playing are only flushed by {@link #flush}
+     * at the end of the tick, rather than one by one.
+     */
+    private final boolean coalesceFlushes;
+
+    /**
+     * Whether messages have been written since the last {@link #flush}.
+     */
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    /**
+     * The compression threshold of the connection, or -1 if compression is
+     * not enabled.
+     */
+    private volatile int compressionThreshold = -1;
 
     /**
      * The remote address of the connection.
@@ -136,6 +174,9 @@ public final class GlowSession extends BasicSession {
         super(channel, ProtocolType.HANDSHAKE.getProtocol());
         this.server = server;
         this.connectionManager = connectionManager;
+        messageQueue = new BoundedMpscQueue<>(Math.max(1, server.getInboundQueueSize()));
+        coalesceFlushes = server.useFlushCoalescing();
+        updatePipeline("flush", new FlushHandler(coalesceFlushes ? Math.max(0, server.getFlushThreshold()) : 0));
         address = super.getAddress();
     }
 
@@ -255,6 +296,33 @@ public final class GlowSession extends BasicSession {
         return address;
     }
 
+    /**
+     * Get the number of received messages waiting to be handled on the
+     * next pulse. While reading is paused, a few more may be held back
+     * until the queue has room.
+     * @return The number of queued messages.
+     */
+    public int getMessageQueueSize() {
+        return messageQueue.size();
+    }
+
+    /**
+     * Get whether reading from the client is paused because too many of its
+     * messages are waiting to be handled.
+     * @return True if reading is paused.
+     */
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * Get the number of times reading from the client has been paused.
+     * @return The number of pauses.
+     */
+    public int getReadPauses() {
+        return readPauses;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // Player and state management
 
@@ -334,15 +402,19 @@ public final class GlowSession extends BasicSession {
 
         // todo: display names are included in the outgoing messages here, but
         // don't show up on the client. A workaround or proper fix is needed.
-        Message addMessage = new UserListItemMessage(UserListItemMessage.Action.ADD_PLAYER, player.getUserListEntry());
+        SharedMessage addMessage = new SharedMessage(new UserListItemMessage(UserListItemMessage.Action.ADD_PLAYER, player.getUserListEntry()));
         List<UserListItemMessage.Entry> entries = new ArrayList<>();
-        for (GlowPlayer other : server.getOnlinePlayers()) {
-            if (other != player && other.canSee(player)) {
-                other.getSession().send(addMessage);
-            }
-            if (player.canSee(other)) {
-                entries.add(other.getUserListEntry());
+        try {
+            for (GlowPlayer other : server.getOnlinePlayers()) {
+                if (other != player && other.canSee(player)) {
+                    addMessage.sendTo(other);
+                }
+                if (player.canSee(other)) {
+                    entries.add(other.getUserListEntry());
+                }
             }
+        } finally {
+            addMessage.release();
         }
         send(new UserListItemMessage(UserListItemMessage.Action.ADD_PLAYER, entries));
     }
@@ -353,7 +425,55 @@ public final class GlowSession extends BasicSession {
             // discard messages sent if we're closed, since this happens a lot
             return null;
         }
-        return super.sendWithFuture(message);
+        if (!coalesceFlushes || !(getProtocol() instanceof PlayProtocol)) {
+            return super.sendWithFuture(message);
+        }
+
+        // written now, and flushed along with the rest of the tick's messages
+        ChannelFuture future = getChannel().write(message).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.cause() != null) {
+                    onOutboundThrowable(future.cause());
+                }
+            }
+        });
+        flushPending.set(true);
+        return future;
+    }
+
+    /**
+     * Send a message which has already been encoded for this session's
+     * protocol and compression threshold, as by {@link SharedMessage}.
+     * @param message The encoded message, which is released once written.
+     */
+    public void sendEncoded(EncodedMessage message) {
+        if (!isActive()) {
+            message.release();
+            return;
+        }
+        ChannelFuture future = coalesceFlushes ? getChannel().write(message) : getChannel().writeAndFlush(message);
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.cause() != null) {
+                    onOutboundThrowable(future.cause());
+                }
+            }
+        });
+        if (coalesceFlushes) {
+            flushPending.set(true);
+        }
+    }
+
+    /**
+     * Flush the messages written since the last flush, if any. Called at
+     * the end of each tick when flushes are coalesced.
+     */
+    void flush() {
+        if (flushPending.getAndSet(false)) {
+            getChannel().flush();
+        }
     }
 
     @Override
@@ -408,6 +528,7 @@ public final class GlowSession extends BasicSession {
         if (isActive() && (getProtocol() instanceof LoginProtocol || getProtocol() instanceof PlayProtocol)) {
             // channel is both currently connected and in a protocol state allowing kicks
             sendWithFuture(new KickMessage(reason)).addListener(ChannelFutureListener.CLOSE);
+            flush();
         } else {
             getChannel().close();
         }
@@ -433,6 +554,16 @@ public final class GlowSession extends BasicSession {
             super.messageReceived(message);
         }
 
+        // the queue has room again, so move held back messages and resume reading
+        if (readPaused && !disconnected) {
+            getChannel().eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    resumeReading();
+                }
+            });
+        }
+
         // check if the client is disconnected
         if (disconnected) {
             connectionManager.sessionInactivated(this);
@@ -443,13 +574,17 @@ public final class GlowSession extends BasicSession {
 
             player.remove();
 
-            Message userListMessage = UserListItemMessage.removeOne(player.getUniqueId());
-            for (GlowPlayer player : server.getOnlinePlayers()) {
-                if (player.canSee(this.player)) {
-                    player.getSession().send(userListMessage);
-                } else {
-                    player.stopHidingDisconnectedPlayer(this.player);
+            SharedMessage userListMessage = new SharedMessage(UserListItemMessage.removeOne(player.getUniqueId()));
+            try {
+                for (GlowPlayer player : server.getOnlinePlayers()) {
+                    if (player.canSee(this.player)) {
+                        userListMessage.sendTo(player);
+                    } else {
+                        player.stopHidingDisconnectedPlayer(this.player);
+                    }
                 }
+            } finally {
+                userListMessage.release();
             }
 
             GlowServer.logger.info(player.getName() + " [" + address + "] lost connection");
@@ -484,12 +619,23 @@ public final class GlowSession extends BasicSession {
 
     public void enableCompression(int threshold) {
         send(new SetCompressionMessage(threshold));
-        updatePipeline("compression", new CompressionHandler(threshold));
+        updatePipeline("compression", new CompressionHandler(threshold, server.getCompressionLevel(),
+                server.getCompressionPool(), server.getCompressionOffloadSize()));
+        compressionThreshold = threshold;
     }
 
     public void disableCompression() {
         send(new SetCompressionMessage(-1));
         updatePipeline("compression", NoopHandler.INSTANCE);
+        compressionThreshold = -1;
+    }
+
+    /**
+     * Get the size from which messages sent to this session are compressed.
+     * @return The compression threshold, or -1 if compression is not enabled.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
     }
 
     private void updatePipeline(String key, ChannelHandler handler) {
@@ -509,8 +655,30 @@ public final class GlowSession extends BasicSession {
         if (message instanceof AsyncableMessage && ((AsyncableMessage) message).isAsync()) {
             // async messages get their handlers called immediately
             super.messageReceived(message);
-        } else {
-            messageQueue.add(message);
+        } else if (!overflow.isEmpty() || !messageQueue.offer(message)) {
+            // the queue is full: hold the message back and stop reading, so
+            // the client is slowed down by TCP until the queue is drained
+            overflow.add(message);
+            if (!readPaused) {
+                readPaused = true;
+                readPauses++;
+                getChannel().config().setAutoRead(false);
+            }
+        }
+    }
+
+    /**
+     * Move held back messages to the queue, and resume reading once they
+     * all fit. Called on the channel's event loop.
+     */
+    private void resumeReading() {
+        Message message;
+        while ((message = overflow.peek()) != null && messageQueue.offer(message)) {
+            overflow.poll();
+        }
+        if (overflow.isEmpty() && readPaused) {
+            readPaused = false;
+            getChannel().config().setAutoRead(true);
         }
     }
 
@@ -24,6 +24,15 @@ public final class SessionRegistry {
         }
     }
 
+    /**
+     * Flushes the messages written to every session during the tick.
+     */
+    public void flush() {
+        for (GlowSession session : sessions.keySet()) {
+            session.flush();
+        }
+    }
+
     /**
      * Adds a new session.
      * @param session The session to add.
@@ -0,0 +1,131 @@
+package net.glowstone.net;
+
+import com.flowpowered.networking.Message;
+import net.glowstone.GlowServer;
+import net.glowstone.entity.GlowPlayer;
+import net.glowstone.net.pipeline.EncodedMessage;
+import net.glowstone.net.pipeline.MessageEncoder;
+import net.glowstone.net.protocol.PlayProtocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A message broadcast to many players, which is encoded and compressed once
+ * and then written to each player's connection, leaving only encryption to
+ * be done per connection.
+ * <p/>
+ * The encoded bytes are reference counted, so a shared message must be
+ * released once it has been sent to every recipient:
+ * <pre>
+ * SharedMessage shared = new SharedMessage(message);
+ * try {
+ *     for (GlowPlayer player : players) {
+ *         shared.sendTo(player);
+ *     }
+ * } finally {
+ *     shared.release();
+ * }
+ * </pre>
+ */
+public final class SharedMessage {
+
+    private static final AtomicLong encodedBytes = new AtomicLong();
+    private static final AtomicLong sharedBytes = new AtomicLong();
+
+    private final Message message;
+
+    /**
+     * The message encoded with the compression threshold of the sessions it
+     * has been sent to so far, or null if it has not been encoded yet.
+     * Sessions with a different threshold are sent the message to encode
+     * themselves.
+     */
+    private EncodedMessage encoded;
+    private int threshold;
+
+    /**
+     * Creates a new shared message.
+     * @param message The message to send.
+     */
+    public SharedMessage(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Get the message being sent.
+     * @return The message.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Send the message to a player.
+     * @param player The player.
+     */
+    public void sendTo(GlowPlayer player) {
+        sendTo(player.getSession());
+    }
+
+    /**
+     * Send the message to a session, sharing its encoding if the session is
+     * playing.
+     * @param session The session.
+     */
+    public void sendTo(GlowSession session) {
+        if (!session.isActive() || !(session.getProtocol() instanceof PlayProtocol)) {
+            session.send(message);
+            return;
+        }
+
+        int sessionThreshold = session.getCompressionThreshold();
+        if (encoded == null) {
+            try {
+                encoded = MessageEncoder.encode(session.getChannel().alloc(), (PlayProtocol) session.getProtocol(), message, sessionThreshold,
+                        session.getServer().getCompressionLevel());
+            } catch (Exception e) {
+                GlowServer.logger.log(Level.SEVERE, "Error while encoding " + message, e);
+                session.send(message);
+                return;
+            }
+            threshold = sessionThreshold;
+            encodedBytes.addAndGet(encoded.content().readableBytes());
+        } else if (sessionThreshold != threshold) {
+            session.send(message);
+            return;
+        } else {
+            sharedBytes.addAndGet(encoded.content().readableBytes());
+        }
+        session.sendEncoded(encoded.duplicate().retain());
+    }
+
+    /**
+     * Release the encoded message. Must be called once the message has
+     * been sent to every recipient.
+     */
+    public void release() {
+        if (encoded != null) {
+            encoded.release();
+            encoded = null;
+        }
+    }
+
+    /**
+     * Get the number of framed bytes of shared messages encoded, each once.
+     * @return The number of bytes encoded.
+     */
+    public static long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * Get the number of framed bytes of shared messages written to
+     * connections beyond the first, which would otherwise have been encoded
+     * again by each connection's pipeline.
+     * @return The number of bytes not encoded again.
+     */
+    public static long getSharedBytes() {
+        return sharedBytes.get();
+    }
+}
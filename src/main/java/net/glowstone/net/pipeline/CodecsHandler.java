@@ -4,6 +4,7 @@ import com.flowpowered.networking.Codec;
 import com.flowpowered.networking.Message;
 import com.flowpowered.networking.util.ByteBufUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.EncoderException;
@@ -26,6 +27,18 @@ public final class CodecsHandler extends MessageToMessageCodec<ByteBuf, Message>
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
+        out.add(encode(ctx.alloc(), protocol, msg));
+    }
+
+    /**
+     * Encode a message with its opcode, as this handler does.
+     * @param alloc The allocator for the encoded buffers.
+     * @param protocol The protocol to find the message's codec in.
+     * @param msg The message.
+     * @return The encoded message.
+     * @throws Exception if the message could not be encoded.
+     */
+    static ByteBuf encode(ByteBufAllocator alloc, GlowProtocol protocol, Message msg) throws Exception {
         // find codec
         final Class<? extends Message> clazz = msg.getClass();
         Codec.CodecRegistration reg = protocol.getCodecRegistration(clazz);
@@ -34,14 +47,14 @@ public final class CodecsHandler extends MessageToMessageCodec<ByteBuf, Message>
         }
 
         // write header
-        ByteBuf headerBuf = ctx.alloc().buffer(8);
+        ByteBuf headerBuf = alloc.buffer(8);
         ByteBufUtils.writeVarInt(headerBuf, reg.getOpcode());
 
         // write body
-        ByteBuf messageBuf = ctx.alloc().buffer();
+        ByteBuf messageBuf = alloc.buffer();
         messageBuf = reg.getCodec().encode(messageBuf, msg);
 
-        out.add(Unpooled.wrappedBuffer(headerBuf, messageBuf));
+        return Unpooled.wrappedBuffer(headerBuf, messageBuf);
     }
 
     @Override
@@ -2,75 +2,321 @@ package net.glowstone.net.pipeline;
 
 import com.flowpowered.networking.util.ByteBufUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.ReferenceCountUtil;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
  * Experimental pipeline component.
+ * <p/>
+ * Deflater and Inflater only work on arrays, so messages are compressed
+ * into and decompressed into the backing arrays of pooled heap buffers.
+ * Input is read straight from the backing arrays of heap buffers, and only
+ * copied, into a scratch array reused by each thread, when it is direct.
+ * <p/>
+ * Messages from a given size may be compressed on a {@link CompressionPool}
+ * instead of the event loop. Writes after such a message wait in a queue
+ * until it has been compressed, so that messages are still written in
+ * order.
  */
 public final class CompressionHandler extends MessageToMessageCodec<ByteBuf, ByteBuf> {
 
-    private static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * The largest uncompressed size a received message may claim.
+     */
+    private static final int MAX_UNCOMPRESSED_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * The scratch array of each thread for input which has no backing array.
+     */
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    /**
+     * The deflater of each thread which compresses messages outside of a
+     * pipeline.
+     */
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
+    private static final AtomicLong offloaded = new AtomicLong();
+    private static final AtomicLong offloadedBytes = new AtomicLong();
+    private static final AtomicLong offloadsRejected = new AtomicLong();
 
     private final int threshold;
+    private final int level;
     private final Inflater inflater;
     private final Deflater deflater;
 
+    /**
+     * The pool to compress large messages on, or null to compress all
+     * messages on the event loop.
+     */
+    private final CompressionPool pool;
+    private final int offloadSize;
+
+    /**
+     * Writes waiting for a message before them to be compressed by the
+     * pool, in the order they were made. Only used on the event loop.
+     */
+    private final ArrayDeque<PendingWrite> pending = new ArrayDeque<>();
+    private boolean flushPending;
+    private boolean removed;
+
     public CompressionHandler(int threshold) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public CompressionHandler(int threshold, int level) {
+        this(threshold, level, null, 0);
+    }
+
+    /**
+     * Creates a new compression handler which compresses large messages on
+     * a pool of threads.
+     * @param threshold The size from which messages are compressed.
+     * @param level The deflate level to compress with.
+     * @param pool The pool to compress large messages on, or null.
+     * @param offloadSize The size from which messages are compressed on
+     * the pool rather than the event loop.
+     */
+    public CompressionHandler(int threshold, int level, CompressionPool pool, int offloadSize) {
         this.threshold = threshold;
+        this.level = level;
+        this.pool = pool;
+        this.offloadSize = Math.max(threshold, offloadSize);
         inflater = new Inflater();
-        deflater = new Deflater(COMPRESSION_LEVEL);
+        deflater = new Deflater(level);
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
-        ByteBuf prefixBuf = ctx.alloc().buffer(5);
-        ByteBuf contentsBuf;
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        boolean offload = pool != null && msg instanceof ByteBuf && ((ByteBuf) msg).readableBytes() >= offloadSize;
+        if (!offload && pending.isEmpty()) {
+            super.write(ctx, msg, promise);
+            return;
+        }
 
-        if (msg.readableBytes() >= threshold) {
-            // message should be compressed
-            int index = msg.readerIndex();
-            int length = msg.readableBytes();
+        PendingWrite write = new PendingWrite(msg, promise);
+        pending.add(write);
+        if (offload) {
+            offload(ctx, write);
+        } else {
+            // compressed on the event loop once the writes before it are done
+            write.done = true;
+        }
+        drain(ctx);
+    }
 
-            byte[] sourceData = new byte[length];
-            msg.readBytes(sourceData);
-            deflater.setInput(sourceData);
-            deflater.finish();
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (!pending.isEmpty()) {
+            // flush the rest once the pending writes are done
+            flushPending = true;
+        }
+        ctx.flush();
+    }
 
-            byte[] compressedData = new byte[length];
-            int compressedLength = deflater.deflate(compressedData);
-            deflater.reset();
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        removed = true;
+        for (PendingWrite write : pending) {
+            if (write.done) {
+                write.fail(new EncoderException("Compression handler removed with writes pending"));
+            }
+        }
+        pending.clear();
+        super.handlerRemoved(ctx);
+    }
 
-            if (compressedLength == 0) {
-                // compression failed in some weird way
-                throw new EncoderException("Failed to compress message of size " + length);
-            } else if (compressedLength >= length) {
-                // compression increased the size. threshold is probably too low
-                // send as an uncompressed packet
-                ByteBufUtils.writeVarInt(prefixBuf, 0);
-                msg.readerIndex(index);
-                msg.retain();
-                contentsBuf = msg;
-            } else {
-                // all is well
-                ByteBufUtils.writeVarInt(prefixBuf, length);
-                contentsBuf = Unpooled.wrappedBuffer(compressedData, 0, compressedLength);
+    /**
+     * Compress a message on the pool, or on the event loop if the pool is
+     * full, and write the writes it holds up once it is done.
+     */
+    private void offload(final ChannelHandlerContext ctx, final PendingWrite write) {
+        final ByteBuf msg = (ByteBuf) write.msg;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write.msg = compress(ctx.alloc(), msg, threshold, deflater(level));
+                } catch (Throwable t) {
+                    write.msg = null;
+                    write.cause = t;
+                } finally {
+                    msg.release();
+                }
+                write.compressed = true;
+                try {
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (removed) {
+                                write.fail(new EncoderException("Compression handler removed with writes pending"));
+                                return;
+                            }
+                            write.done = true;
+                            drain(ctx);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the event loop has shut down
+                    write.fail(e);
+                }
             }
+        };
+
+        int length = msg.readableBytes();
+        if (pool.submit(task)) {
+            offloaded.incrementAndGet();
+            offloadedBytes.addAndGet(length);
         } else {
-            // message should be sent through
-            ByteBufUtils.writeVarInt(prefixBuf, 0);
-            msg.retain();
-            contentsBuf = msg;
+            offloadsRejected.incrementAndGet();
+            try {
+                write.msg = compress(ctx.alloc(), msg, threshold, deflater);
+            } catch (Throwable t) {
+                write.msg = null;
+                write.cause = t;
+            } finally {
+                msg.release();
+            }
+            write.compressed = true;
+            write.done = true;
         }
+    }
 
-        out.add(Unpooled.wrappedBuffer(prefixBuf, contentsBuf));
+    /**
+     * Write the pending writes which are done, up to the first which is
+     * still being compressed.
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        while (!pending.isEmpty() && pending.peek().done) {
+            PendingWrite write = pending.poll();
+            if (write.cause != null) {
+                write.fail(write.cause);
+            } else if (write.compressed) {
+                ctx.write(write.msg, write.promise);
+            } else {
+                try {
+                    super.write(ctx, write.msg, write.promise);
+                } catch (Throwable t) {
+                    write.promise.tryFailure(t);
+                }
+            }
+        }
+        if (flushPending) {
+            flushPending = !pending.isEmpty();
+            ctx.flush();
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        out.add(compress(ctx.alloc(), msg, threshold, deflater));
+    }
+
+    /**
+     * Compress a message if it reaches the threshold, and prefix it with its
+     * uncompressed length, as this handler does.
+     * @param alloc The allocator for the prefix buffer.
+     * @param msg The message, which is not released.
+     * @param threshold The size from which messages are compressed.
+     * @param deflater The deflater to compress with.
+     * @return The prefixed message.
+     */
+    static ByteBuf compress(ByteBufAllocator alloc, ByteBuf msg, int threshold, Deflater deflater) {
+        ByteBuf prefixBuf = alloc.buffer(5);
+        int length = msg.readableBytes();
+
+        if (length >= threshold) {
+            // message should be compressed, if that makes it smaller
+            ByteBuf compressed = PooledByteBufAllocator.DEFAULT.heapBuffer(length);
+            try {
+                if (deflate(deflater, msg, compressed)) {
+                    ByteBufUtils.writeVarInt(prefixBuf, length);
+                    return Unpooled.wrappedBuffer(prefixBuf, compressed);
+                }
+            } catch (RuntimeException e) {
+                prefixBuf.release();
+                compressed.release();
+                throw e;
+            }
+            // compression did not reduce the size. threshold is probably too low
+            compressed.release();
+        }
+
+        // send as an uncompressed packet
+        ByteBufUtils.writeVarInt(prefixBuf, 0);
+        return Unpooled.wrappedBuffer(prefixBuf, msg.retain());
+    }
+
+    /**
+     * Deflate the readable bytes of a message into the backing array of a
+     * heap buffer, without changing the message's reader index.
+     * @return Whether all of the compressed data fit in the buffer's
+     * capacity, which is the most it is worth compressing to.
+     */
+    private static boolean deflate(Deflater deflater, ByteBuf msg, ByteBuf out) {
+        byte[] outArray = out.array();
+        int outOffset = out.arrayOffset();
+        int capacity = out.capacity();
+        int written = 0;
+        try {
+            for (ByteBuffer component : msg.nioBuffers()) {
+                if (component.hasArray()) {
+                    deflater.setInput(component.array(), component.arrayOffset() + component.position(), component.remaining());
+                } else {
+                    int remaining = component.remaining();
+                    byte[] input = scratch(remaining);
+                    component.get(input, 0, remaining);
+                    deflater.setInput(input, 0, remaining);
+                }
+                while (!deflater.needsInput() && written < capacity) {
+                    written += deflater.deflate(outArray, outOffset + written, capacity - written);
+                }
+                if (written >= capacity) {
+                    return false;
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished() && written < capacity) {
+                written += deflater.deflate(outArray, outOffset + written, capacity - written);
+            }
+            if (!deflater.finished()) {
+                return false;
+            }
+            if (written == 0) {
+                // compression failed in some weird way
+                throw new EncoderException("Failed to compress message of size " + msg.readableBytes());
+            }
+            out.writerIndex(written);
+            return written < msg.readableBytes();
+        } finally {
+            deflater.reset();
+        }
     }
 
     @Override
@@ -85,30 +331,131 @@ public final class CompressionHandler extends MessageToMessageCodec<ByteBuf, Byt
                 throw new DecoderException("Received uncompressed message of size " + length + " greater than threshold " + threshold);
             }
 
-            ByteBuf buf = ctx.alloc().buffer(length);
-            msg.readBytes(buf, length);
-            out.add(buf);
+            out.add(msg.readSlice(length).retain());
+            return;
+        }
+        if (uncompressedSize > MAX_UNCOMPRESSED_SIZE) {
+            throw new DecoderException("Received compressed message claiming to be of size " + uncompressedSize + ", larger than the maximum of " + MAX_UNCOMPRESSED_SIZE);
+        }
+
+        // message is compressed
+        int length = msg.readableBytes();
+        if (msg.hasArray()) {
+            inflater.setInput(msg.array(), msg.arrayOffset() + msg.readerIndex(), length);
         } else {
-            // message is compressed
-            byte[] sourceData = new byte[msg.readableBytes()];
-            msg.readBytes(sourceData);
-            inflater.setInput(sourceData);
+            byte[] input = scratch(length);
+            msg.getBytes(msg.readerIndex(), input, 0, length);
+            inflater.setInput(input, 0, length);
+        }
+        msg.skipBytes(length);
 
-            byte[] destData = new byte[uncompressedSize];
-            int resultLength = inflater.inflate(destData);
+        ByteBuf dest = PooledByteBufAllocator.DEFAULT.heapBuffer(uncompressedSize, uncompressedSize);
+        int resultLength;
+        try {
+            resultLength = inflater.inflate(dest.array(), dest.arrayOffset(), uncompressedSize);
+        } catch (DataFormatException e) {
+            dest.release();
+            throw new DecoderException("Received invalid compressed message", e);
+        } finally {
             inflater.reset();
+        }
 
-            if (resultLength == 0) {
-                // might be a leftover from before compression was enabled (no compression header)
-                // uncompressedSize is likely to be < threshold
-                msg.readerIndex(index);
-                msg.retain();
-                out.add(msg);
-            } else if (resultLength != uncompressedSize) {
-                throw new DecoderException("Received compressed message claiming to be of size " + uncompressedSize + " but actually " + resultLength);
-            } else {
-                out.add(Unpooled.wrappedBuffer(destData));
+        if (resultLength == 0) {
+            // might be a leftover from before compression was enabled (no compression header)
+            // uncompressedSize is likely to be < threshold
+            dest.release();
+            msg.readerIndex(index);
+            msg.retain();
+            out.add(msg);
+        } else if (resultLength != uncompressedSize) {
+            dest.release();
+            throw new DecoderException("Received compressed message claiming to be of size " + uncompressedSize + " but actually " + resultLength);
+        } else {
+            dest.writerIndex(resultLength);
+            out.add(dest);
+        }
+    }
+
+    /**
+     * Get this thread's deflater for compressing outside of a pipeline.
+     * @param level The deflate level to compress with.
+     * @return The deflater.
+     */
+    static Deflater deflater(int level) {
+        Deflater deflater = deflaters.get();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Get the number of messages compressed on a pool rather than the
+     * event loop.
+     * @return The number of messages compressed on a pool.
+     */
+    public static long getOffloaded() {
+        return offloaded.get();
+    }
+
+    /**
+     * Get the number of bytes of messages compressed on a pool rather than
+     * the event loop, before compression.
+     * @return The number of bytes compressed on a pool.
+     */
+    public static long getOffloadedBytes() {
+        return offloadedBytes.get();
+    }
+
+    /**
+     * Get the number of messages large enough to compress on a pool which
+     * were compressed on the event loop because the pool was full.
+     * @return The number of messages not offloaded to a full pool.
+     */
+    public static long getOffloadsRejected() {
+        return offloadsRejected.get();
+    }
+
+    /**
+     * Get this thread's scratch array, grown to at least the given length.
+     */
+    private static byte[] scratch(int length) {
+        byte[] array = scratch.get();
+        if (array.length < length) {
+            array = new byte[Integer.highestOneBit(length - 1) << 1];
+            scratch.set(array);
+        }
+        return array;
+    }
+
+    /**
+     * A write held up by a message before it being compressed on the pool.
+     */
+    private static final class PendingWrite {
+        private Object msg;
+        private final ChannelPromise promise;
+
+        /**
+         * Whether msg has been compressed, rather than being a message to
+         * pass through the encoder when it is written.
+         */
+        private boolean compressed;
+        private Throwable cause;
+
+        /**
+         * Whether the write is ready to be made. Only used on the event loop.
+         */
+        private boolean done;
+
+        private PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+
+        private void fail(Throwable t) {
+            if (msg != null) {
+                ReferenceCountUtil.release(msg);
+                msg = null;
             }
+            promise.tryFailure(t);
         }
     }
 
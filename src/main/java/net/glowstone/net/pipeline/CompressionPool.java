@@ -0,0 +1,62 @@
+package net.glowstone.net.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads which compress large messages for
+ * {@link CompressionHandler}, so that the event loops are not held up
+ * compressing them.
+ */
+public final class CompressionPool {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a new compression pool.
+     * @param threads The number of compression threads.
+     * @param queueSize The number of messages which may wait for a thread,
+     * beyond which messages are compressed on the event loop instead.
+     */
+    public CompressionPool(int threads, int queueSize) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new CompressionThreadFactory());
+    }
+
+    /**
+     * Submit a compression task to the pool.
+     * @param task The task.
+     * @return True if the task was queued, or false if the pool is full or
+     * shut down and the task must be run by the caller.
+     */
+    boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop the pool once the tasks already submitted have completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class CompressionThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Glowstone-compression-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
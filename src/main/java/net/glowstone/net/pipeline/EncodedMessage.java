@@ -0,0 +1,42 @@
+package net.glowstone.net.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * A message already encoded, compressed and framed, which passes through
+ * the codecs, compression and framing handlers untouched and is only
+ * encrypted for the connection it is written to.
+ */
+public final class EncodedMessage extends DefaultByteBufHolder {
+
+    /**
+     * Creates a new encoded message.
+     * @param data The framed message, which the new message takes ownership of.
+     */
+    public EncodedMessage(ByteBuf data) {
+        super(data);
+    }
+
+    @Override
+    public EncodedMessage copy() {
+        return new EncodedMessage(content().copy());
+    }
+
+    @Override
+    public EncodedMessage duplicate() {
+        return new EncodedMessage(content().duplicate());
+    }
+
+    @Override
+    public EncodedMessage retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public EncodedMessage retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+}
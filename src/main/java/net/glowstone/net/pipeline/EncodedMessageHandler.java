@@ -0,0 +1,26 @@
+package net.glowstone.net.pipeline;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Pipeline component between encryption and framing which unwraps
+ * {@link EncodedMessage}s, so their bytes are encrypted like any other
+ * framed message.
+ */
+@ChannelHandler.Sharable
+public final class EncodedMessageHandler extends MessageToMessageEncoder<EncodedMessage> {
+
+    public static final EncodedMessageHandler INSTANCE = new EncodedMessageHandler();
+
+    private EncodedMessageHandler() {
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, EncodedMessage msg, List<Object> out) throws Exception {
+        out.add(msg.content().retain());
+    }
+}
@@ -0,0 +1,76 @@
+package net.glowstone.net.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound handler at the head of the pipeline which counts the flushes
+ * reaching the socket, each of which costs a write system call, and
+ * flushes early once enough bytes have been written without a flush.
+ */
+public final class FlushHandler extends ChannelOutboundHandlerAdapter {
+
+    private static final AtomicLong flushes = new AtomicLong();
+    private static final AtomicLong flushedBytes = new AtomicLong();
+
+    /**
+     * The number of unflushed bytes after which to flush, or 0 to never
+     * flush early.
+     */
+    private final int threshold;
+
+    /**
+     * The number of bytes written since the last flush.
+     */
+    private int pendingBytes;
+
+    /**
+     * Creates a new flush handler.
+     * @param threshold The number of unflushed bytes after which to flush,
+     * or 0 to only flush when asked.
+     */
+    public FlushHandler(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        }
+        ctx.write(msg, promise);
+        if (threshold > 0 && pendingBytes >= threshold) {
+            flush(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (pendingBytes > 0) {
+            flushes.incrementAndGet();
+            flushedBytes.addAndGet(pendingBytes);
+            pendingBytes = 0;
+        }
+        ctx.flush();
+    }
+
+    /**
+     * Get the number of flushes of written data across all connections.
+     * @return The number of flushes.
+     */
+    public static long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Get the number of bytes flushed across all connections.
+     * @return The number of bytes.
+     */
+    public static long getFlushedBytes() {
+        return flushedBytes.get();
+    }
+}
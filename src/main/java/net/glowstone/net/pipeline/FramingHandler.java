@@ -6,14 +6,36 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Experimental pipeline component.
  */
 public final class FramingHandler extends ByteToMessageCodec<ByteBuf> {
 
+    private static final AtomicLong framedBytes = new AtomicLong();
+
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
+        frame(msg, out);
+        framedBytes.addAndGet(out.readableBytes());
+    }
+
+    /**
+     * Get the number of bytes of messages encoded and framed by each
+     * connection's pipeline, not counting {@link EncodedMessage}s.
+     * @return The number of bytes framed.
+     */
+    public static long getFramedBytes() {
+        return framedBytes.get();
+    }
+
+    /**
+     * Write a message prefixed with its length, as this handler does.
+     * @param msg The message.
+     * @param out The buffer to write the framed message to.
+     */
+    static void frame(ByteBuf msg, ByteBuf out) {
         ByteBufUtils.writeVarInt(out, msg.readableBytes());
         out.writeBytes(msg);
     }
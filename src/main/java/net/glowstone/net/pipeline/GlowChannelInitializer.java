@@ -38,7 +38,9 @@ public final class GlowChannelInitializer extends ChannelInitializer<SocketChann
         FramingHandler framing = new FramingHandler();
 
         c.pipeline()
+                .addLast("flush", NoopHandler.INSTANCE)
                 .addLast("encryption", NoopHandler.INSTANCE)
+                .addLast("encoded", EncodedMessageHandler.INSTANCE)
                 .addLast("framing", framing)
                 .addLast("compression", NoopHandler.INSTANCE)
                 .addLast("codecs", codecs)
@@ -0,0 +1,45 @@
+package net.glowstone.net.pipeline;
+
+import com.flowpowered.networking.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import net.glowstone.net.protocol.GlowProtocol;
+
+/**
+ * Encodes, compresses and frames messages outside of a pipeline, producing
+ * the same bytes as the codecs, compression and framing handlers.
+ */
+public final class MessageEncoder {
+
+    private MessageEncoder() {
+    }
+
+    /**
+     * Encode a message for connections using the given protocol and
+     * compression threshold.
+     * @param alloc The allocator for the encoded message.
+     * @param protocol The protocol to encode the message with.
+     * @param msg The message.
+     * @param threshold The compression threshold, or -1 if compression is
+     * not enabled.
+     * @param level The deflate level to compress with.
+     * @return The encoded message, ready to be written to any connection in
+     * the same state.
+     * @throws Exception if the message could not be encoded.
+     */
+    public static EncodedMessage encode(ByteBufAllocator alloc, GlowProtocol protocol, Message msg, int threshold, int level) throws Exception {
+        ByteBuf encoded = CodecsHandler.encode(alloc, protocol, msg);
+        try {
+            if (threshold >= 0) {
+                ByteBuf compressed = CompressionHandler.compress(alloc, encoded, threshold, CompressionHandler.deflater(level));
+                encoded.release();
+                encoded = compressed;
+            }
+            ByteBuf framed = alloc.buffer(encoded.readableBytes() + 5);
+            FramingHandler.frame(encoded, framed);
+            return new EncodedMessage(framed);
+        } finally {
+            encoded.release();
+        }
+    }
+}
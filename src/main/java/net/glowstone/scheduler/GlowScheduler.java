@@ -210,6 +210,9 @@ public final class GlowScheduler implements BukkitScheduler {
             Thread.currentThread().interrupt();
         }
 
+        // send everything the tick wrote to each player at once
+        server.getSessionRegistry().flush();
+
     }
 
     @Override
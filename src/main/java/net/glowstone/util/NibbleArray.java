@@ -10,10 +10,24 @@ import java.util.Arrays;
  * and the odd indices in the most significant bits.
  *
  * For example, [1 5 8 15] is stored as [0x51 0xf8].
+ *
+ * Arrays of chunk section size which are entirely 0 or entirely 15 share a
+ * single immutable buffer until they are first written to.
  */
 public final class NibbleArray {
 
-    private final byte[] data;
+    /**
+     * The byte size of the shared buffers, that of a chunk section.
+     */
+    private static final int SHARED_SIZE = 2048;
+    private static final byte[] ALL_ZERO = new byte[SHARED_SIZE];
+    private static final byte[] ALL_FIFTEEN = new byte[SHARED_SIZE];
+
+    static {
+        Arrays.fill(ALL_FIFTEEN, (byte) 0xff);
+    }
+
+    private byte[] data;
 
     /**
      * Construct a new NibbleArray with the given size in nibbles.
@@ -22,7 +36,7 @@ public final class NibbleArray {
      */
     public NibbleArray(int size) {
         Validate.isTrue(size > 0 && size % 2 == 0, "size must be positive even number, not " + size);
-        data = new byte[size / 2];
+        data = size / 2 == SHARED_SIZE ? ALL_ZERO : new byte[size / 2];
     }
 
     /**
@@ -34,6 +48,29 @@ public final class NibbleArray {
         this.data = data;
     }
 
+    /**
+     * Construct a new NibbleArray holding the given bytes, sharing a
+     * constant buffer instead if they are all 0 or all 15. The bytes may be
+     * used without a copy and should not be modified afterwards.
+     * @param data The raw data to use.
+     * @return The NibbleArray.
+     */
+    public static NibbleArray compact(byte[] data) {
+        if (data.length == SHARED_SIZE) {
+            byte first = data[0];
+            if (first == 0 || first == (byte) 0xff) {
+                int i = 1;
+                while (i < data.length && data[i] == first) {
+                    i++;
+                }
+                if (i == data.length) {
+                    return new NibbleArray(first == 0 ? ALL_ZERO : ALL_FIFTEEN);
+                }
+            }
+        }
+        return new NibbleArray(data);
+    }
+
     /**
      * Get the size in nibbles.
      * @return The size in nibbles.
@@ -71,6 +108,12 @@ public final class NibbleArray {
      */
     public void set(int index, byte value) {
         value &= 0xf;
+        if (isShared()) {
+            if (get(index) == value) {
+                return;
+            }
+            data = data.clone();
+        }
         int half = index / 2;
         byte previous = data[half];
         if (index % 2 == 0) {
@@ -86,18 +129,57 @@ public final class NibbleArray {
      */
     public void fill(byte value) {
         value &= 0xf;
-        Arrays.fill(data, (byte) ((value << 4) | value));
+        if (data.length == SHARED_SIZE && (value == 0 || value == 0xf)) {
+            data = value == 0 ? ALL_ZERO : ALL_FIFTEEN;
+        } else {
+            if (isShared()) {
+                data = new byte[data.length];
+            }
+            Arrays.fill(data, (byte) ((value << 4) | value));
+        }
+    }
+
+    /**
+     * Check whether this nibble array is currently backed by a shared
+     * constant buffer, and so uses no memory of its own.
+     * @return True if the array is uniformly 0 or 15 and unmodified.
+     */
+    public boolean isShared() {
+        return data == ALL_ZERO || data == ALL_FIFTEEN;
     }
 
     /**
      * Get the raw bytes of this nibble array. Modifying the returned array
-     * will modify the internal representation of this nibble array.
+     * will modify the internal representation of this nibble array. A
+     * shared buffer is copied first, so prefer {@link #getRawDataReadOnly}
+     * or {@link #copyRawData} when only reading.
      * @return The raw bytes.
      */
     public byte[] getRawData() {
+        if (isShared()) {
+            data = data.clone();
+        }
         return data;
     }
 
+    /**
+     * Get the raw bytes of this nibble array without copying a shared
+     * buffer. The returned array must not be modified.
+     * @return The raw bytes.
+     */
+    public byte[] getRawDataReadOnly() {
+        return data;
+    }
+
+    /**
+     * Copy the raw bytes of this nibble array into the given array.
+     * @param dest The array to copy into.
+     * @param offset The position in dest to start at.
+     */
+    public void copyRawData(byte[] dest, int offset) {
+        System.arraycopy(data, 0, dest, offset, data.length);
+    }
+
     /**
      * Copies into the raw bytes of this nibble array from the given source.
      * @param source The array to copy from.
@@ -105,6 +187,9 @@ public final class NibbleArray {
      */
     public void setRawData(byte[] source) {
         Validate.isTrue(source.length == data.length, "expected byte array of length " + data.length + ", not " + source.length);
+        if (isShared()) {
+            data = new byte[data.length];
+        }
         System.arraycopy(source, 0, data, 0, source.length);
     }
 
@@ -113,6 +198,6 @@ public final class NibbleArray {
      * @return The snapshot NibbleArray.
      */
     public NibbleArray snapshot() {
-        return new NibbleArray(data.clone());
+        return new NibbleArray(isShared() ? data : data.clone());
     }
 }
@@ -0,0 +1,314 @@
+package net.glowstone.util;
+
+import org.apache.commons.lang.Validate;
+
+import java.util.Arrays;
+
+/**
+ * An array of 16-bit values stored as indices into a palette of the
+ * distinct values present, bit-packed into longs.
+ *
+ * The number of bits per index grows (1, 2, 4 or 8) as values are added.
+ * An array holding a single value stores no indices at all, and an array
+ * with more than 256 distinct values falls back to a plain char array.
+ */
+public final class PalettedArray {
+
+    /**
+     * The largest number of bits per index before switching to direct
+     * storage.
+     */
+    private static final int MAX_PALETTE_BITS = 8;
+
+    /**
+     * Approximate per-object overhead used when estimating memory use.
+     */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    private final int size;
+
+    /**
+     * The current storage. Replaced as a whole, once fully built, whenever
+     * the layout changes, so a reader on another thread never sees a layout
+     * half built. Single writes within a layout are no more visible to
+     * other threads than writes to a plain array would be.
+     */
+    private volatile Storage storage;
+
+    /**
+     * Construct a new PalettedArray of the given size filled with zeros.
+     * @param size The number of entries.
+     */
+    public PalettedArray(int size) {
+        Validate.isTrue(size > 0 && (size & 63) == 0, "size must be a positive multiple of 64, not " + size);
+        this.size = size;
+        storage = new Storage(0, new char[1], 1, null, null);
+    }
+
+    /**
+     * Construct a new PalettedArray holding the given values. The array is
+     * copied if direct storage is needed.
+     * @param values The values.
+     */
+    public PalettedArray(char[] values) {
+        Validate.isTrue(values.length > 0 && (values.length & 63) == 0, "size must be a positive multiple of 64, not " + values.length);
+        size = values.length;
+        storage = pack(values);
+    }
+
+    /**
+     * Get the number of entries.
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the value at the given index.
+     * @param index The index.
+     * @return The value.
+     */
+    public char get(int index) {
+        Storage s = storage;
+        if (s.direct != null) {
+            return s.direct[index];
+        }
+        if (s.bits == 0) {
+            return s.palette[0];
+        }
+        return s.palette[s.index(index)];
+    }
+
+    /**
+     * Set the value at the given index.
+     * @param index The index.
+     * @param value The new value.
+     */
+    public void set(int index, char value) {
+        Storage s = storage;
+        if (s.direct != null) {
+            s.direct[index] = value;
+            return;
+        }
+
+        int id = s.find(value);
+        if (id < 0) {
+            if (s.paletteSize == s.palette.length) {
+                s = grow(index, value);
+                if (s.direct != null) {
+                    s.direct[index] = value;
+                    return;
+                }
+                id = s.find(value);
+            }
+            if (id < 0) {
+                id = s.paletteSize;
+                s.palette[id] = value;
+                s.paletteSize++;
+            }
+        }
+        if (s.bits != 0) {
+            s.setIndex(index, id);
+        }
+    }
+
+    /**
+     * Copy all values into the given array.
+     * @param out The array to copy into, at least {@link #size()} long.
+     */
+    public void getAll(char[] out) {
+        Storage s = storage;
+        if (s.direct != null) {
+            System.arraycopy(s.direct, 0, out, 0, size);
+        } else if (s.bits == 0) {
+            Arrays.fill(out, 0, size, s.palette[0]);
+        } else {
+            for (int i = 0; i < size; ++i) {
+                out[i] = s.palette[s.index(i)];
+            }
+        }
+    }
+
+    /**
+     * Get a copy of all values.
+     * @return The values.
+     */
+    public char[] toArray() {
+        char[] result = new char[size];
+        getAll(result);
+        return result;
+    }
+
+    /**
+     * Count the entries which are not zero.
+     * @return The number of nonzero entries.
+     */
+    public int countNonZero() {
+        Storage s = storage;
+        if (s.direct == null && s.bits == 0) {
+            return s.palette[0] == 0 ? 0 : size;
+        }
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            if (get(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check whether every entry has the same value.
+     * @return True if the array holds a single value.
+     */
+    public boolean isUniform() {
+        Storage s = storage;
+        return s.direct == null && s.bits == 0;
+    }
+
+    /**
+     * Get the number of bits used per entry: 0 for a single value, the
+     * palette index width, or 16 for direct storage.
+     * @return The bits per entry.
+     */
+    public int getBitsPerEntry() {
+        Storage s = storage;
+        return s.direct != null ? 16 : s.bits;
+    }
+
+    /**
+     * Estimate the memory used by this array, in bytes.
+     * @return The approximate memory use.
+     */
+    public int getMemoryUsage() {
+        Storage s = storage;
+        int bytes = 2 * OBJECT_OVERHEAD;
+        if (s.direct != null) {
+            return bytes + OBJECT_OVERHEAD + 2 * s.direct.length;
+        }
+        bytes += OBJECT_OVERHEAD + 2 * s.palette.length;
+        if (s.packed != null) {
+            bytes += OBJECT_OVERHEAD + 8 * s.packed.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Take a snapshot of this PalettedArray which will not reflect changes.
+     * The snapshot's palette only contains values which are in use.
+     * @return The snapshot.
+     */
+    public PalettedArray snapshot() {
+        return new PalettedArray(toArray());
+    }
+
+    /**
+     * Make room in the palette for a new value, by dropping unused values
+     * or by widening the indices. The new storage is only published once
+     * it has been filled.
+     */
+    private Storage grow(int index, char value) {
+        char[] values = toArray();
+        values[index] = value;
+        Storage s = pack(values);
+        storage = s;
+        return s;
+    }
+
+    /**
+     * Build the most compact storage for the given values.
+     */
+    private static Storage pack(char[] values) {
+        char[] palette = new char[1 << MAX_PALETTE_BITS];
+        int paletteSize = 0;
+        int last = -1;
+        for (char value : values) {
+            if (value == last) {
+                continue;
+            }
+            last = value;
+            if (indexOf(palette, paletteSize, value) < 0) {
+                if (paletteSize == palette.length) {
+                    return new Storage(16, null, 0, null, values.clone());
+                }
+                palette[paletteSize++] = value;
+            }
+        }
+
+        if (paletteSize == 1) {
+            return new Storage(0, new char[] {palette[0]}, 1, null, null);
+        }
+
+        int bits = 1;
+        while ((1 << bits) < paletteSize) {
+            bits <<= 1;
+        }
+        // leave room for a value to be added without repacking
+        if ((1 << bits) == paletteSize && bits < MAX_PALETTE_BITS) {
+            bits <<= 1;
+        }
+        char[] sized = new char[1 << bits];
+        System.arraycopy(palette, 0, sized, 0, paletteSize);
+        Storage s = new Storage(bits, sized, paletteSize, new long[values.length * bits / 64], null);
+        for (int i = 0; i < values.length; ++i) {
+            s.setIndex(i, indexOf(sized, paletteSize, values[i]));
+        }
+        return s;
+    }
+
+    private static int indexOf(char[] palette, int paletteSize, char value) {
+        for (int i = 0; i < paletteSize; ++i) {
+            if (palette[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One layout of the array's contents.
+     */
+    private static final class Storage {
+        /**
+         * Bits per palette index: 0 (single value) or 1, 2, 4 or 8.
+         */
+        private final int bits;
+        private final char[] palette;
+        private int paletteSize;
+        private final long[] packed;
+        private final char[] direct;
+
+        /**
+         * log2 of the number of indices per long, and the index mask.
+         */
+        private final int perLongShift;
+        private final int mask;
+
+        private Storage(int bits, char[] palette, int paletteSize, long[] packed, char[] direct) {
+            this.bits = bits;
+            this.palette = palette;
+            this.paletteSize = paletteSize;
+            this.packed = packed;
+            this.direct = direct;
+            perLongShift = bits == 0 ? 0 : Integer.numberOfTrailingZeros(64 / bits);
+            mask = (1 << bits) - 1;
+        }
+
+        private int find(char value) {
+            return indexOf(palette, paletteSize, value);
+        }
+
+        private int index(int i) {
+            long word = packed[i >> perLongShift];
+            int shift = (i & ((1 << perLongShift) - 1)) * bits;
+            return (int) (word >>> shift) & mask;
+        }
+
+        private void setIndex(int i, int id) {
+            int word = i >> perLongShift;
+            int shift = (i & ((1 << perLongShift) - 1)) * bits;
+            packed[word] = (packed[word] & ~((long) mask << shift)) | ((long) id << shift);
+        }
+    }
+}
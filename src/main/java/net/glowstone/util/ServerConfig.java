@@ -369,7 +369,24 @@ public final class ServerConfig {
         PLUGIN_PROFILING("advanced.plugin-profiling", false, Migrate.BUKKIT, "settings.plugin-profiling"),
         WARNING_STATE("advanced.deprecated-verbose", "false", Migrate.BUKKIT, "settings.deprecated-verbose"),
         COMPRESSION_THRESHOLD("advanced.compression-threshold", 256, Migrate.PROPS, "network-compression-threshold"),
+        COMPRESSION_LEVEL("advanced.compression-level", -1),
+        COMPRESSION_THREADS("advanced.compression-threads", 2),
+        COMPRESSION_OFFLOAD_SIZE("advanced.compression-offload-size", 65536),
         PROXY_SUPPORT("advanced.proxy-support", false),
+        INBOUND_QUEUE_SIZE("advanced.inbound-queue-size", 1024),
+        FLUSH_COALESCING("advanced.flush-coalescing", true),
+        FLUSH_THRESHOLD("advanced.flush-threshold", 32768),
+        CHUNK_LOAD_THREADS("advanced.chunk-load-threads", 2),
+        UNLOADED_CHUNK_CACHE("advanced.unloaded-chunk-cache", 128),
+        CHUNK_UNLOADS_PER_TICK("advanced.chunk-unloads-per-tick", 10),
+        CHUNK_UNLOAD_MILLIS_PER_TICK("advanced.chunk-unload-millis-per-tick", 5),
+        CHUNK_UNLOAD_DELAY("advanced.chunk-unload-delay", 600),
+        ENTITY_AUTOSAVE_INTERVAL("advanced.entity-autosave-interval", 1),
+        REGION_IO_THREADS("advanced.region-io-threads", 2),
+        REGION_FILE_CACHE_SIZE("advanced.region-file-cache-size", 256),
+        REGION_FILE_MMAP("advanced.region-file-mmap", false),
+        REGION_COMPRESSION_LEVEL("advanced.region-compression-level", 1),
+        REGION_SYNC_INTERVAL("advanced.region-sync-interval", 0),
 
         // query rcon etc
         QUERY_ENABLED("extras.query-enabled", false, Migrate.PROPS, "enable-query"),
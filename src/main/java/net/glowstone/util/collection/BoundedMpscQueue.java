@@ -0,0 +1,111 @@
+package net.glowstone.util.collection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free queue of bounded size, for any number of producer threads and
+ * a single consumer thread. Elements are stored in a ring buffer which is
+ * allocated once, so neither adding nor polling allocates.
+ * <p>
+ * Producers claim a slot by advancing the producer index, then publish the
+ * element into it. Until a claimed element is published, {@link #poll}
+ * returns null rather than waiting for it. Null elements are not allowed.
+ */
+public final class BoundedMpscQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+
+    /**
+     * The index of the next slot to be claimed by a producer.
+     */
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    /**
+     * The index of the next slot to be polled by the consumer. Only written
+     * by the consumer.
+     */
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * Create a new queue.
+     * @param capacity The most elements the queue can hold.
+     */
+    public BoundedMpscQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity) {
+            length <<= 1;
+        }
+        buffer = new AtomicReferenceArray<>(length);
+        mask = length - 1;
+    }
+
+    /**
+     * Add an element to the queue, if it is not full. May be called from
+     * any thread.
+     * @param element The element.
+     * @return True if the element was added, false if the queue was full.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        while (true) {
+            long index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) index & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove the element at the head of the queue. Must only be called from
+     * the consumer thread.
+     * @return The element, or null if there is no published element.
+     */
+    public E poll() {
+        long index = consumerIndex.get();
+        int slot = (int) index & mask;
+        E element = buffer.get(slot);
+        if (element == null) {
+            return null;
+        }
+        buffer.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return element;
+    }
+
+    /**
+     * Get the number of elements in the queue, including those claimed but
+     * not yet published.
+     * @return The number of elements.
+     */
+    public int size() {
+        // read the consumer index first so the difference is never negative
+        long consumer = consumerIndex.get();
+        long producer = producerIndex.get();
+        return (int) Math.min(producer - consumer, capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get the most elements the queue can hold.
+     * @return The capacity.
+     */
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,322 @@
+package net.glowstone.util.collection;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent hash map from primitive {@code long} keys to objects, using
+ * open addressing with linear probing. Lookups are lock-free and allocate
+ * nothing, while modifications are serialized on the map itself.
+ * <p>
+ * Iteration is weakly consistent, like that of
+ * {@link java.util.concurrent.ConcurrentHashMap}. Null values are not allowed.
+ */
+public final class ConcurrentLongObjectMap<V> implements Iterable<ConcurrentLongObjectMap.Entry<V>> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Marker left in a slot whose entry has been removed, so that probing
+     * continues past it.
+     */
+    private static final Entry<Object> TOMBSTONE = new Entry<>(0, null);
+
+    /**
+     * The slots of the map. Replaced as a whole when the map is resized.
+     */
+    private volatile AtomicReferenceArray<Entry<V>> table;
+
+    /**
+     * The number of live entries.
+     */
+    private volatile int size;
+
+    /**
+     * The number of slots which are not null, including tombstones.
+     */
+    private int used;
+
+    public ConcurrentLongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create a new map with room for at least the given number of entries
+     * before it needs to be resized.
+     * @param expectedSize The expected number of entries.
+     */
+    public ConcurrentLongObjectMap(int expectedSize) {
+        table = new AtomicReferenceArray<>(capacityFor(expectedSize));
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Lookups
+
+    /**
+     * Get the value mapped to the given key.
+     * @param key The key.
+     * @return The value, or null if there is none.
+     */
+    public V get(long key) {
+        AtomicReferenceArray<Entry<V>> tab = table;
+        int mask = tab.length() - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Entry<V> entry = tab.get(i);
+            if (entry == null) {
+                return null;
+            } else if (entry != TOMBSTONE && entry.key == key) {
+                return entry.value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Modification
+
+    /**
+     * Map the given key to the given value.
+     * @param key The key.
+     * @param value The value.
+     * @return The previous value, or null if there was none.
+     */
+    public synchronized V put(long key, V value) {
+        return insert(key, value, false);
+    }
+
+    /**
+     * Map the given key to the given value if it has no value yet.
+     * @param key The key.
+     * @param value The value.
+     * @return The existing value, or null if the value was inserted.
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        return insert(key, value, true);
+    }
+
+    /**
+     * Remove the mapping for the given key.
+     * @param key The key.
+     * @return The removed value, or null if there was none.
+     */
+    public synchronized V remove(long key) {
+        AtomicReferenceArray<Entry<V>> tab = table;
+        int slot = find(tab, key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = tab.get(slot).value;
+        clear(tab, slot);
+        return previous;
+    }
+
+    /**
+     * Remove the mapping for the given key only if it maps to the given value.
+     * @param key The key.
+     * @param value The expected value.
+     * @return Whether the mapping was removed.
+     */
+    public synchronized boolean remove(long key, V value) {
+        AtomicReferenceArray<Entry<V>> tab = table;
+        int slot = find(tab, key);
+        if (slot < 0 || tab.get(slot).value != value) {
+            return false;
+        }
+        clear(tab, slot);
+        return true;
+    }
+
+    /**
+     * Remove all mappings.
+     */
+    public synchronized void clear() {
+        table = new AtomicReferenceArray<>(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Iteration
+
+    /**
+     * Iterate over the entries of the map. Entries are immutable snapshots of
+     * a single mapping and do not support modification.
+     */
+    @Override
+    public Iterator<Entry<V>> iterator() {
+        final AtomicReferenceArray<Entry<V>> tab = table;
+        return new Iterator<Entry<V>>() {
+            private int index = -1;
+            private Entry<V> next = advance();
+
+            private Entry<V> advance() {
+                while (++index < tab.length()) {
+                    Entry<V> entry = tab.get(index);
+                    if (entry != null && entry != TOMBSTONE) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<V> result = next;
+                next = advance();
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Internals
+
+    private V insert(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        AtomicReferenceArray<Entry<V>> tab = table;
+        int mask = tab.length() - 1;
+        int free = -1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Entry<V> entry = tab.get(i);
+            if (entry == null) {
+                break;
+            } else if (entry == TOMBSTONE) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (entry.key == key) {
+                if (!onlyIfAbsent) {
+                    tab.set(i, new Entry<>(key, value));
+                }
+                return entry.value;
+            }
+        }
+
+        if (free < 0) {
+            // claiming an empty slot rather than a tombstone - grow if needed
+            if ((used + 1) * 2 > tab.length()) {
+                tab = rehash(capacityFor(size + 1));
+            }
+            free = probeEmpty(tab, key);
+            used++;
+        }
+        tab.set(free, new Entry<>(key, value));
+        size++;
+        return null;
+    }
+
+    private int find(AtomicReferenceArray<Entry<V>> tab, long key) {
+        int mask = tab.length() - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Entry<V> entry = tab.get(i);
+            if (entry == null) {
+                return -1;
+            } else if (entry != TOMBSTONE && entry.key == key) {
+                return i;
+            }
+        }
+    }
+
+    private static <V> int probeEmpty(AtomicReferenceArray<Entry<V>> tab, long key) {
+        int mask = tab.length() - 1;
+        int i = hash(key) & mask;
+        while (tab.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void clear(AtomicReferenceArray<Entry<V>> tab, int slot) {
+        tab.set(slot, (Entry<V>) TOMBSTONE);
+        size--;
+    }
+
+    /**
+     * Copy the live entries into a new table, dropping tombstones.
+     */
+    private AtomicReferenceArray<Entry<V>> rehash(int capacity) {
+        AtomicReferenceArray<Entry<V>> old = table;
+        AtomicReferenceArray<Entry<V>> tab = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < old.length(); ++i) {
+            Entry<V> entry = old.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                tab.set(probeEmpty(tab, entry.key), entry);
+            }
+        }
+        used = size;
+        table = tab;
+        return tab;
+    }
+
+    /**
+     * Get a table size which keeps the load factor at or below one quarter,
+     * leaving room to grow before the next resize.
+     */
+    private static int capacityFor(int entries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < entries * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spread the bits of a key, since packed coordinates are clustered.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * A single immutable mapping in the map.
+     */
+    public static final class Entry<V> {
+        private final long key;
+        private final V value;
+
+        private Entry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+    }
+}
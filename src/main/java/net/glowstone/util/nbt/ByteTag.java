@@ -19,6 +19,30 @@ final class ByteTag extends Tag<Byte> {
         this.value = value;
     }
 
+    /**
+     * Shared tags for every byte value.
+     */
+    private static final ByteTag[] cache = new ByteTag[256];
+
+    static {
+        for (int i = 0; i < cache.length; ++i) {
+            cache[i] = new ByteTag((byte) i);
+        }
+    }
+
+    /**
+     * Get a shared tag for a value.
+     * @param value The value.
+     * @return The tag.
+     */
+    static ByteTag valueOf(byte value) {
+        return cache[value & 0xff];
+    }
+
+    byte byteValue() {
+        return value;
+    }
+
     @Override
     public Byte getValue() {
         return value;
@@ -1,7 +1,10 @@
 package net.glowstone.util.nbt;
 
+import io.netty.buffer.ByteBuf;
 import org.apache.commons.lang.Validate;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.*;
 
@@ -13,7 +16,16 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
     /**
      * The value.
      */
-    private final Map<String, Tag> value = new LinkedHashMap<>();
+    private final Map<String, Tag> value = new TagMap();
+
+    /**
+     * The encoded payload of a lazily read compound. The entries are decoded
+     * from it on first access, and it is kept until the compound is modified
+     * so that it can be written back as it is.
+     */
+    private byte[] raw;
+    private int rawOffset, rawLength;
+    private boolean decoded = true;
 
     /**
      * Creates a new, empty CompoundTag.
@@ -22,13 +34,35 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
         super(TagType.COMPOUND);
     }
 
+    /**
+     * Creates a tag which decodes its entries from a lazily read payload
+     * when they are first accessed.
+     * @param raw The buffer holding the payload.
+     * @param offset The offset of the payload.
+     * @param length The length of the payload, including its end tag.
+     */
+    CompoundTag(byte[] raw, int offset, int length) {
+        super(TagType.COMPOUND);
+        this.raw = raw;
+        rawOffset = offset;
+        rawLength = length;
+        decoded = false;
+    }
+
     @Override
     public Map<String, Tag> getValue() {
-        return value;
+        // the map may be changed by the caller
+        return modified();
+    }
+
+    @Override
+    Map<String, Tag> readValue() {
+        return entries();
     }
 
     @Override
     protected void valueToString(StringBuilder bldr) {
+        Map<String, Tag> value = entries();
         bldr.append(value.size()).append(" entries\n{\n");
         for (Map.Entry<String, Tag> entry : value.entrySet()) {
             bldr.append("    ").append(entry.getKey()).append(": ").append(entry.getValue().toString().replaceAll("\n", "\n    ")).append("\n");
@@ -40,7 +74,7 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
     // Helper stuff
 
     public boolean isEmpty() {
-        return value.isEmpty();
+        return entries().isEmpty();
     }
 
     /**
@@ -49,45 +83,47 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
      * @return True if the key is in the map.
      */
     public boolean containsKey(String key) {
-        return value.containsKey(key);
+        return entries().containsKey(key);
     }
 
     public void remove(String key) {
-        value.remove(key);
+        modified().remove(key);
     }
 
     ////////////////////////////////////////////////////////////////////////////
     // Simple gets
 
     public boolean getBool(String key) {
-        return get(key, ByteTag.class) != 0;
+        return getByte(key) != 0;
     }
 
     public byte getByte(String key) {
-        return get(key, ByteTag.class);
+        return getTag(key, ByteTag.class).byteValue();
     }
 
     public short getShort(String key) {
-        return get(key, ShortTag.class);
+        return getTag(key, ShortTag.class).shortValue();
     }
 
     public int getInt(String key) {
-        return get(key, IntTag.class);
+        return getTag(key, IntTag.class).intValue();
     }
 
     public long getLong(String key) {
-        return get(key, LongTag.class);
+        return getTag(key, LongTag.class).longValue();
     }
 
     public float getFloat(String key) {
-        return get(key, FloatTag.class);
+        return getTag(key, FloatTag.class).floatValue();
     }
 
     public double getDouble(String key) {
-        return get(key, DoubleTag.class);
+        return getTag(key, DoubleTag.class).doubleValue();
     }
 
     public byte[] getByteArray(String key) {
+        // the array may be changed by the caller
+        modified();
         return get(key, ByteArrayTag.class);
     }
 
@@ -96,6 +132,8 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
     }
 
     public int[] getIntArray(String key) {
+        // the array may be changed by the caller
+        modified();
         return get(key, IntArrayTag.class);
     }
 
@@ -104,7 +142,9 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
 
     @SuppressWarnings("unchecked")
     public <V> List<V> getList(String key, TagType type) {
-        List<? extends Tag> original = getTagList(key, type);
+        // the list itself is copied, but values which are arrays, lists or
+        // compounds may be changed by the caller
+        List<? extends Tag> original = getTagList(key, type, !isImmutable(type));
         List<V> result = new ArrayList<>(original.size());
         for (Tag item : original) {
             result.add((V) item.getValue());
@@ -118,7 +158,8 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
 
     @SuppressWarnings("unchecked")
     public List<CompoundTag> getCompoundList(String key) {
-        return (List<CompoundTag>) getTagList(key, TagType.COMPOUND);
+        // the list may be changed by the caller
+        return (List<CompoundTag>) getTagList(key, TagType.COMPOUND, true);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -181,15 +222,15 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
     }
 
     public void putByte(String key, int value) {
-        put(key, new ByteTag((byte) value));
+        put(key, ByteTag.valueOf((byte) value));
     }
 
     public void putShort(String key, int value) {
-        put(key, new ShortTag((short) value));
+        put(key, ShortTag.valueOf((short) value));
     }
 
     public void putInt(String key, int value) {
-        put(key, new IntTag(value));
+        put(key, IntTag.valueOf(value));
     }
 
     public void putLong(String key, long value) {
@@ -245,15 +286,14 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
     // Accessor helpers
 
     private <T extends Tag<?>> boolean is(String key, Class<T> clazz) {
-        if (!containsKey(key)) return false;
-        final Tag tag = value.get(key);
+        final Tag tag = entries().get(key);
         return tag != null && clazz == tag.getClass();
     }
 
     void put(String key, Tag tag) {
         Validate.notNull(key, "Key cannot be null");
         Validate.notNull(tag, "Tag cannot be null");
-        value.put(key, tag);
+        modified().put(key, tag);
     }
 
     private <V, T extends Tag<V>> V get(String key, Class<T> clazz) {
@@ -262,22 +302,118 @@ public final class CompoundTag extends Tag<Map<String, Tag>> {
 
     @SuppressWarnings("unchecked")
     private <T extends Tag<?>> T getTag(String key, Class<T> clazz) {
-        if (!is(key, clazz)) {
+        final Tag tag = entries().get(key);
+        if (tag == null || clazz != tag.getClass()) {
             throw new IllegalArgumentException("Compound does not contain " + clazz.getSimpleName() + " \"" + key + "\"");
         }
-        return (T) value.get(key);
+        return (T) tag;
     }
 
-    private List<? extends Tag> getTagList(String key, TagType type) {
+    /**
+     * @param exposed Whether the list or its elements will be handed to the
+     * caller, who may change them.
+     */
+    private List<? extends Tag> getTagList(String key, TagType type, boolean exposed) {
         ListTag<?> tag = getTag(key, ListTag.class);
-        if (tag.getValue().size() == 0) {
+        List<? extends Tag> elements = exposed ? tag.getValue() : tag.readValue();
+        if (elements.isEmpty()) {
             // empty lists are allowed to be the wrong type
             return Arrays.asList();
         }
         if (tag.getChildType() != type) {
             throw new IllegalArgumentException("List \"" + key + "\" contains " + tag.getChildType() + ", not " + type);
         }
-        return tag.getValue();
+        return elements;
+    }
+
+    /**
+     * Check whether the values of a tag type can't be changed in place.
+     */
+    private static boolean isImmutable(TagType type) {
+        switch (type) {
+            case BYTE_ARRAY:
+            case INT_ARRAY:
+            case LIST:
+            case COMPOUND:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Lazy reading
+
+    /**
+     * Get the entries, decoding them if this compound was read lazily.
+     */
+    private Map<String, Tag> entries() {
+        if (!decoded) {
+            NBTLazyDecoder.decodeCompound(raw, rawOffset, rawLength, value);
+            decoded = true;
+        }
+        return value;
+    }
+
+    /**
+     * Get the entries for a change, after which the lazily read payload no
+     * longer matches them.
+     */
+    private Map<String, Tag> modified() {
+        Map<String, Tag> result = entries();
+        raw = null;
+        return result;
+    }
+
+    /**
+     * Check whether this compound was read lazily and neither it nor any of
+     * its nested compounds and lists have been modified since.
+     * @return Whether the lazily read payload is still valid.
+     */
+    boolean isUnmodified() {
+        if (raw == null) {
+            return false;
+        }
+        if (decoded) {
+            for (Tag tag : value.values()) {
+                if (tag instanceof CompoundTag && !((CompoundTag) tag).isUnmodified()) {
+                    return false;
+                }
+                if (tag instanceof ListTag && !((ListTag) tag).hasRaw()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the payload this compound was lazily read from, if it is still
+     * valid.
+     * @param out The output to write to.
+     * @return Whether the payload was written.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean writeRaw(DataOutput out) throws IOException {
+        if (!isUnmodified()) {
+            return false;
+        }
+        out.write(raw, rawOffset, rawLength);
+        return true;
+    }
+
+    /**
+     * Write the payload this compound was lazily read from, if it is still
+     * valid.
+     * @param buf The buffer to write to.
+     * @return Whether the payload was written.
+     */
+    boolean writeRaw(ByteBuf buf) {
+        if (!isUnmodified()) {
+            return false;
+        }
+        buf.writeBytes(raw, rawOffset, rawLength);
+        return true;
     }
 }
 
@@ -19,6 +19,10 @@ final class DoubleTag extends Tag<Double> {
         this.value = value;
     }
 
+    double doubleValue() {
+        return value;
+    }
+
     @Override
     public Double getValue() {
         return value;
@@ -19,6 +19,10 @@ final class FloatTag extends Tag<Float> {
         this.value = value;
     }
 
+    float floatValue() {
+        return value;
+    }
+
     @Override
     public Float getValue() {
         return value;
@@ -19,6 +19,34 @@ final class IntTag extends Tag<Integer> {
         this.value = value;
     }
 
+    /**
+     * Shared tags for small values, such as counts and coordinates.
+     */
+    private static final int CACHE_LOW = -128, CACHE_HIGH = 1023;
+    private static final IntTag[] cache = new IntTag[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < cache.length; ++i) {
+            cache[i] = new IntTag((int) (i + CACHE_LOW));
+        }
+    }
+
+    /**
+     * Get a tag for a value, which is shared if the value is small.
+     * @param value The value.
+     * @return The tag.
+     */
+    static IntTag valueOf(int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return cache[value - CACHE_LOW];
+        }
+        return new IntTag(value);
+    }
+
+    int intValue() {
+        return value;
+    }
+
     @Override
     public Integer getValue() {
         return value;
@@ -1,5 +1,9 @@
 package net.glowstone.util.nbt;
 
+import io.netty.buffer.ByteBuf;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,9 +18,16 @@ final class ListTag<T extends Tag> extends Tag<List<T>> {
     private final TagType type;
 
     /**
-     * The value.
+     * The value, or null until a lazily read list is decoded.
+     */
+    private List<T> value;
+
+    /**
+     * The encoded payload of a lazily read list, kept until its elements
+     * are exposed through {@link #getValue()}.
      */
-    private final List<T> value;
+    private byte[] raw;
+    private int rawOffset, rawLength;
 
     /**
      * Creates the tag.
@@ -36,6 +47,23 @@ final class ListTag<T extends Tag> extends Tag<List<T>> {
         }
     }
 
+    /**
+     * Creates a tag which decodes its elements from a lazily read payload
+     * when they are first accessed.
+     * @param type The type of item in the list.
+     * @param raw The buffer holding the payload.
+     * @param offset The offset of the payload.
+     * @param length The length of the payload, including its element type
+     * and count.
+     */
+    ListTag(TagType type, byte[] raw, int offset, int length) {
+        super(TagType.LIST);
+        this.type = type;
+        this.raw = raw;
+        rawOffset = offset;
+        rawLength = length;
+    }
+
     /**
      * Gets the type of item in this list.
      * @return The type of item in this list.
@@ -46,13 +74,68 @@ final class ListTag<T extends Tag> extends Tag<List<T>> {
 
     @Override
     public List<T> getValue() {
+        List<T> result = elements();
+        // the elements may now be changed
+        raw = null;
+        return result;
+    }
+
+    @Override
+    List<T> readValue() {
+        return elements();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> elements() {
+        if (value == null) {
+            value = (List<T>) NBTLazyDecoder.decodeList(raw, rawOffset, rawLength);
+        }
         return value;
     }
 
+    /**
+     * Write the payload this list was lazily read from, if its elements
+     * have never been exposed.
+     * @param out The output to write to.
+     * @return Whether the payload was written.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean writeRaw(DataOutput out) throws IOException {
+        if (!hasRaw()) {
+            return false;
+        }
+        out.write(raw, rawOffset, rawLength);
+        return true;
+    }
+
+    /**
+     * Write the payload this list was lazily read from, if its elements
+     * have never been exposed.
+     * @param buf The buffer to write to.
+     * @return Whether the payload was written.
+     */
+    boolean writeRaw(ByteBuf buf) {
+        if (!hasRaw()) {
+            return false;
+        }
+        buf.writeBytes(raw, rawOffset, rawLength);
+        return true;
+    }
+
+    /**
+     * Check whether this list was read lazily and its elements have never
+     * been exposed.
+     * @return Whether the lazily read payload is still valid.
+     */
+    boolean hasRaw() {
+        return raw != null;
+    }
+
     @Override
     protected void valueToString(StringBuilder bldr) {
-        bldr.append(value.size()).append(" entries of type ").append(type.getName()).append("\n{\n");
-        for (T elem : value) {
+        List<T> elements = elements();
+        bldr.append(elements.size()).append(" entries of type ").append(type.getName()).append("\n{\n");
+        for (T elem : elements) {
             bldr.append("    ").append(elem.toString().replaceAll("\n", "\n    ")).append("\n");
         }
         bldr.append("}");
@@ -19,6 +19,10 @@ final class LongTag extends Tag<Long> {
         this.value = value;
     }
 
+    long longValue() {
+        return value;
+    }
+
     @Override
     public Long getValue() {
         return value;
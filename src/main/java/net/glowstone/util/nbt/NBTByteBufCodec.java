@@ -0,0 +1,223 @@
+package net.glowstone.util.nbt;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes uncompressed NBT directly on a {@link ByteBuf}, for NBT
+ * embedded in packets, without wrapping the buffer in streams.
+ * <p/>
+ * Compounds are read lazily, as with {@link NBTInputStream#readLazyCompound()}:
+ * the payload is checked in place and copied out once, and only decoded
+ * when it is accessed.
+ */
+public final class NBTByteBufCodec {
+
+    /**
+     * The deepest nesting of compounds and lists accepted when reading.
+     */
+    private static final int MAX_DEPTH = 512;
+
+    private NBTByteBufCodec() {
+    }
+
+    /**
+     * Read a root compound from the buffer.
+     * @param buf The buffer.
+     * @return The compound, which is read lazily.
+     * @throws IOException if the buffer does not hold a valid compound.
+     */
+    public static CompoundTag readCompound(ByteBuf buf) throws IOException {
+        try {
+            TagType type = TagType.byIdOrError(buf.readUnsignedByte());
+            if (type != TagType.COMPOUND) {
+                throw new IOException("Root of NBT was " + type + ", not COMPOUND");
+            }
+            buf.skipBytes(buf.readUnsignedShort());
+
+            int start = buf.readerIndex();
+            skipPayload(buf, type, 0);
+            byte[] raw = new byte[buf.readerIndex() - start];
+            buf.getBytes(start, raw);
+            return new CompoundTag(raw, 0, raw.length);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Unexpected end of NBT", e);
+        }
+    }
+
+    /**
+     * Write a compound to the buffer as a root compound with a blank name.
+     * @param buf The buffer.
+     * @param tag The compound.
+     */
+    public static void writeCompound(ByteBuf buf, CompoundTag tag) {
+        buf.writeByte(TagType.COMPOUND.getId());
+        buf.writeShort(0);
+        writePayload(buf, tag);
+    }
+
+    private static void skipPayload(ByteBuf buf, TagType type, int depth) throws IOException {
+        switch (type) {
+            case BYTE:
+                buf.skipBytes(1);
+                break;
+            case SHORT:
+                buf.skipBytes(2);
+                break;
+            case INT:
+            case FLOAT:
+                buf.skipBytes(4);
+                break;
+            case LONG:
+            case DOUBLE:
+                buf.skipBytes(8);
+                break;
+            case BYTE_ARRAY:
+                buf.skipBytes(checkLength(buf.readInt(), 1));
+                break;
+            case STRING:
+                buf.skipBytes(buf.readUnsignedShort());
+                break;
+            case LIST:
+                checkDepth(depth);
+                TagType childType = TagType.byIdOrError(buf.readUnsignedByte());
+                int length = buf.readInt();
+                for (int i = 0; i < length; i++) {
+                    skipPayload(buf, childType, depth + 1);
+                }
+                break;
+            case COMPOUND:
+                checkDepth(depth);
+                while (true) {
+                    TagType childTag = TagType.byIdOrError(buf.readUnsignedByte());
+                    if (childTag == TagType.END) {
+                        break;
+                    }
+                    buf.skipBytes(buf.readUnsignedShort());
+                    skipPayload(buf, childTag, depth + 1);
+                }
+                break;
+            case INT_ARRAY:
+                buf.skipBytes(checkLength(buf.readInt(), 4));
+                break;
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private static int checkLength(int length, int size) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE / size) {
+            throw new IOException("Invalid length: " + length);
+        }
+        return length * size;
+    }
+
+    private static void checkDepth(int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("NBT is nested more than " + MAX_DEPTH + " deep");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(ByteBuf buf, Tag tag) {
+        switch (tag.getType()) {
+            case BYTE:
+                buf.writeByte(((ByteTag) tag).byteValue());
+                break;
+
+            case SHORT:
+                buf.writeShort(((ShortTag) tag).shortValue());
+                break;
+
+            case INT:
+                buf.writeInt(((IntTag) tag).intValue());
+                break;
+
+            case LONG:
+                buf.writeLong(((LongTag) tag).longValue());
+                break;
+
+            case FLOAT:
+                buf.writeFloat(((FloatTag) tag).floatValue());
+                break;
+
+            case DOUBLE:
+                buf.writeDouble(((DoubleTag) tag).doubleValue());
+                break;
+
+            case BYTE_ARRAY:
+                byte[] bytes = ((ByteArrayTag) tag).getValue();
+                buf.writeInt(bytes.length);
+                buf.writeBytes(bytes);
+                break;
+
+            case STRING:
+                writeString(buf, ((StringTag) tag).getValue());
+                break;
+
+            case LIST:
+                ListTag<Tag> listTag = (ListTag<Tag>) tag;
+                if (listTag.writeRaw(buf)) {
+                    // lazily read and unmodified
+                    break;
+                }
+                List<Tag> tags = listTag.getValue();
+                buf.writeByte(listTag.getChildType().getId());
+                buf.writeInt(tags.size());
+                for (Tag child : tags) {
+                    writePayload(buf, child);
+                }
+                break;
+
+            case COMPOUND:
+                CompoundTag compound = (CompoundTag) tag;
+                if (compound.writeRaw(buf)) {
+                    // lazily read and unmodified
+                    break;
+                }
+                for (Map.Entry<String, Tag> entry : compound.getValue().entrySet()) {
+                    buf.writeByte(entry.getValue().getType().getId());
+                    writeString(buf, entry.getKey());
+                    writePayload(buf, entry.getValue());
+                }
+                buf.writeByte(TagType.END.getId());
+                break;
+
+            case INT_ARRAY:
+                int[] ints = ((IntArrayTag) tag).getValue();
+                buf.writeInt(ints.length);
+                for (int value : ints) {
+                    buf.writeInt(value);
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Invalid tag type: " + tag.getType() + ".");
+        }
+    }
+
+    /**
+     * Write a string with its length, encoding ASCII strings straight into
+     * the buffer.
+     */
+    private static void writeString(ByteBuf buf, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            if (value.charAt(i) >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buf.writeShort(bytes.length);
+                buf.writeBytes(bytes);
+                return;
+            }
+        }
+        buf.ensureWritable(2 + length);
+        buf.writeShort(length);
+        for (int i = 0; i < length; ++i) {
+            buf.writeByte(value.charAt(i));
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package net.glowstone.util.nbt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -11,7 +13,8 @@ import java.util.zip.GZIPInputStream;
 
 /**
  * This class reads NBT, or Named Binary Tag streams, and produces an object
- * graph of subclasses of the {@link Tag} object.
+ * graph of subclasses of the {@link Tag} object, or passes the contents to an
+ * {@link NBTVisitor}.
  * <p/>
  * The NBT format was created by Markus Persson, and the specification may
  * be found at <a href="http://www.minecraft.net/docs/NBT.txt">
@@ -24,6 +27,16 @@ public final class NBTInputStream implements Closeable {
      */
     private final DataInputStream is;
 
+    /**
+     * The buffer used to copy array payloads when reading lazily.
+     */
+    private byte[] copyBuffer;
+
+    /**
+     * The buffer names are read into.
+     */
+    private byte[] nameBuffer = new byte[64];
+
     /**
      * Creates a new NBTInputStream, which will source its data
      * from the specified input stream. This assumes the stream is compressed.
@@ -67,6 +80,44 @@ public final class NBTInputStream implements Closeable {
         return (CompoundTag) readTagPayload(type, 0);
     }
 
+    /**
+     * Reads the root NBT {@link CompoundTag} from the stream lazily. The raw
+     * bytes of the compound are kept, and it and its nested compounds and
+     * lists are only decoded when first accessed. Parts which have not been
+     * modified are written back by copying their bytes.
+     * @return The tag that was read.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CompoundTag readLazyCompound() throws IOException {
+        TagType type = TagType.byIdOrError(is.readUnsignedByte());
+        if (type != TagType.COMPOUND) {
+            throw new IOException("Root of NBTInputStream was " + type + ", not COMPOUND");
+        }
+        skipFully(is.readUnsignedShort());
+
+        // the payload is checked as it is copied, so decoding it later can't fail
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        copyPayload(type, new DataOutputStream(bytes));
+        byte[] raw = bytes.toByteArray();
+        return new CompoundTag(raw, 0, raw.length);
+    }
+
+    /**
+     * Reads the root NBT compound from the stream, passing its entries to a
+     * visitor rather than building a tree of tags. Entries the visitor does
+     * not ask for are skipped without being decoded.
+     * @param visitor The visitor for the root compound.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void readCompound(NBTVisitor visitor) throws IOException {
+        TagType type = TagType.byIdOrError(is.readUnsignedByte());
+        if (type != TagType.COMPOUND) {
+            throw new IOException("Root of NBTInputStream was " + type + ", not COMPOUND");
+        }
+        skipFully(is.readUnsignedShort());
+        visitCompound(visitor);
+    }
+
     private CompoundTag readCompound(int depth) throws IOException {
         CompoundTag result = new CompoundTag();
 
@@ -78,10 +129,7 @@ public final class NBTInputStream implements Closeable {
             }
 
             // read name
-            int nameLength = is.readUnsignedShort();
-            byte[] nameBytes = new byte[nameLength];
-            is.readFully(nameBytes);
-            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            String name = readName();
 
             // read tag
             Tag tag = readTagPayload(type, depth + 1);
@@ -103,13 +151,13 @@ public final class NBTInputStream implements Closeable {
     private Tag readTagPayload(TagType type, int depth) throws IOException {
         switch (type) {
             case BYTE:
-                return new ByteTag(is.readByte());
+                return ByteTag.valueOf(is.readByte());
 
             case SHORT:
-                return new ShortTag(is.readShort());
+                return ShortTag.valueOf(is.readShort());
 
             case INT:
-                return new IntTag(is.readInt());
+                return IntTag.valueOf(is.readInt());
 
             case LONG:
                 return new LongTag(is.readLong());
@@ -159,6 +207,264 @@ public final class NBTInputStream implements Closeable {
         }
     }
 
+    /**
+     * Reads the name of a compound entry.
+     * @return The name, shared if it is a common key.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String readName() throws IOException {
+        int length = is.readUnsignedShort();
+        if (length > nameBuffer.length) {
+            nameBuffer = new byte[length];
+        }
+        is.readFully(nameBuffer, 0, length);
+        return TagMap.key(nameBuffer, 0, length);
+    }
+
+    private void visitCompound(NBTVisitor visitor) throws IOException {
+        while (true) {
+            TagType type = TagType.byIdOrError(is.readUnsignedByte());
+            if (type == TagType.END) {
+                break;
+            }
+            visitPayload(visitor, readName(), type);
+        }
+        visitor.visitEnd();
+    }
+
+    private void visitPayload(NBTVisitor visitor, String name, TagType type) throws IOException {
+        if (visitor.wantsTag(name, type)) {
+            visitor.visitTag(name, readTagPayload(type, 0));
+            return;
+        }
+
+        switch (type) {
+            case BYTE:
+                visitor.visitByte(name, is.readByte());
+                break;
+
+            case SHORT:
+                visitor.visitShort(name, is.readShort());
+                break;
+
+            case INT:
+                visitor.visitInt(name, is.readInt());
+                break;
+
+            case LONG:
+                visitor.visitLong(name, is.readLong());
+                break;
+
+            case FLOAT:
+                visitor.visitFloat(name, is.readFloat());
+                break;
+
+            case DOUBLE:
+                visitor.visitDouble(name, is.readDouble());
+                break;
+
+            case BYTE_ARRAY:
+                int length = is.readInt();
+                if (!visitor.visitByteArray(name, length, is)) {
+                    skipFully(length);
+                }
+                break;
+
+            case STRING:
+                byte[] bytes = new byte[is.readUnsignedShort()];
+                is.readFully(bytes);
+                visitor.visitString(name, new String(bytes, StandardCharsets.UTF_8));
+                break;
+
+            case LIST:
+                TagType childType = TagType.byIdOrError(is.readUnsignedByte());
+                length = is.readInt();
+                NBTVisitor listVisitor = visitor.visitList(name, childType, length);
+                if (listVisitor == null) {
+                    skipList(childType, length);
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        visitPayload(listVisitor, null, childType);
+                    }
+                    listVisitor.visitEnd();
+                }
+                break;
+
+            case COMPOUND:
+                NBTVisitor compoundVisitor = visitor.visitCompound(name);
+                if (compoundVisitor == null) {
+                    skipPayload(type);
+                } else {
+                    visitCompound(compoundVisitor);
+                }
+                break;
+
+            case INT_ARRAY:
+                length = is.readInt();
+                int[] ints = new int[length];
+                for (int i = 0; i < length; ++i) {
+                    ints[i] = is.readInt();
+                }
+                visitor.visitIntArray(name, ints);
+                break;
+
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    /**
+     * Copies the payload of a tag to a stream without decoding it.
+     * @param type The type.
+     * @param out The stream to copy to.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void copyPayload(TagType type, DataOutputStream out) throws IOException {
+        switch (type) {
+            case BYTE:
+                copyFully(1, out);
+                break;
+            case SHORT:
+                copyFully(2, out);
+                break;
+            case INT:
+            case FLOAT:
+                copyFully(4, out);
+                break;
+            case LONG:
+            case DOUBLE:
+                copyFully(8, out);
+                break;
+            case BYTE_ARRAY:
+                int length = is.readInt();
+                out.writeInt(length);
+                copyFully(length, out);
+                break;
+            case STRING:
+                length = is.readUnsignedShort();
+                out.writeShort(length);
+                copyFully(length, out);
+                break;
+            case LIST:
+                TagType childType = TagType.byIdOrError(is.readUnsignedByte());
+                length = is.readInt();
+                out.writeByte(childType.getId());
+                out.writeInt(length);
+                for (int i = 0; i < length; i++) {
+                    copyPayload(childType, out);
+                }
+                break;
+            case COMPOUND:
+                while (true) {
+                    TagType childTag = TagType.byIdOrError(is.readUnsignedByte());
+                    out.writeByte(childTag.getId());
+                    if (childTag == TagType.END) {
+                        break;
+                    }
+                    length = is.readUnsignedShort();
+                    out.writeShort(length);
+                    copyFully(length, out);
+                    copyPayload(childTag, out);
+                }
+                break;
+            case INT_ARRAY:
+                length = is.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid length: " + length);
+                }
+                out.writeInt(length);
+                copyFully(4 * length, out);
+                break;
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private void copyFully(int length, DataOutputStream out) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        if (copyBuffer == null) {
+            copyBuffer = new byte[4096];
+        }
+        while (length > 0) {
+            int count = Math.min(length, copyBuffer.length);
+            is.readFully(copyBuffer, 0, count);
+            out.write(copyBuffer, 0, count);
+            length -= count;
+        }
+    }
+
+    /**
+     * Skips over the payload of a tag without decoding it.
+     * @param type The type.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void skipPayload(TagType type) throws IOException {
+        switch (type) {
+            case BYTE:
+                skipFully(1);
+                break;
+            case SHORT:
+                skipFully(2);
+                break;
+            case INT:
+            case FLOAT:
+                skipFully(4);
+                break;
+            case LONG:
+            case DOUBLE:
+                skipFully(8);
+                break;
+            case BYTE_ARRAY:
+                skipFully(is.readInt());
+                break;
+            case STRING:
+                skipFully(is.readUnsignedShort());
+                break;
+            case LIST:
+                TagType childType = TagType.byIdOrError(is.readUnsignedByte());
+                skipList(childType, is.readInt());
+                break;
+            case COMPOUND:
+                while (true) {
+                    TagType childTag = TagType.byIdOrError(is.readUnsignedByte());
+                    if (childTag == TagType.END) {
+                        break;
+                    }
+                    skipFully(is.readUnsignedShort());
+                    skipPayload(childTag);
+                }
+                break;
+            case INT_ARRAY:
+                skipFully(4 * is.readInt());
+                break;
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private void skipList(TagType type, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            skipPayload(type);
+        }
+    }
+
+    private void skipFully(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        while (length > 0) {
+            int skipped = is.skipBytes(length);
+            if (skipped <= 0) {
+                // skipBytes gives up at the end of the stream
+                is.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         is.close();
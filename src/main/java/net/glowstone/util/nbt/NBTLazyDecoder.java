@@ -0,0 +1,172 @@
+package net.glowstone.util.nbt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes lazily read NBT one level at a time. Nested compounds and lists
+ * are only skipped over, and wrapped in tags which decode their own bytes
+ * when first accessed.
+ * <p/>
+ * The bytes are checked by {@link NBTInputStream#readLazyCompound()} when
+ * they are read, so they are not checked again here.
+ */
+final class NBTLazyDecoder {
+
+    private NBTLazyDecoder() {
+    }
+
+    /**
+     * Decode the entries of a compound payload.
+     * @param raw The buffer holding the payload.
+     * @param offset The offset of the payload.
+     * @param length The length of the payload, including its end tag.
+     * @param into The map to add the entries to.
+     */
+    static void decodeCompound(byte[] raw, int offset, int length, Map<String, Tag> into) {
+        ByteBuffer buf = ByteBuffer.wrap(raw, offset, length);
+        while (true) {
+            TagType type = TagType.byId(buf.get());
+            if (type == TagType.END) {
+                break;
+            }
+            int nameLength = buf.getShort() & 0xffff;
+            String name = TagMap.key(buf.array(), buf.position(), nameLength);
+            skip(buf, nameLength);
+            into.put(name, decodePayload(buf, type));
+        }
+    }
+
+    /**
+     * Decode the elements of a list payload.
+     * @param raw The buffer holding the payload.
+     * @param offset The offset of the payload.
+     * @param length The length of the payload, including its element type
+     * and count.
+     * @return The elements.
+     */
+    static List<Tag> decodeList(byte[] raw, int offset, int length) {
+        ByteBuffer buf = ByteBuffer.wrap(raw, offset, length);
+        TagType type = TagType.byId(buf.get());
+        int size = buf.getInt();
+        List<Tag> result = new ArrayList<>(Math.max(size, 0));
+        for (int i = 0; i < size; i++) {
+            result.add(decodePayload(buf, type));
+        }
+        return result;
+    }
+
+    private static Tag decodePayload(ByteBuffer buf, TagType type) {
+        switch (type) {
+            case BYTE:
+                return ByteTag.valueOf(buf.get());
+
+            case SHORT:
+                return ShortTag.valueOf(buf.getShort());
+
+            case INT:
+                return IntTag.valueOf(buf.getInt());
+
+            case LONG:
+                return new LongTag(buf.getLong());
+
+            case FLOAT:
+                return new FloatTag(buf.getFloat());
+
+            case DOUBLE:
+                return new DoubleTag(buf.getDouble());
+
+            case BYTE_ARRAY:
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                return new ByteArrayTag(bytes);
+
+            case STRING:
+                return new StringTag(readString(buf));
+
+            case LIST:
+                int start = buf.position();
+                TagType childType = TagType.byId(buf.get());
+                int size = buf.getInt();
+                for (int i = 0; i < size; i++) {
+                    skipPayload(buf, childType);
+                }
+                return new ListTag<>(childType, buf.array(), start, buf.position() - start);
+
+            case COMPOUND:
+                start = buf.position();
+                skipPayload(buf, type);
+                return new CompoundTag(buf.array(), start, buf.position() - start);
+
+            case INT_ARRAY:
+                int[] ints = new int[buf.getInt()];
+                buf.asIntBuffer().get(ints);
+                buf.position(buf.position() + 4 * ints.length);
+                return new IntArrayTag(ints);
+
+            default:
+                throw new IllegalStateException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private static void skipPayload(ByteBuffer buf, TagType type) {
+        switch (type) {
+            case BYTE:
+                skip(buf, 1);
+                break;
+            case SHORT:
+                skip(buf, 2);
+                break;
+            case INT:
+            case FLOAT:
+                skip(buf, 4);
+                break;
+            case LONG:
+            case DOUBLE:
+                skip(buf, 8);
+                break;
+            case BYTE_ARRAY:
+                skip(buf, buf.getInt());
+                break;
+            case STRING:
+                skip(buf, buf.getShort() & 0xffff);
+                break;
+            case LIST:
+                TagType childType = TagType.byId(buf.get());
+                int size = buf.getInt();
+                for (int i = 0; i < size; i++) {
+                    skipPayload(buf, childType);
+                }
+                break;
+            case COMPOUND:
+                while (true) {
+                    TagType childTag = TagType.byId(buf.get());
+                    if (childTag == TagType.END) {
+                        break;
+                    }
+                    skip(buf, buf.getShort() & 0xffff);
+                    skipPayload(buf, childTag);
+                }
+                break;
+            case INT_ARRAY:
+                skip(buf, 4 * buf.getInt());
+                break;
+            default:
+                throw new IllegalStateException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private static void skip(ByteBuffer buf, int length) {
+        buf.position(buf.position() + length);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xffff;
+        String result = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        skip(buf, length);
+        return result;
+    }
+}
@@ -63,7 +63,7 @@ public final class NBTOutputStream implements Closeable {
      * @param tag The tag to write.
      * @throws IOException if an I/O error occurs.
      */
-    private void writeTag(String name, Tag tag) throws IOException {
+    public void writeTag(String name, Tag tag) throws IOException {
         TagType type = tag.getType();
         byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
 
@@ -127,6 +127,10 @@ public final class NBTOutputStream implements Closeable {
 
             case LIST:
                 ListTag<Tag> listTag = (ListTag<Tag>) tag;
+                if (listTag.writeRaw(os)) {
+                    // lazily read and unmodified
+                    break;
+                }
                 List<Tag> tags = listTag.getValue();
 
                 os.writeByte(listTag.getChildType().getId());
@@ -137,7 +141,12 @@ public final class NBTOutputStream implements Closeable {
                 break;
 
             case COMPOUND:
-                Map<String, Tag> map = ((CompoundTag) tag).getValue();
+                CompoundTag compound = (CompoundTag) tag;
+                if (compound.writeRaw(os)) {
+                    // lazily read and unmodified
+                    break;
+                }
+                Map<String, Tag> map = compound.getValue();
                 for (Map.Entry<String, Tag> entry : map.entrySet()) {
                     writeTag(entry.getKey(), entry.getValue());
                 }
@@ -0,0 +1,98 @@
+package net.glowstone.util.nbt;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Receives the contents of a compound or list tag as it is read by
+ * {@link NBTInputStream#readCompound(NBTVisitor)}, without a tag tree being
+ * built. Entries are passed to the method for their type; the entries of a
+ * list have a null name. Every method does nothing by default, and nested
+ * compounds and lists are skipped unless a visitor is returned for them.
+ */
+public abstract class NBTVisitor {
+
+    /**
+     * Check whether an entry should be read into a {@link Tag} and passed to
+     * {@link #visitTag} rather than to the method for its type.
+     * @param name The name of the entry.
+     * @param type The type of the entry.
+     * @return Whether to read the entry as a tag.
+     */
+    public boolean wantsTag(String name, TagType type) {
+        return false;
+    }
+
+    /**
+     * Visit an entry read as a tag, for which {@link #wantsTag} returned
+     * true.
+     * @param name The name of the entry.
+     * @param tag The tag.
+     */
+    public void visitTag(String name, Tag tag) {
+    }
+
+    /**
+     * Visit a nested compound.
+     * @param name The name of the entry.
+     * @return The visitor for the compound's entries, or null to skip it.
+     */
+    public NBTVisitor visitCompound(String name) {
+        return null;
+    }
+
+    /**
+     * Visit a nested list.
+     * @param name The name of the entry.
+     * @param type The type of the list's elements.
+     * @param length The number of elements.
+     * @return The visitor for the list's elements, or null to skip it.
+     */
+    public NBTVisitor visitList(String name, TagType type, int length) {
+        return null;
+    }
+
+    public void visitByte(String name, byte value) {
+    }
+
+    public void visitShort(String name, short value) {
+    }
+
+    public void visitInt(String name, int value) {
+    }
+
+    public void visitLong(String name, long value) {
+    }
+
+    public void visitFloat(String name, float value) {
+    }
+
+    public void visitDouble(String name, double value) {
+    }
+
+    public void visitString(String name, String value) {
+    }
+
+    /**
+     * Visit a byte array, which may be read straight from the stream.
+     * @param name The name of the entry.
+     * @param length The length of the array.
+     * @param in The stream, positioned at the start of the array.
+     * @return True if exactly {@code length} bytes were read from the stream,
+     * or false if none were and the array should be skipped.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean visitByteArray(String name, int length, DataInput in) throws IOException {
+        return false;
+    }
+
+    public void visitIntArray(String name, int[] value) {
+    }
+
+    /**
+     * Called after the last entry of the compound or list.
+     * @throws IOException if the contents were not valid.
+     */
+    public void visitEnd() throws IOException {
+    }
+}
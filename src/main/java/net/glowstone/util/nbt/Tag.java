@@ -32,6 +32,15 @@ public abstract class Tag<T> {
      */
     public abstract T getValue();
 
+    /**
+     * Gets the value of this tag for reading only, which unlike
+     * {@link #getValue()} does not count as a change to a lazily read tag.
+     * @return The value of this tag, which must not be modified.
+     */
+    T readValue() {
+        return getValue();
+    }
+
     @Override
     public final String toString() {
         StringBuilder builder = new StringBuilder("TAG_");
@@ -47,18 +56,18 @@ public abstract class Tag<T> {
 
         Tag tag = (Tag) o;
 
-        return type == tag.type && getValue().equals(tag.getValue());
+        return type == tag.type && readValue().equals(tag.readValue());
     }
 
     @Override
     public final int hashCode() {
         int result = type.hashCode();
-        result = 31 * result + getValue().hashCode();
+        result = 31 * result + readValue().hashCode();
         return result;
     }
 
     protected void valueToString(StringBuilder builder) {
-        builder.append(getValue());
+        builder.append(readValue());
     }
 }
 
@@ -0,0 +1,255 @@
+package net.glowstone.util.nbt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The entries of a {@link CompoundTag}, in insertion order. Small compounds,
+ * which are most of them, keep their keys and tags in two parallel arrays
+ * which are searched in order, comparing keys by identity before equality
+ * since most are interned. Above {@link #ARRAY_LIMIT} entries they switch to
+ * a hash map.
+ */
+final class TagMap extends AbstractMap<String, Tag> {
+
+    /**
+     * The most entries kept in arrays.
+     */
+    static final int ARRAY_LIMIT = 8;
+
+    /**
+     * Keys which are interned when read, so that reading them does not
+     * create strings and looking them up usually succeeds by identity.
+     */
+    private static final String[] COMMON_KEYS = {
+            "id", "x", "y", "z", "Count", "Damage", "Slot", "tag", "Items",
+            "Pos", "Motion", "Rotation", "Name", "display", "Lore", "ench", "lvl",
+            "UUIDMost", "UUIDLeast", "Health", "Age", "OnGround", "Dimension",
+    };
+    private static final byte[][] COMMON_KEY_BYTES = new byte[COMMON_KEYS.length][];
+
+    static {
+        for (int i = 0; i < COMMON_KEYS.length; ++i) {
+            COMMON_KEY_BYTES[i] = COMMON_KEYS[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private String[] keys;
+    private Tag[] tags;
+    private int size;
+
+    /**
+     * The entries, once there are too many for the arrays.
+     */
+    private Map<String, Tag> map;
+
+    private Set<Entry<String, Tag>> entrySet;
+
+    /**
+     * Get the key encoded in a buffer, which is a shared instance if it is
+     * one of the common keys.
+     * @param bytes The buffer.
+     * @param offset The offset of the key.
+     * @param length The length of the key.
+     * @return The key.
+     */
+    static String key(byte[] bytes, int offset, int length) {
+        for (int i = 0; i < COMMON_KEY_BYTES.length; ++i) {
+            if (matches(COMMON_KEY_BYTES[i], bytes, offset, length)) {
+                return COMMON_KEYS[i];
+            }
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; ++i) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < size; ++i) {
+                if (key.equals(keys[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map != null ? map.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public Tag get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        int index = indexOf(key);
+        return index >= 0 ? tags[index] : null;
+    }
+
+    @Override
+    public Tag put(String key, Tag tag) {
+        if (map != null) {
+            return map.put(key, tag);
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            Tag old = tags[index];
+            tags[index] = tag;
+            return old;
+        }
+        if (size == ARRAY_LIMIT) {
+            map = new LinkedHashMap<>(4 * ARRAY_LIMIT);
+            for (int i = 0; i < size; ++i) {
+                map.put(keys[i], tags[i]);
+            }
+            keys = null;
+            tags = null;
+            size = 0;
+            return map.put(key, tag);
+        }
+        if (keys == null) {
+            keys = new String[4];
+            tags = new Tag[4];
+        } else if (size == keys.length) {
+            String[] newKeys = new String[ARRAY_LIMIT];
+            Tag[] newTags = new Tag[ARRAY_LIMIT];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(tags, 0, newTags, 0, size);
+            keys = newKeys;
+            tags = newTags;
+        }
+        keys[size] = key;
+        tags[size] = tag;
+        size++;
+        return null;
+    }
+
+    @Override
+    public Tag remove(Object key) {
+        if (map != null) {
+            return map.remove(key);
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Tag old = tags[index];
+        removeAt(index);
+        return old;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(tags, index + 1, tags, index, moved);
+        size--;
+        keys[size] = null;
+        tags[size] = null;
+    }
+
+    @Override
+    public void clear() {
+        map = null;
+        keys = null;
+        tags = null;
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, Tag>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Tag>> {
+        @Override
+        public Iterator<Entry<String, Tag>> iterator() {
+            return map != null ? map.entrySet().iterator() : new ArrayIterator();
+        }
+
+        @Override
+        public int size() {
+            return TagMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            TagMap.this.clear();
+        }
+    }
+
+    private final class ArrayIterator implements Iterator<Entry<String, Tag>> {
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, Tag> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new ArrayEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private final class ArrayEntry extends SimpleEntry<String, Tag> {
+        private final int index;
+
+        private ArrayEntry(int index) {
+            super(keys[index], tags[index]);
+            this.index = index;
+        }
+
+        @Override
+        public Tag setValue(Tag value) {
+            tags[index] = value;
+            return super.setValue(value);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.glowstone.util.noise;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.bukkit.util.noise.NoiseGenerator;
@@ -9,8 +10,25 @@ public class PerlinOctaveGenerator extends OctaveGenerator {
     protected final int xSize;
     protected final int ySize;
     protected final int zSize;
+    /**
+     * @deprecated {@link #fBm} no longer writes its result here, so that one
+     * generator can be shared by several generating threads; use the array
+     * it returns.
+     */
+    @Deprecated
     protected double[] noise;
 
+    /**
+     * Scratch buffer for the result of {@link #fBm}, one per generating
+     * thread.
+     */
+    private final ThreadLocal<double[]> buffer = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[xSize * ySize * zSize];
+        }
+    };
+
     public PerlinOctaveGenerator(Random rand, int octaves, int xSize, int zSize) {
         this(rand, octaves, xSize, 1, zSize);
     }
@@ -31,10 +49,14 @@ public class PerlinOctaveGenerator extends OctaveGenerator {
         return fBm(x, 0, z, lacunarity, persistence);
     }
 
+    /**
+     * Compute fractal Brownian motion noise over the generator's area. The
+     * result is the calling thread's own buffer, so a generator may be shared
+     * by several generating threads, but it is overwritten by the thread's
+     * next call.
+     */
     public double[] fBm(double x, double y, double z, double lacunarity, double persistence) {
-        for (int i = 0; i < noise.length; i++) {
-            noise[i] = 0;
-        }
+        double[] noise = getNoiseBuffer();
 
         double freq = 1;
         double amp = 1;
@@ -71,6 +93,16 @@ public class PerlinOctaveGenerator extends OctaveGenerator {
         return noise;
     }
 
+    /**
+     * @return The calling thread's buffer for the result of {@link #fBm},
+     *         cleared
+     */
+    protected double[] getNoiseBuffer() {
+        double[] noise = buffer.get();
+        Arrays.fill(noise, 0);
+        return noise;
+    }
+
     protected static NoiseGenerator[] createOctaves(Random rand, int octaves) {
         NoiseGenerator[] result = new NoiseGenerator[octaves];
 
@@ -20,9 +20,7 @@ public class SimplexOctaveGenerator extends PerlinOctaveGenerator {
 
     @Override
     public double[] fBm(double x, double y, double z, double lacunarity, double persistence) {
-        for (int i = 0; i < noise.length; i++) {
-            noise[i] = 0;
-        }
+        double[] noise = getNoiseBuffer();
 
         double freq = 1;
         double amp = 1;
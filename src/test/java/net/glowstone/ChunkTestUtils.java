@@ -0,0 +1,21 @@
+package net.glowstone;
+
+/**
+ * Utilities for tests which need chunks.
+ */
+public final class ChunkTestUtils {
+
+    private ChunkTestUtils() {
+    }
+
+    /**
+     * Create a chunk which belongs to no world, for tests which only use
+     * its data.
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     * @return The chunk.
+     */
+    public static GlowChunk newChunk(int x, int z) {
+        return new GlowChunk(null, x, z);
+    }
+}
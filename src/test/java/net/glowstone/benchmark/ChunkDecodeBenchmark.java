@@ -0,0 +1,168 @@
+package net.glowstone.benchmark;
+
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.io.anvil.AnvilChunkDecoder;
+import net.glowstone.io.anvil.RegionFile;
+import net.glowstone.util.NibbleArray;
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NBTInputStream;
+import net.glowstone.util.nbt.NBTOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding chunk NBT through a tree of tags, as the chunk loader
+ * used to, against {@link AnvilChunkDecoder}. The chunks are inflated ahead
+ * of time so that only decoding is measured.
+ * <p>
+ * Chunks are taken from the region file named by the
+ * {@code glowstone.benchmark.region} system property, such as
+ * {@code world/region/r.0.0.mca}, or generated if it is not set. Run with
+ * {@code main} from the test classpath; it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkDecodeBenchmark {
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        String path = System.getProperty("glowstone.benchmark.region");
+        if (path != null) {
+            RegionFile region = new RegionFile(new File(path));
+            for (int i = 0; i < 1024; ++i) {
+                if (region.hasChunk(i & 31, i >> 5)) {
+                    chunks.add(readFully(region.getChunkDataInputStream(i & 31, i >> 5)));
+                }
+            }
+            region.close();
+        } else {
+            Random random = new Random(1);
+            for (int i = 0; i < 64; ++i) {
+                chunks.add(generate(random));
+            }
+        }
+        if (chunks.isEmpty()) {
+            throw new IOException("No chunks in " + path);
+        }
+    }
+
+    private byte[] nextChunk() {
+        return chunks.get(next++ % chunks.size());
+    }
+
+    @Benchmark
+    public Object tree() throws IOException {
+        CompoundTag levelTag;
+        try (NBTInputStream nbt = new NBTInputStream(new ByteArrayInputStream(nextChunk()), false)) {
+            levelTag = nbt.readCompound().getCompound("Level");
+        }
+
+        ChunkSection[] sections = new ChunkSection[16];
+        for (CompoundTag sectionTag : levelTag.getCompoundList("Sections")) {
+            int y = sectionTag.getByte("Y");
+            byte[] rawTypes = sectionTag.getByteArray("Blocks");
+            NibbleArray extTypes = sectionTag.containsKey("Add") ? new NibbleArray(sectionTag.getByteArray("Add")) : null;
+            NibbleArray data = new NibbleArray(sectionTag.getByteArray("Data"));
+            NibbleArray blockLight = NibbleArray.compact(sectionTag.getByteArray("BlockLight"));
+            NibbleArray skyLight = NibbleArray.compact(sectionTag.getByteArray("SkyLight"));
+
+            char[] types = new char[rawTypes.length];
+            for (int i = 0; i < rawTypes.length; i++) {
+                types[i] = (char) (((extTypes == null ? 0 : extTypes.get(i)) << 12) | ((rawTypes[i] & 0xff) << 4) | data.get(i));
+            }
+            sections[y] = new ChunkSection(types, skyLight, blockLight);
+        }
+        return sections;
+    }
+
+    @Benchmark
+    public Object streaming() throws IOException {
+        return AnvilChunkDecoder.decode(new ByteArrayInputStream(nextChunk()));
+    }
+
+    private static byte[] readFully(DataInputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bytes.write(buf, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generate the NBT of an overworld-like chunk: solid stone sections
+     * below a few sections of mixed blocks.
+     */
+    private static byte[] generate(Random random) throws IOException {
+        List<CompoundTag> sections = new ArrayList<>();
+        for (int y = 0; y < 6; ++y) {
+            byte[] blocks = new byte[4096], data = new byte[2048];
+            byte[] blockLight = new byte[2048], skyLight = new byte[2048];
+            for (int i = 0; i < blocks.length; ++i) {
+                blocks[i] = (byte) (y < 4 || random.nextInt(4) != 0 ? 1 : random.nextInt(20));
+            }
+            if (y >= 4) {
+                random.nextBytes(data);
+                random.nextBytes(skyLight);
+            }
+            CompoundTag section = new CompoundTag();
+            section.putByte("Y", y);
+            section.putByteArray("Blocks", blocks);
+            section.putByteArray("Data", data);
+            section.putByteArray("BlockLight", blockLight);
+            section.putByteArray("SkyLight", skyLight);
+            sections.add(section);
+        }
+
+        List<CompoundTag> entities = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            CompoundTag entity = new CompoundTag();
+            entity.putString("id", "Sheep");
+            entity.putShort("Health", 8);
+            entities.add(entity);
+        }
+
+        CompoundTag level = new CompoundTag();
+        level.putCompoundList("Sections", sections);
+        level.putByteArray("Biomes", new byte[256]);
+        level.putIntArray("HeightMap", new int[256]);
+        level.putBool("TerrainPopulated", true);
+        level.putCompoundList("Entities", entities);
+        level.putCompoundList("TileEntities", new ArrayList<CompoundTag>());
+        CompoundTag root = new CompoundTag();
+        root.putCompound("Level", level);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(bytes, false)) {
+            out.writeTag(root);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChunkDecodeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,162 @@
+package net.glowstone.benchmark;
+
+import net.glowstone.GlowChunk;
+import net.glowstone.util.collection.ConcurrentLongObjectMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the chunk lookup cost of the {@link GlowChunk.Key}-keyed map
+ * ChunkManager used to use against {@link ConcurrentLongObjectMap}, for the
+ * block access patterns of explosions and tree growth.
+ * <p>
+ * Run with {@code main} from the test classpath; it is not part of the unit
+ * tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkMapBenchmark {
+
+    /**
+     * Loaded area around the origin, in chunks, as with a few players online.
+     */
+    private static final int VIEW_RADIUS = 24;
+
+    private final ConcurrentMap<GlowChunk.Key, Object> keyMap = new ConcurrentHashMap<>();
+    private final ConcurrentLongObjectMap<Object> longMap = new ConcurrentLongObjectMap<>();
+    private Object lastChunk;
+    private long lastKey;
+
+    /**
+     * Block coordinates of the blocks touched, three ints per block.
+     */
+    private int[] explosion;
+    private int[] tree;
+
+    @Setup
+    public void setup() {
+        for (int x = -VIEW_RADIUS; x <= VIEW_RADIUS; ++x) {
+            for (int z = -VIEW_RADIUS; z <= VIEW_RADIUS; ++z) {
+                Object chunk = new Object();
+                keyMap.put(new GlowChunk.Key(x, z), chunk);
+                longMap.put(GlowChunk.Key.pack(x, z), chunk);
+            }
+        }
+
+        Random random = new Random(1);
+        // explosions: every block in a radius-8 sphere around random points,
+        // crossing chunk borders at arbitrary places
+        int[] buffer = new int[3 * 17 * 17 * 17 * 16];
+        int n = 0;
+        for (int blast = 0; blast < 16; ++blast) {
+            int cx = random.nextInt(512) - 256;
+            int cy = 64;
+            int cz = random.nextInt(512) - 256;
+            for (int dx = -8; dx <= 8; ++dx) {
+                for (int dy = -8; dy <= 8; ++dy) {
+                    for (int dz = -8; dz <= 8; ++dz) {
+                        if (dx * dx + dy * dy + dz * dz <= 64) {
+                            buffer[n++] = cx + dx;
+                            buffer[n++] = cy + dy;
+                            buffer[n++] = cz + dz;
+                        }
+                    }
+                }
+            }
+        }
+        explosion = Arrays.copyOf(buffer, n);
+
+        // tree growth: a trunk column followed by a leaf canopy, checked
+        // column by column from the top down like height scans do
+        n = 0;
+        buffer = new int[3 * 64 * 5 * 5 * 12];
+        for (int sapling = 0; sapling < 64; ++sapling) {
+            int bx = random.nextInt(512) - 256;
+            int bz = random.nextInt(512) - 256;
+            for (int dx = -2; dx <= 2; ++dx) {
+                for (int dz = -2; dz <= 2; ++dz) {
+                    for (int y = 75; y >= 64; --y) {
+                        buffer[n++] = bx + dx;
+                        buffer[n++] = y;
+                        buffer[n++] = bz + dz;
+                    }
+                }
+            }
+        }
+        tree = Arrays.copyOf(buffer, n);
+    }
+
+    private void lookupKeyMap(int[] blocks, Blackhole hole) {
+        for (int i = 0; i < blocks.length; i += 3) {
+            hole.consume(keyMap.get(new GlowChunk.Key(blocks[i] >> 4, blocks[i + 2] >> 4)));
+        }
+    }
+
+    private void lookupLongMap(int[] blocks, Blackhole hole) {
+        for (int i = 0; i < blocks.length; i += 3) {
+            hole.consume(longMap.get(GlowChunk.Key.pack(blocks[i] >> 4, blocks[i + 2] >> 4)));
+        }
+    }
+
+    private void lookupLongMapCached(int[] blocks, Blackhole hole) {
+        for (int i = 0; i < blocks.length; i += 3) {
+            long key = GlowChunk.Key.pack(blocks[i] >> 4, blocks[i + 2] >> 4);
+            Object chunk = lastChunk;
+            if (chunk == null || key != lastKey) {
+                chunk = longMap.get(key);
+                lastChunk = chunk;
+                lastKey = key;
+            }
+            hole.consume(chunk);
+        }
+    }
+
+    @Benchmark
+    public void explosionKeyMap(Blackhole hole) {
+        lookupKeyMap(explosion, hole);
+    }
+
+    @Benchmark
+    public void explosionLongMap(Blackhole hole) {
+        lookupLongMap(explosion, hole);
+    }
+
+    @Benchmark
+    public void explosionLongMapCached(Blackhole hole) {
+        lookupLongMapCached(explosion, hole);
+    }
+
+    @Benchmark
+    public void treeKeyMap(Blackhole hole) {
+        lookupKeyMap(tree, hole);
+    }
+
+    @Benchmark
+    public void treeLongMap(Blackhole hole) {
+        lookupLongMap(tree, hole);
+    }
+
+    @Benchmark
+    public void treeLongMapCached(Blackhole hole) {
+        lookupLongMapCached(tree, hole);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChunkMapBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,121 @@
+package net.glowstone.benchmark;
+
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NBTInputStream;
+import net.glowstone.util.nbt.NBTOutputStream;
+import net.glowstone.util.nbt.TagType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building, reading and writing the NBT of a full chest, whose
+ * items are the kind of small compounds saved in bulk with entities and
+ * tile entities.
+ * <p>
+ * {@code main} runs with the GC profiler, whose {@code gc.alloc.rate.norm}
+ * result is the number of bytes allocated per operation. Run it from the
+ * test classpath; it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompoundTagBenchmark {
+
+    private static final int SLOTS = 27;
+
+    private CompoundTag chest;
+    private byte[] encoded;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+
+    @Setup
+    public void setup() throws IOException {
+        chest = build();
+        try (NBTOutputStream nbt = new NBTOutputStream(out, false)) {
+            nbt.writeTag(chest);
+        }
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public CompoundTag build() {
+        List<CompoundTag> items = new ArrayList<>(SLOTS);
+        for (int slot = 0; slot < SLOTS; ++slot) {
+            CompoundTag item = new CompoundTag();
+            item.putString("id", "minecraft:diamond_sword");
+            item.putByte("Count", 1);
+            item.putShort("Damage", slot * 3);
+            item.putByte("Slot", slot);
+
+            CompoundTag display = new CompoundTag();
+            display.putString("Name", "Sword " + slot);
+            display.putList("Lore", TagType.STRING, Arrays.asList("Sharp", "Shiny"));
+            CompoundTag ench = new CompoundTag();
+            ench.putShort("id", 16);
+            ench.putShort("lvl", 5);
+            CompoundTag tag = new CompoundTag();
+            tag.putCompound("display", display);
+            tag.putCompoundList("ench", Arrays.asList(ench));
+            item.putCompound("tag", tag);
+            items.add(item);
+        }
+
+        CompoundTag result = new CompoundTag();
+        result.putString("id", "Chest");
+        result.putInt("x", 100);
+        result.putInt("y", 64);
+        result.putInt("z", -200);
+        result.putCompoundList("Items", items);
+        return result;
+    }
+
+    @Benchmark
+    public void read(Blackhole hole) throws IOException {
+        CompoundTag compound;
+        try (NBTInputStream nbt = new NBTInputStream(new ByteArrayInputStream(encoded), false)) {
+            compound = nbt.readCompound();
+        }
+        hole.consume(compound.getInt("x") + compound.getInt("y") + compound.getInt("z"));
+        for (CompoundTag item : compound.getCompoundList("Items")) {
+            hole.consume(item.getString("id"));
+            hole.consume(item.getByte("Count") + item.getShort("Damage") + item.getByte("Slot"));
+            if (item.isCompound("tag")) {
+                CompoundTag tag = item.getCompound("tag");
+                hole.consume(tag.getCompound("display").getString("Name"));
+                for (CompoundTag ench : tag.getCompoundList("ench")) {
+                    hole.consume(ench.getShort("id") + ench.getShort("lvl"));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        try (NBTOutputStream nbt = new NBTOutputStream(out, false)) {
+            nbt.writeTag(chest);
+        }
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompoundTagBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,114 @@
+package net.glowstone.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.glowstone.net.pipeline.CompressionHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Measures {@link CompressionHandler} compressing and decompressing messages
+ * the size of chunk data, from a pooled direct buffer as the codecs handler
+ * writes them. {@code copying} compresses the way the handler used to, by
+ * copying the message into a new array and deflating into another, for
+ * comparison. Run with {@code main} from the test classpath, which reports
+ * the allocation rate of each; it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressionBenchmark {
+
+    /**
+     * The message size: a single chunk column, a chunk bulk of a few
+     * columns, and a bulk near the size limit of a message.
+     */
+    @Param({"16384", "200000", "2000000"})
+    private int size;
+
+    private EmbeddedChannel channel;
+    private ByteBuf message;
+    private ByteBuf compressed;
+    private Deflater deflater;
+
+    @Setup
+    public void setup() {
+        channel = new EmbeddedChannel(new CompressionHandler(256));
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        // mostly runs of a few block types, with some noise like lighting
+        byte[] data = new byte[size];
+        Random random = new Random(1);
+        for (int i = 0; i < size; ) {
+            int run = Math.min(size - i, 1 + random.nextInt(64));
+            byte value = (byte) random.nextInt(8);
+            for (int j = 0; j < run; ++j) {
+                data[i++] = random.nextInt(8) == 0 ? (byte) random.nextInt(256) : value;
+            }
+        }
+        message = PooledByteBufAllocator.DEFAULT.directBuffer(size);
+        message.writeBytes(data);
+
+        channel.writeOutbound(message.duplicate().retain());
+        compressed = Unpooled.copiedBuffer((ByteBuf) channel.readOutbound());
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+        message.release();
+        compressed.release();
+        deflater.end();
+    }
+
+    @Benchmark
+    public int compress() {
+        channel.writeOutbound(message.duplicate().retain());
+        ByteBuf out = (ByteBuf) channel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public int decompress() {
+        channel.writeInbound(compressed.duplicate().retain());
+        ByteBuf in = (ByteBuf) channel.readInbound();
+        int length = in.readableBytes();
+        in.release();
+        return length;
+    }
+
+    @Benchmark
+    public int copying() {
+        byte[] input = new byte[message.readableBytes()];
+        message.getBytes(message.readerIndex(), input);
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] output = new byte[input.length];
+        int length = deflater.deflate(output);
+        deflater.reset();
+        ByteBuf out = Unpooled.wrappedBuffer(output, 0, length);
+        out.release();
+        return length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,160 @@
+package net.glowstone.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.glowstone.net.pipeline.CompressionHandler;
+import net.glowstone.net.pipeline.CompressionPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the latency of a network event loop while a number of players
+ * join at once, each being sent the chunk data around them, with messages
+ * compressed on the event loop or offloaded to a {@link CompressionPool}.
+ * The score is the time until a task queued on the event loop behind the
+ * joins runs, which is how long every other connection on the loop waits.
+ * Run with {@code main} from the test classpath; it is not part of the unit
+ * tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressionOffloadBenchmark {
+
+    /**
+     * The size of each chunk bulk message, and the number sent to each
+     * joining player.
+     */
+    private static final int BULK_SIZE = 200000;
+    private static final int BULKS = 4;
+
+    @Param({"1", "10", "30"})
+    private int players;
+
+    @Param({"false", "true"})
+    private boolean offload;
+
+    private LocalEventLoopGroup serverGroup;
+    private LocalEventLoopGroup clientGroup;
+    private CompressionPool pool;
+    private EventLoop loop;
+    private Channel serverChannel;
+    private final List<Channel> channels = new ArrayList<>();
+    private final List<ChannelFuture> writes = new ArrayList<>();
+    private ByteBuf bulk;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        serverGroup = new LocalEventLoopGroup(1);
+        clientGroup = new LocalEventLoopGroup(1);
+        loop = clientGroup.next();
+        if (offload) {
+            pool = new CompressionPool(2, 128);
+        }
+
+        LocalAddress address = new LocalAddress("compression-offload-benchmark");
+        serverChannel = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(new DiscardHandler())
+                .bind(address).sync().channel();
+        for (int i = 0; i < players; ++i) {
+            channels.add(new Bootstrap()
+                    .group(loop)
+                    .channel(LocalChannel.class)
+                    .handler(new CompressionHandler(256, Deflater.DEFAULT_COMPRESSION, pool, 65536))
+                    .connect(address).sync().channel());
+        }
+
+        // mostly runs of a few block types, with some noise like lighting
+        byte[] data = new byte[BULK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < BULK_SIZE; ) {
+            int run = Math.min(BULK_SIZE - i, 1 + random.nextInt(64));
+            byte value = (byte) random.nextInt(8);
+            for (int j = 0; j < run; ++j) {
+                data[i++] = random.nextInt(8) == 0 ? (byte) random.nextInt(256) : value;
+            }
+        }
+        bulk = PooledByteBufAllocator.DEFAULT.directBuffer(BULK_SIZE);
+        bulk.writeBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        for (Channel channel : channels) {
+            channel.close().sync();
+        }
+        serverChannel.close().sync();
+        if (pool != null) {
+            pool.shutdown();
+        }
+        clientGroup.shutdownGracefully().sync();
+        serverGroup.shutdownGracefully().sync();
+        bulk.release();
+    }
+
+    /**
+     * Wait for the chunks sent to the players to be written before the next
+     * players join.
+     */
+    @TearDown(Level.Invocation)
+    public void awaitWrites() {
+        for (ChannelFuture write : writes) {
+            write.awaitUninterruptibly();
+        }
+        writes.clear();
+    }
+
+    @Benchmark
+    public void join() throws Exception {
+        for (Channel channel : channels) {
+            for (int i = 0; i < BULKS; ++i) {
+                writes.add(channel.writeAndFlush(bulk.duplicate().retain()));
+            }
+        }
+        loop.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).sync();
+    }
+
+    @ChannelHandler.Sharable
+    private static final class DiscardHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompressionOffloadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+package net.glowstone.benchmark;
+
+import net.glowstone.io.anvil.MappedRegionFile;
+import net.glowstone.io.anvil.RegionFile;
+import net.glowstone.io.anvil.RegionStorage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compares chunk reads from {@link RegionFile} against
+ * {@link MappedRegionFile}. Cold reads open the region file, read one chunk
+ * and close it again, as when the region file cache misses; warm reads come
+ * from a region file which is already open. The operating system's page
+ * cache is warm in both cases.
+ * <p>
+ * Run with {@code main} from the test classpath; it is not part of the unit
+ * tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegionFileBenchmark {
+
+    /**
+     * Uncompressed size of each chunk, about that of a typical overworld
+     * chunk's NBT.
+     */
+    private static final int CHUNK_BYTES = 24 * 1024;
+
+    @Param({"stream", "mapped"})
+    private String implementation;
+
+    private File file;
+    private RegionStorage warm;
+    private final byte[] sink = new byte[8192];
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("r.0.0", ".mca");
+        file.delete();
+
+        // chunks of somewhat compressible data, like block arrays are
+        Random random = new Random(1);
+        byte[] raw = new byte[CHUNK_BYTES];
+        RegionStorage region = new RegionFile(file);
+        for (int i = 0; i < 1024; ++i) {
+            for (int j = 0; j < raw.length; ++j) {
+                raw[j] = (byte) (random.nextInt(8) == 0 ? random.nextInt(256) : j >> 6);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))) {
+                out.write(raw);
+            }
+            region.write(i & 31, i >> 5, bytes.toByteArray(), bytes.size());
+        }
+        region.close();
+
+        warm = open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        warm.close();
+        file.delete();
+    }
+
+    private RegionStorage open() throws IOException {
+        return implementation.equals("mapped") ? new MappedRegionFile(file) : new RegionFile(file);
+    }
+
+    private void read(RegionStorage region, Blackhole hole) throws IOException {
+        int i = next++ & 1023;
+        try (DataInputStream in = region.getChunkDataInputStream(i & 31, i >> 5)) {
+            int n;
+            while ((n = in.read(sink)) > 0) {
+                hole.consume(n);
+            }
+        }
+    }
+
+    @Benchmark
+    public void coldRead(Blackhole hole) throws IOException {
+        RegionStorage region = open();
+        try {
+            read(region, hole);
+        } finally {
+            region.close();
+        }
+    }
+
+    @Benchmark
+    public void warmRead(Blackhole hole) throws IOException {
+        read(warm, hole);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RegionFileBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
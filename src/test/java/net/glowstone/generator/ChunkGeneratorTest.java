@@ -0,0 +1,239 @@
+package net.glowstone.generator;
+
+import net.glowstone.constants.GlowBiome;
+import net.glowstone.generator.biomegrid.MapLayer;
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+import org.bukkit.WorldType;
+import org.bukkit.block.Biome;
+import org.bukkit.generator.ChunkGenerator.BiomeGrid;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.bukkit.block.Biome.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests for {@link GlowChunkGenerator}.
+ *
+ * <p>{@code testMatchesFixture} compares a hash of each generated chunk with
+ * {@code generator/chunks.properties}, recorded from the single-threaded
+ * generator. Running the test with
+ * {@code -Dglowstone.generator.record=<file>} writes the hashes to the file
+ * instead of checking them, for when the terrain is meant to change.
+ */
+public class ChunkGeneratorTest {
+
+    private static final long SEED = 1234567890L;
+    private static final int CHUNKS = 6;
+    /**
+     * The chunk the generated square is centred on, on a coast for the seed,
+     * so that it has both land and sea.
+     */
+    private static final int CENTRE_X = 5;
+    private static final int CENTRE_Z = -6;
+    private static final int THREADS = 8;
+    private static final String FIXTURE = "/generator/chunks.properties";
+
+    /**
+     * Biomes with their own ground generator, which a small square of chunks
+     * can't be relied on to reach, so the overworld is also generated with
+     * each of them forced over two chunks which are dry land for the seed.
+     */
+    private static final Biome[] GROUND_BIOMES = {
+            EXTREME_HILLS, EXTREME_HILLS_MOUNTAINS, SAVANNA_MOUNTAINS, MEGA_TAIGA,
+            MESA, MESA_BRYCE, MESA_PLATEAU_FOREST, DESERT, MUSHROOM_ISLAND
+    };
+
+    @Test
+    public void testMatchesFixture() throws Exception {
+        Map<String, String> actual = new Generators().generateAll(0);
+
+        String record = System.getProperty("glowstone.generator.record");
+        if (record != null) {
+            Properties properties = new Properties();
+            properties.putAll(actual);
+            try (OutputStream out = new FileOutputStream(record)) {
+                properties.store(out, "Chunk hashes for seed " + SEED);
+            }
+            return;
+        }
+
+        Properties expected = new Properties();
+        try (InputStream in = ChunkGeneratorTest.class.getResourceAsStream(FIXTURE)) {
+            assertNotNull("missing " + FIXTURE, in);
+            expected.load(in);
+        }
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<String, String> entry : actual.entrySet()) {
+            assertEquals("chunk " + entry.getKey(), expected.getProperty(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentMatchesSerial() throws Exception {
+        Map<String, String> expected = new Generators().generateAll(0);
+
+        // the other threads share one set of generators and worlds
+        final Generators shared = new Generators();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Map<String, String>>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int offset = i * 5;
+                results.add(executor.submit(new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() throws Exception {
+                        return shared.generateAll(offset);
+                    }
+                }));
+            }
+            for (Future<Map<String, String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A generator and world for each environment.
+     */
+    private static final class Generators {
+        private final World overworld = world("golden-overworld", Environment.NORMAL);
+        private final World nether = world("golden-nether", Environment.NETHER);
+        private final GlowChunkGenerator overworldGen = new OverworldGenerator();
+        private final GlowChunkGenerator netherGen = new NetherGenerator();
+        private final MapLayer overworldBiomes = MapLayer.initialize(SEED, Environment.NORMAL, WorldType.NORMAL)[0];
+        private final MapLayer netherBiomes = MapLayer.initialize(SEED, Environment.NETHER, WorldType.NORMAL)[0];
+
+        /**
+         * Generate every chunk of the test set, starting at a different
+         * chunk for each offset so that threads don't run in step.
+         * @return The hash of each chunk's sections, by chunk name.
+         */
+        private Map<String, String> generateAll(int offset) throws Exception {
+            Map<String, String> hashes = new TreeMap<>();
+            int count = CHUNKS * CHUNKS;
+            for (int n = 0; n < count; n++) {
+                int i = (n + offset) % count;
+                int x = CENTRE_X + i % CHUNKS - CHUNKS / 2;
+                int z = CENTRE_Z + i / CHUNKS - CHUNKS / 2;
+                hashes.put("overworld." + x + "," + z, generate(overworldGen, overworld, x, z, overworldBiomes, null));
+                hashes.put("nether." + x + "," + z, generate(netherGen, nether, x, z, netherBiomes, null));
+            }
+            for (int n = 0; n < GROUND_BIOMES.length; n++) {
+                Biome biome = GROUND_BIOMES[(n + offset) % GROUND_BIOMES.length];
+                for (int x = 5; x < 7; x++) {
+                    hashes.put(biome + "." + x + ",-10", generate(overworldGen, overworld, x, -10, null, biome));
+                }
+            }
+            return hashes;
+        }
+    }
+
+    /**
+     * Generate a chunk the way the chunk manager does, with the biomes of the
+     * given layer or the given biome everywhere, and hash its sections.
+     */
+    private static String generate(GlowChunkGenerator generator, World world, int x, int z, MapLayer biomes, Biome biome) throws Exception {
+        Random random = new Random((long) x * 341873128712L + (long) z * 132897987541L);
+        Grid grid = new Grid();
+        if (biome != null) {
+            for (int i = 0; i < grid.biomes.length; i++) {
+                grid.biomes[i] = biome;
+            }
+        } else {
+            int[] values = biomes.generateValues(x * 16, z * 16, 16, 16);
+            for (int i = 0; i < values.length; i++) {
+                grid.biomes[i] = GlowBiome.getBiome(values[i] & 0xFF);
+            }
+        }
+
+        short[][] sections = generator.generateExtBlockSectionsWithData(world, random, x, z, grid);
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        for (short[] section : sections) {
+            if (section == null) {
+                digest.update((byte) 0);
+                continue;
+            }
+            digest.update((byte) 1);
+            for (short type : section) {
+                digest.update((byte) (type >> 8));
+                digest.update((byte) type);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Build a world with only the state the generators read: its name, seed,
+     * environment and type. A real world needs a running server.
+     */
+    private static World world(final String name, final Environment environment) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getName":
+                        return name;
+                    case "getSeed":
+                        return SEED;
+                    case "getEnvironment":
+                        return environment;
+                    case "getWorldType":
+                        return WorldType.NORMAL;
+                    case "getSeaLevel":
+                        return 64;
+                    case "getMaxHeight":
+                        return 256;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return name;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        };
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class}, handler);
+    }
+
+    private static final class Grid implements BiomeGrid {
+        private final Biome[] biomes = new Biome[256];
+
+        @Override
+        public Biome getBiome(int x, int z) {
+            return biomes[x | (z << 4)];
+        }
+
+        @Override
+        public void setBiome(int x, int z, Biome bio) {
+            biomes[x | (z << 4)] = bio;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.glowstone.generator.biomegrid;
+
+import org.bukkit.World.Environment;
+import org.bukkit.WorldType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for {@link MapLayer}.
+ */
+public class MapLayerTest {
+
+    private static final long SEED = 1234567890L;
+    private static final int CHUNKS = 12;
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentMatchesSerial() throws Exception {
+        // the reference is generated by a layer stack no other thread touches
+        int[][] expected = generateAll(MapLayer.initialize(SEED, Environment.NORMAL, WorldType.NORMAL), 0);
+
+        final MapLayer[] shared = MapLayer.initialize(SEED, Environment.NORMAL, WorldType.NORMAL);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<int[][]>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int offset = i * 7;
+                results.add(executor.submit(new Callable<int[][]>() {
+                    @Override
+                    public int[][] call() {
+                        return generateAll(shared, offset);
+                    }
+                }));
+            }
+            for (Future<int[][]> result : results) {
+                int[][] actual = result.get();
+                for (int i = 0; i < expected.length; i++) {
+                    assertArrayEquals("values differ for chunk " + i, expected[i], actual[i]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate the full and lower resolution values for a square of chunks,
+     * starting at a different chunk for each offset so that threads don't
+     * run in step.
+     */
+    private static int[][] generateAll(MapLayer[] layers, int offset) {
+        int count = CHUNKS * CHUNKS;
+        int[][] values = new int[count * 2][];
+        for (int n = 0; n < count; n++) {
+            int i = (n + offset) % count;
+            int x = i % CHUNKS - CHUNKS / 2;
+            int z = i / CHUNKS - CHUNKS / 2;
+            values[i * 2] = layers[0].generateValues(x * 16, z * 16, 16, 16);
+            values[i * 2 + 1] = layers[1].generateValues(x * 4 - 2, z * 4 - 2, 10, 10);
+        }
+        return values;
+    }
+}
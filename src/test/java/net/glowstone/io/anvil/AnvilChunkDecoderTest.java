@@ -0,0 +1,102 @@
+package net.glowstone.io.anvil;
+
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.io.ChunkIoService.DecodedChunk;
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NBTOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AnvilChunkDecoder}.
+ */
+public class AnvilChunkDecoderTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        Random random = new Random(42);
+        byte[] blocks = new byte[4096], data = new byte[2048], add = new byte[2048];
+        byte[] skyLight = new byte[2048], blockLight = new byte[2048];
+        random.nextBytes(blocks);
+        random.nextBytes(data);
+        random.nextBytes(add);
+        random.nextBytes(blockLight);
+        Arrays.fill(skyLight, (byte) 0xff);
+
+        CompoundTag section = new CompoundTag();
+        section.putByte("Y", 3);
+        // Add before Blocks, to check the arrays are merged in any order
+        section.putByteArray("Add", add);
+        section.putByteArray("Blocks", blocks);
+        section.putByteArray("Data", data);
+        section.putByteArray("BlockLight", blockLight);
+        section.putByteArray("SkyLight", skyLight);
+        section.putString("Unknown", "skipped");
+
+        CompoundTag entity = new CompoundTag();
+        entity.putString("id", "Pig");
+        byte[] biomes = new byte[256];
+        random.nextBytes(biomes);
+        int[] heightMap = new int[256];
+        Arrays.fill(heightMap, 64);
+
+        CompoundTag level = new CompoundTag();
+        level.putInt("xPos", 1);
+        level.putCompoundList("Sections", Collections.singletonList(section));
+        level.putByteArray("Biomes", biomes);
+        level.putIntArray("HeightMap", heightMap);
+        level.putBool("TerrainPopulated", true);
+        level.putCompoundList("Entities", Collections.singletonList(entity));
+        level.putCompoundList("TileEntities", new ArrayList<CompoundTag>());
+        CompoundTag root = new CompoundTag();
+        root.putCompound("Level", level);
+
+        DecodedChunk chunk = AnvilChunkDecoder.decode(new ByteArrayInputStream(write(root)));
+
+        ChunkSection[] sections = chunk.getSections();
+        for (int y = 0; y < sections.length; ++y) {
+            assertEquals("section " + y, y == 3, sections[y] != null);
+        }
+        for (int i = 0; i < 4096; ++i) {
+            int expected = (nibble(add, i) << 12) | ((blocks[i] & 0xff) << 4) | nibble(data, i);
+            assertEquals("type " + i, expected, sections[3].getType(i));
+            assertEquals("block light " + i, nibble(blockLight, i), sections[3].blockLight.get(i));
+            assertEquals("sky light " + i, 15, sections[3].skyLight.get(i));
+        }
+
+        assertArrayEquals(biomes, chunk.getBiomes());
+        assertArrayEquals(heightMap, chunk.getHeightMap());
+        assertTrue(chunk.isPopulated());
+        List<CompoundTag> entities = chunk.getEntities();
+        assertEquals(1, entities.size());
+        assertEquals("Pig", entities.get(0).getString("id"));
+        assertTrue(chunk.getTileEntities().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingLevel() throws IOException {
+        AnvilChunkDecoder.decode(new ByteArrayInputStream(write(new CompoundTag())));
+    }
+
+    private static int nibble(byte[] array, int index) {
+        return index % 2 == 0 ? array[index / 2] & 0xf : (array[index / 2] >> 4) & 0xf;
+    }
+
+    private static byte[] write(CompoundTag root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(bytes, false)) {
+            out.writeTag(root);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package net.glowstone.io.anvil;
+
+import net.glowstone.ChunkTestUtils;
+import net.glowstone.GlowChunk;
+import net.glowstone.GlowChunk.ChunkSection;
+import net.glowstone.io.ChunkIoService.DecodedChunk;
+import net.glowstone.util.NibbleArray;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AnvilChunkEncoder}.
+ */
+public class AnvilChunkEncoderTest {
+
+    /**
+     * Block ids without tile entities, including one which needs the Add
+     * array.
+     */
+    private static final int[] IDS = {1, 3, 300};
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(42);
+        ChunkSection[] sections = new ChunkSection[16];
+        sections[0] = section(random);
+        sections[5] = section(random);
+
+        GlowChunk chunk = ChunkTestUtils.newChunk(3, -7);
+        chunk.initializeSections(sections);
+        chunk.setPopulated(true);
+        byte[] biomes = new byte[256];
+        random.nextBytes(biomes);
+        chunk.setBiomes(biomes);
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; ++i) {
+            heightMap[i] = random.nextInt(256);
+        }
+        chunk.setHeightMap(heightMap);
+
+        // encode twice, so the second encoding reuses the thread's buffers
+        AnvilChunkEncoder.encode(chunk, Deflater.BEST_COMPRESSION);
+        byte[] encoded = AnvilChunkEncoder.encode(chunk, Deflater.BEST_SPEED);
+        DecodedChunk decoded = AnvilChunkDecoder.decode(new InflaterInputStream(new ByteArrayInputStream(encoded)));
+
+        assertTrue(decoded.isPopulated());
+        assertArrayEquals(biomes, decoded.getBiomes());
+        assertArrayEquals(heightMap, decoded.getHeightMap());
+        assertTrue(decoded.getEntities().isEmpty());
+        assertTrue(decoded.getTileEntities().isEmpty());
+
+        ChunkSection[] result = decoded.getSections();
+        for (int y = 0; y < sections.length; ++y) {
+            if (sections[y] == null) {
+                assertNull("section " + y, result[y]);
+                continue;
+            }
+            assertArrayEquals("section " + y, sections[y].getTypes(), result[y].getTypes());
+            assertArrayEquals(sections[y].skyLight.getRawDataReadOnly(), result[y].skyLight.getRawDataReadOnly());
+            assertArrayEquals(sections[y].blockLight.getRawDataReadOnly(), result[y].blockLight.getRawDataReadOnly());
+        }
+    }
+
+    private static ChunkSection section(Random random) {
+        char[] types = new char[4096];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = (char) (IDS[random.nextInt(IDS.length)] << 4 | random.nextInt(16));
+        }
+        byte[] skyLight = new byte[2048], blockLight = new byte[2048];
+        random.nextBytes(skyLight);
+        random.nextBytes(blockLight);
+        return new ChunkSection(types, new NibbleArray(skyLight), new NibbleArray(blockLight));
+    }
+}
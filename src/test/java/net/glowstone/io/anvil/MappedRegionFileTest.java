@@ -0,0 +1,166 @@
+package net.glowstone.io.anvil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MappedRegionFile}.
+ */
+public class MappedRegionFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "r.0.0.mca");
+        MappedRegionFile region = new MappedRegionFile(file);
+        assertFalse(region.hasChunk(3, 4));
+        assertNull(region.getChunkDataInputStream(3, 4));
+
+        byte[] data = randomData(1, 10000);
+        write(region, 3, 4, data);
+        assertTrue(region.hasChunk(3, 4));
+        assertArrayEquals(data, read(region, 3, 4));
+        region.close();
+
+        region = new MappedRegionFile(file);
+        assertArrayEquals(data, read(region, 3, 4));
+        region.close();
+        assertEquals(0, file.length() % 4096);
+    }
+
+    @Test
+    public void testCompatibleWithRegionFile() throws IOException {
+        File file = new File(folder.getRoot(), "r.0.0.mca");
+        byte[] first = randomData(2, 5000), second = randomData(3, 50000);
+
+        RegionFile stream = new RegionFile(file);
+        write(stream, 0, 0, first);
+        stream.close();
+
+        MappedRegionFile mapped = new MappedRegionFile(file);
+        assertArrayEquals(first, read(mapped, 0, 0));
+        write(mapped, 31, 31, second);
+        mapped.close();
+
+        stream = new RegionFile(file);
+        assertArrayEquals(first, read(stream, 0, 0));
+        assertArrayEquals(second, read(stream, 31, 31));
+        stream.close();
+    }
+
+    @Test
+    public void testGrowAndReuseSectors() throws IOException {
+        File file = new File(folder.getRoot(), "r.0.0.mca");
+        MappedRegionFile region = new MappedRegionFile(file);
+        byte[] small = randomData(4, 100), large = randomData(5, 60000), other = randomData(6, 100);
+
+        write(region, 0, 0, small);
+        write(region, 1, 0, other);
+        // the chunk no longer fits in its sector and moves past the other chunk
+        write(region, 0, 0, large);
+        assertArrayEquals(large, read(region, 0, 0));
+        assertArrayEquals(other, read(region, 1, 0));
+        long length = file.length();
+
+        // the freed sector is reused rather than growing the file
+        write(region, 2, 0, small);
+        assertArrayEquals(small, read(region, 2, 0));
+        assertEquals(length, file.length());
+        region.close();
+    }
+
+    @Test
+    public void testSyncedWrites() throws IOException {
+        testSyncedWrites(false);
+        testSyncedWrites(true);
+    }
+
+    private void testSyncedWrites(boolean mapped) throws IOException {
+        File file = new File(folder.getRoot(), "r." + mapped + ".mca");
+        RegionStorage region = mapped ? new MappedRegionFile(file, true) : new RegionFile(file, true);
+        byte[] first = randomData(7, 100), second = randomData(8, 100);
+
+        write(region, 5, 5, first);
+        assertArrayEquals(first, read(region, 5, 5));
+        // nothing is on disk until the region is synced
+        assertFalse(readOnDisk(file, 5, 5, null));
+        assertTrue(region.sync());
+        assertTrue(readOnDisk(file, 5, 5, first));
+        assertTrue(region.sync());
+        assertFalse(region.sync());
+
+        // a rewrite of the same size does not touch the sectors on disk
+        write(region, 5, 5, second);
+        assertArrayEquals(second, read(region, 5, 5));
+        assertTrue(readOnDisk(file, 5, 5, first));
+        write(region, 6, 5, first);
+        assertTrue(readOnDisk(file, 5, 5, first));
+        assertTrue(region.sync());
+        assertTrue(readOnDisk(file, 5, 5, second));
+        assertTrue(readOnDisk(file, 6, 5, first));
+        region.close();
+    }
+
+    /**
+     * Open the region file separately, as after a crash, and check what a
+     * chunk holds on disk.
+     * @return Whether the chunk is stored, and holds the expected data if
+     * any was given.
+     */
+    private static boolean readOnDisk(File file, int x, int z, byte[] expected) throws IOException {
+        RegionFile disk = new RegionFile(file);
+        try {
+            if (!disk.hasChunk(x, z)) {
+                return false;
+            }
+            if (expected != null) {
+                assertArrayEquals(expected, read(disk, x, z));
+            }
+            return true;
+        } finally {
+            disk.close();
+        }
+    }
+
+    /**
+     * Random bytes which compress to roughly the length given.
+     */
+    private static byte[] randomData(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void write(RegionStorage region, int x, int z, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))) {
+            out.write(data);
+        }
+        region.write(x, z, bytes.toByteArray(), bytes.size());
+    }
+
+    private static byte[] read(RegionStorage region, int x, int z) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataInputStream in = region.getChunkDataInputStream(x, z)) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+package net.glowstone.io.anvil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RegionFileCache}.
+ */
+public class RegionFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        RegionFileCache cache = new RegionFileCache(folder.getRoot(), ".mca", 4, false);
+        long hits = RegionFileCache.getHits(), misses = RegionFileCache.getMisses();
+
+        RegionStorage first = cache.acquire(0, 0);
+        cache.release(0, 0);
+        // another chunk in the same region
+        assertSame(first, cache.acquire(31, 31));
+        cache.release(31, 31);
+
+        assertEquals(hits + 1, RegionFileCache.getHits());
+        assertEquals(misses + 1, RegionFileCache.getMisses());
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        RegionFileCache cache = new RegionFileCache(folder.getRoot(), ".mca", 2, false);
+        long evictions = RegionFileCache.getEvictions();
+
+        RegionStorage a = open(cache, 0);
+        open(cache, 1);
+        // touch region 0 so that region 1 is the oldest
+        assertSame(a, open(cache, 0));
+        open(cache, 2);
+
+        assertEquals(2, cache.size());
+        assertEquals(evictions + 1, RegionFileCache.getEvictions());
+        assertSame(a, open(cache, 0));
+        cache.clear();
+    }
+
+    @Test
+    public void testPinnedNotEvicted() throws IOException {
+        RegionFileCache cache = new RegionFileCache(folder.getRoot(), ".mca", 1, false);
+
+        RegionStorage pinned = cache.acquire(0, 0);
+        // opening another region overflows rather than closing the pinned one
+        cache.acquire(32, 0);
+        assertEquals(2, cache.size());
+
+        // once unpinned, the other region is closed to get back to capacity
+        cache.release(32, 0);
+        assertEquals(1, cache.size());
+        assertSame(pinned, cache.acquire(0, 0));
+        cache.release(0, 0);
+        cache.release(0, 0);
+        cache.clear();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseUnpinned() throws IOException {
+        RegionFileCache cache = new RegionFileCache(folder.getRoot(), ".mca", 1, false);
+        open(cache, 0);
+        cache.release(0, 0);
+    }
+
+    /**
+     * Acquire and release the region with the given X coordinate.
+     */
+    private static RegionStorage open(RegionFileCache cache, int regionX) throws IOException {
+        RegionStorage region = cache.acquire(regionX << 5, 0);
+        cache.release(regionX << 5, 0);
+        return region;
+    }
+}
@@ -0,0 +1,136 @@
+package net.glowstone.net.pipeline;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CompressionHandler}.
+ */
+public class CompressionHandlerTest {
+
+    private static final int THRESHOLD = 256;
+    private static final int OFFLOAD_SIZE = 4096;
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        for (int size : new int[] {10, THRESHOLD, 300, 20000, 300000}) {
+            byte[] data = compressible(random, size);
+            for (ByteBuf msg : new ByteBuf[] {
+                    Unpooled.wrappedBuffer(data),
+                    Unpooled.directBuffer(size).writeBytes(data),
+                    Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(data, 0, size / 2),
+                            Unpooled.directBuffer(size).writeBytes(data, size / 2, size - size / 2))}) {
+                ByteBuf wire = roundTrip(msg);
+                assertEquals("size " + size, Unpooled.wrappedBuffer(data), wire);
+                assertEquals(0, msg.refCnt());
+                wire.release();
+            }
+        }
+    }
+
+    @Test
+    public void testOffloadKeepsOrder() throws Exception {
+        LocalEventLoopGroup group = new LocalEventLoopGroup(1);
+        CompressionPool pool = new CompressionPool(2, 4);
+        final BlockingQueue<ByteBuf> received = new LinkedBlockingQueue<>();
+        try {
+            LocalAddress address = new LocalAddress("compression-test");
+            new ServerBootstrap()
+                    .group(group)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            received.add((ByteBuf) msg);
+                        }
+                    })
+                    .bind(address).sync();
+            Channel channel = new Bootstrap()
+                    .group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new CompressionHandler(THRESHOLD, Deflater.DEFAULT_COMPRESSION, pool, OFFLOAD_SIZE))
+                    .connect(address).sync().channel();
+
+            // large and small messages interleaved, more large ones than the pool queues
+            Random random = new Random(2);
+            List<byte[]> sent = new ArrayList<>();
+            for (int i = 0; i < 40; ++i) {
+                sent.add(compressible(random, i % 3 == 0 ? OFFLOAD_SIZE * (1 + random.nextInt(8)) : random.nextInt(OFFLOAD_SIZE)));
+            }
+            long offloaded = CompressionHandler.getOffloaded() + CompressionHandler.getOffloadsRejected();
+            ChannelFuture last = null;
+            for (byte[] data : sent) {
+                last = channel.writeAndFlush(Unpooled.wrappedBuffer(data));
+            }
+            assertTrue(last.await(10, TimeUnit.SECONDS));
+            assertTrue(last.isSuccess());
+            assertEquals(14, CompressionHandler.getOffloaded() + CompressionHandler.getOffloadsRejected() - offloaded);
+
+            EmbeddedChannel decoder = new EmbeddedChannel(new CompressionHandler(THRESHOLD));
+            for (byte[] data : sent) {
+                ByteBuf wire = received.poll(10, TimeUnit.SECONDS);
+                assertNotNull(wire);
+                decoder.writeInbound(wire);
+                ByteBuf decoded = (ByteBuf) decoder.readInbound();
+                assertEquals(Unpooled.wrappedBuffer(data), decoded);
+                decoded.release();
+            }
+            assertNull(received.poll());
+            channel.close().sync();
+        } finally {
+            pool.shutdown();
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Compress a message through one handler and decompress it through
+     * another, as it would be sent and received.
+     */
+    private static ByteBuf roundTrip(ByteBuf msg) {
+        EmbeddedChannel sender = new EmbeddedChannel(new CompressionHandler(THRESHOLD));
+        sender.writeOutbound(msg);
+        ByteBuf sent = (ByteBuf) sender.readOutbound();
+        // as framed and read from the socket
+        ByteBuf wire = Unpooled.directBuffer(sent.readableBytes()).writeBytes(sent);
+        sent.release();
+
+        EmbeddedChannel receiver = new EmbeddedChannel(new CompressionHandler(THRESHOLD));
+        receiver.writeInbound(wire);
+        return (ByteBuf) receiver.readInbound();
+    }
+
+    /**
+     * Generate data which compresses to less than its size.
+     */
+    private static byte[] compressible(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) random.nextInt(4);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,55 @@
+package net.glowstone.net.pipeline;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link FlushHandler}.
+ */
+public class FlushHandlerTest {
+
+    private static final int MESSAGES = 40;
+
+    @Test
+    public void testFlushEach() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushHandler(0));
+        long before = FlushHandler.getFlushes();
+        for (int i = 0; i < MESSAGES; ++i) {
+            channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[100]));
+        }
+        assertEquals(MESSAGES, FlushHandler.getFlushes() - before);
+        channel.finish();
+    }
+
+    @Test
+    public void testCoalesced() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushHandler(0));
+        long before = FlushHandler.getFlushes();
+        for (int i = 0; i < MESSAGES; ++i) {
+            channel.write(Unpooled.wrappedBuffer(new byte[100]));
+        }
+        assertNull(channel.readOutbound());
+        channel.flush();
+        // flushing again with nothing written does not count
+        channel.flush();
+        assertEquals(1, FlushHandler.getFlushes() - before);
+        assertEquals(MESSAGES, channel.outboundMessages().size());
+        channel.finish();
+    }
+
+    @Test
+    public void testThreshold() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushHandler(1000));
+        long before = FlushHandler.getFlushes();
+        for (int i = 0; i < MESSAGES; ++i) {
+            channel.write(Unpooled.wrappedBuffer(new byte[100]));
+        }
+        // flushed after every tenth message
+        assertEquals(MESSAGES / 10, FlushHandler.getFlushes() - before);
+        assertEquals(MESSAGES, channel.outboundMessages().size());
+        channel.finish();
+    }
+}
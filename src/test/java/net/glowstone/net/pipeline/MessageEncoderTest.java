@@ -0,0 +1,77 @@
+package net.glowstone.net.pipeline;
+
+import com.flowpowered.networking.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.glowstone.net.message.play.game.PluginMessage;
+import net.glowstone.net.message.play.game.TimeMessage;
+import net.glowstone.net.protocol.GlowProtocol;
+import net.glowstone.net.protocol.ProtocolType;
+import org.junit.Test;
+
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageEncoder} and {@link EncodedMessageHandler}.
+ */
+public class MessageEncoderTest {
+
+    private static final GlowProtocol PLAY = ProtocolType.PLAY.getProtocol();
+
+    @Test
+    public void testSameAsPipeline() throws Exception {
+        Message[] messages = {
+                new TimeMessage(1234, 5678),
+                new PluginMessage("MC|Test", new byte[1000]),
+        };
+        for (int threshold : new int[] {-1, 0, 256}) {
+            for (Message message : messages) {
+                EncodedMessage encoded = MessageEncoder.encode(UnpooledByteBufAllocator.DEFAULT, PLAY, message, threshold, Deflater.DEFAULT_COMPRESSION);
+                try {
+                    assertEquals(message + " at " + threshold, pipelineBytes(message, threshold), encoded.content());
+                } finally {
+                    encoded.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharedBytesReleased() throws Exception {
+        EncodedMessage encoded = MessageEncoder.encode(UnpooledByteBufAllocator.DEFAULT, PLAY, new TimeMessage(1, 2), -1, Deflater.DEFAULT_COMPRESSION);
+        ByteBuf expected = encoded.content().copy();
+        EmbeddedChannel first = newChannel(-1), second = newChannel(-1);
+        first.writeAndFlush(encoded.duplicate().retain());
+        second.writeAndFlush(encoded.duplicate().retain());
+        encoded.release();
+
+        // each channel writes the same bytes, and the last to finish frees them
+        for (EmbeddedChannel channel : new EmbeddedChannel[] {first, second}) {
+            assertTrue(encoded.refCnt() > 0);
+            ByteBuf written = (ByteBuf) channel.readOutbound();
+            assertEquals(expected, written);
+            written.release();
+        }
+        assertEquals(0, encoded.refCnt());
+    }
+
+    /**
+     * Encode a message through the handlers of a connection.
+     */
+    private static ByteBuf pipelineBytes(Message message, int threshold) {
+        EmbeddedChannel channel = newChannel(threshold);
+        channel.writeAndFlush(message);
+        return (ByteBuf) channel.readOutbound();
+    }
+
+    private static EmbeddedChannel newChannel(int threshold) {
+        return new EmbeddedChannel(
+                EncodedMessageHandler.INSTANCE,
+                new FramingHandler(),
+                threshold >= 0 ? new CompressionHandler(threshold) : NoopHandler.INSTANCE,
+                new CodecsHandler(PLAY));
+    }
+}
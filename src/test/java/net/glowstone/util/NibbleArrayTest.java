@@ -0,0 +1,74 @@
+package net.glowstone.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link NibbleArray}.
+ */
+public class NibbleArrayTest {
+
+    private static final int SIZE = 4096;
+
+    @Test
+    public void testGetSet() {
+        NibbleArray array = new NibbleArray(8);
+        array.set(0, (byte) 1);
+        array.set(1, (byte) 5);
+        array.set(2, (byte) 8);
+        array.set(3, (byte) 15);
+        assertArrayEquals(new byte[] {0x51, (byte) 0xf8, 0, 0}, array.getRawData());
+        assertEquals(5, array.get(1));
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        NibbleArray first = new NibbleArray(SIZE);
+        NibbleArray second = new NibbleArray(SIZE);
+        first.fill((byte) 15);
+        second.fill((byte) 15);
+        assertTrue(first.isShared());
+        assertTrue(second.isShared());
+
+        // writing the value already there does not copy
+        first.set(7, (byte) 15);
+        assertTrue(first.isShared());
+
+        first.set(7, (byte) 3);
+        assertFalse(first.isShared());
+        assertEquals(3, first.get(7));
+        assertEquals(15, second.get(7));
+    }
+
+    @Test
+    public void testSnapshotIsIndependent() {
+        NibbleArray array = new NibbleArray(SIZE);
+        NibbleArray snapshot = array.snapshot();
+        array.set(0, (byte) 9);
+        assertEquals(0, snapshot.get(0));
+        assertTrue(snapshot.isShared());
+    }
+
+    @Test
+    public void testCompact() {
+        byte[] full = new byte[SIZE / 2];
+        Arrays.fill(full, (byte) 0xff);
+        assertTrue(NibbleArray.compact(full).isShared());
+        assertTrue(NibbleArray.compact(new byte[SIZE / 2]).isShared());
+
+        full[100] = 0x0f;
+        NibbleArray mixed = NibbleArray.compact(full);
+        assertFalse(mixed.isShared());
+        assertEquals(0, mixed.get(201));
+    }
+
+    @Test
+    public void testRawDataIsPrivate() {
+        NibbleArray first = new NibbleArray(SIZE);
+        first.getRawData()[0] = 0x11;
+        assertEquals(0, new NibbleArray(SIZE).get(0));
+    }
+}
@@ -0,0 +1,80 @@
+package net.glowstone.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PalettedArray}.
+ */
+public class PalettedArrayTest {
+
+    private static final int SIZE = 4096;
+
+    @Test
+    public void testUniform() {
+        PalettedArray array = new PalettedArray(SIZE);
+        assertTrue(array.isUniform());
+        assertEquals(0, array.getBitsPerEntry());
+        assertEquals(0, array.countNonZero());
+        assertEquals(0, array.get(1234));
+
+        // setting the existing value keeps the fast path
+        array.set(10, (char) 0);
+        assertTrue(array.isUniform());
+
+        char[] stone = new char[SIZE];
+        Arrays.fill(stone, (char) (1 << 4));
+        array = new PalettedArray(stone);
+        assertTrue(array.isUniform());
+        assertEquals(SIZE, array.countNonZero());
+    }
+
+    @Test
+    public void testGrowth() {
+        PalettedArray array = new PalettedArray(SIZE);
+        for (int i = 0; i < 300; ++i) {
+            array.set(i, (char) (i + 1));
+            assertEquals((char) (i + 1), array.get(i));
+            assertEquals(0, array.get(i + 1));
+        }
+        assertEquals(16, array.getBitsPerEntry());
+        assertEquals(300, array.countNonZero());
+    }
+
+    @Test
+    public void testUnusedValuesAreDropped() {
+        PalettedArray array = new PalettedArray(SIZE);
+        // cycle through many values in one slot; the palette should not fill up
+        for (int i = 1; i < 1000; ++i) {
+            array.set(0, (char) i);
+        }
+        assertEquals(999, array.get(0));
+        assertTrue(array.getBitsPerEntry() <= 2);
+    }
+
+    @Test
+    public void testMatchesPlainArray() {
+        Random random = new Random(7);
+        char[] expected = new char[SIZE];
+        PalettedArray array = new PalettedArray(SIZE);
+        for (int i = 0; i < 50000; ++i) {
+            int index = random.nextInt(SIZE);
+            char value = (char) (random.nextInt(20) << 4 | random.nextInt(3));
+            expected[index] = value;
+            array.set(index, value);
+        }
+        assertArrayEquals(expected, array.toArray());
+        assertArrayEquals(expected, new PalettedArray(expected).toArray());
+        assertArrayEquals(expected, array.snapshot().toArray());
+        assertTrue(array.getMemoryUsage() < SIZE * 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSize() {
+        new PalettedArray(100);
+    }
+}
@@ -0,0 +1,85 @@
+package net.glowstone.util.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BoundedMpscQueue}.
+ */
+public class BoundedMpscQueueTest {
+
+    @Test
+    public void testBounded() {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(5);
+        assertEquals(5, queue.capacity());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        // wrap around the ring buffer a few times
+        for (int round = 0; round < 4; ++round) {
+            for (int i = 0; i < 5; ++i) {
+                assertTrue(queue.offer(round * 10 + i));
+            }
+            assertFalse(queue.offer(-1));
+            assertEquals(5, queue.size());
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(Integer.valueOf(round * 10 + i), queue.poll());
+            }
+            assertEquals(2, queue.size());
+            assertTrue(queue.offer(100));
+            assertEquals(Integer.valueOf(round * 10 + 3), queue.poll());
+            assertEquals(Integer.valueOf(round * 10 + 4), queue.poll());
+            assertEquals(Integer.valueOf(100), queue.poll());
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4, count = 100000;
+        final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(64);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        while (!queue.offer(producer * count + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        // each producer's elements arrive in order and none are lost
+        int[] next = new int[producers];
+        for (int received = 0; received < producers * count; ) {
+            Integer element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue(queue.size() <= queue.capacity());
+            int producer = element / count;
+            assertEquals(next[producer]++, element % count);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNull() {
+        new BoundedMpscQueue<>(1).offer(null);
+    }
+}
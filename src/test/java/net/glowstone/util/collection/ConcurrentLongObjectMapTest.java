@@ -0,0 +1,125 @@
+package net.glowstone.util.collection;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ConcurrentLongObjectMap}.
+ */
+public class ConcurrentLongObjectMapTest {
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(key(1, -1), "a"));
+        assertNull(map.put(key(-1, 1), "b"));
+        assertEquals("a", map.put(key(1, -1), "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(key(1, -1)));
+        assertEquals("b", map.get(key(-1, 1)));
+        assertNull(map.get(key(1, 1)));
+        assertFalse(map.containsKey(key(0, 0)));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+        assertNull(map.putIfAbsent(5, "a"));
+        assertEquals("a", map.putIfAbsent(5, "b"));
+        assertEquals("a", map.get(5));
+    }
+
+    @Test
+    public void testRemove() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        assertFalse(map.remove(1, "b"));
+        assertTrue(map.remove(1, "a"));
+        assertNull(map.get(1));
+        assertEquals("b", map.remove(2));
+        assertNull(map.remove(2));
+        assertTrue(map.isEmpty());
+
+        // removed slots are reused
+        map.put(1, "c");
+        assertEquals("c", map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        ConcurrentLongObjectMap<Integer> map = new ConcurrentLongObjectMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; ++i) {
+            long key = key(random.nextInt(64) - 32, random.nextInt(64) - 32);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        int count = 0;
+        for (ConcurrentLongObjectMap.Entry<Integer> entry : map) {
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+        final int stable = 1000;
+        for (long i = 0; i < stable; ++i) {
+            map.put(i, i);
+        }
+
+        final boolean[] failed = new boolean[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int pass = 0; pass < 200; ++pass) {
+                    for (long i = 0; i < stable; ++i) {
+                        Long value = map.get(i);
+                        if (value == null || value != i) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        // churn other keys, forcing the table to be resized and rehashed
+        for (long i = stable; i < stable * 50; ++i) {
+            map.put(i, i);
+            if (i - 10 >= stable) {
+                map.remove(i - 10);
+            }
+        }
+        reader.join();
+
+        assertFalse("reader saw a missing or wrong value", failed[0]);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new ConcurrentLongObjectMap<String>().put(1, null);
+    }
+}
@@ -0,0 +1,99 @@
+package net.glowstone.util.nbt;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests for {@link NBTByteBufCodec}.
+ */
+public class NbtByteBufTest {
+
+    @Test
+    public void bigTest() throws IOException {
+        CompoundTag original = readBigTest();
+        ByteBuf buf = Unpooled.buffer();
+        NBTByteBufCodec.writeCompound(buf, original);
+        buf.writeByte(42);
+
+        // the same bytes as the stream writer, and nothing after them is read
+        Assert.assertArrayEquals(writeStream(original), copy(buf, buf.readableBytes() - 1));
+        CompoundTag read = NBTByteBufCodec.readCompound(buf);
+        Assert.assertEquals(42, buf.readByte());
+        Checks.checkBigTest(read);
+    }
+
+    @Test
+    public void lazyWriteBack() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        NBTByteBufCodec.writeCompound(buf, readBigTest());
+        byte[] expected = copy(buf, buf.readableBytes());
+
+        CompoundTag read = NBTByteBufCodec.readCompound(buf);
+        Assert.assertEquals("Eggbert", read.getCompound("nested compound test").getCompound("egg").getString("name"));
+        buf.clear();
+        NBTByteBufCodec.writeCompound(buf, read);
+        Assert.assertArrayEquals(expected, copy(buf, buf.readableBytes()));
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        NBTByteBufCodec.writeCompound(buf, readBigTest());
+        for (int length : new int[] {1, 3, 100, buf.readableBytes() - 1}) {
+            try {
+                NBTByteBufCodec.readCompound(buf.slice(0, length));
+                Assert.fail("Read compound truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void tooDeep() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(TagType.COMPOUND.getId());
+        buf.writeShort(0);
+        buf.writeByte(TagType.LIST.getId());
+        buf.writeShort(0);
+        // lists of one list, nested past the limit
+        for (int i = 0; i < 1000; ++i) {
+            buf.writeByte(TagType.LIST.getId());
+            buf.writeInt(1);
+        }
+        try {
+            NBTByteBufCodec.readCompound(buf);
+            Assert.fail("Read deeply nested compound");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("nested"));
+        }
+    }
+
+    private CompoundTag readBigTest() throws IOException {
+        InputStream raw = getClass().getResourceAsStream("/nbt/bigtest.nbt");
+        Assert.assertNotNull("Failed to get test resource /nbt/bigtest.nbt", raw);
+        try (NBTInputStream in = new NBTInputStream(raw)) {
+            return in.readCompound();
+        }
+    }
+
+    private byte[] writeStream(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(bytes, false)) {
+            out.writeTag(tag);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] copy(ByteBuf buf, int length) {
+        byte[] result = new byte[length];
+        buf.getBytes(buf.readerIndex(), result);
+        return result;
+    }
+}
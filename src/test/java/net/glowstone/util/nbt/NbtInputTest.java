@@ -3,11 +3,18 @@ package net.glowstone.util.nbt;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Tests for {@link NBTInputStream} and reading from {@link CompoundTag}s.
+ * Tests for {@link NBTInputStream}, reading from {@link CompoundTag}s and
+ * visiting with an {@link NBTVisitor}.
  */
 public class NbtInputTest {
 
@@ -29,4 +36,84 @@ public class NbtInputTest {
         }
     }
 
+    @Test
+    public void lazyBigTest() throws IOException {
+        InputStream raw = getClass().getResourceAsStream("/nbt/bigtest.nbt");
+        Assert.assertNotNull("Failed to get test resource /nbt/bigtest.nbt", raw);
+        try (NBTInputStream in = new NBTInputStream(raw)) {
+            Checks.checkBigTest(in.readLazyCompound());
+        }
+    }
+
+    @Test
+    public void visitBigTest() throws IOException {
+        InputStream raw = getClass().getResourceAsStream("/nbt/bigtest.nbt");
+        Assert.assertNotNull("Failed to get test resource /nbt/bigtest.nbt", raw);
+
+        final List<Long> longs = new ArrayList<>();
+        final Map<String, Object> values = new HashMap<>();
+        final int[] ends = new int[1];
+        try (NBTInputStream in = new NBTInputStream(raw)) {
+            in.readCompound(new NBTVisitor() {
+                @Override
+                public boolean wantsTag(String name, TagType type) {
+                    return "nested compound test".equals(name);
+                }
+
+                @Override
+                public void visitTag(String name, Tag tag) {
+                    values.put(name, tag);
+                }
+
+                @Override
+                public NBTVisitor visitList(String name, TagType type, int length) {
+                    // the compound list is skipped
+                    if (type != TagType.LONG) {
+                        return null;
+                    }
+                    return new NBTVisitor() {
+                        @Override
+                        public void visitLong(String name, long value) {
+                            Assert.assertNull(name);
+                            longs.add(value);
+                        }
+                    };
+                }
+
+                @Override
+                public void visitInt(String name, int value) {
+                    values.put(name, value);
+                }
+
+                @Override
+                public void visitString(String name, String value) {
+                    values.put(name, value);
+                }
+
+                @Override
+                public boolean visitByteArray(String name, int length, DataInput in) throws IOException {
+                    // longer arrays are left for the reader to skip
+                    if (length > 2) {
+                        return false;
+                    }
+                    in.skipBytes(length);
+                    return true;
+                }
+
+                @Override
+                public void visitEnd() {
+                    ends[0]++;
+                }
+            });
+        }
+
+        Assert.assertEquals(Arrays.asList(11L, 12L, 13L, 14L, 15L), longs);
+        Assert.assertEquals(2147483647, values.get("intTest"));
+        Assert.assertEquals("HELLO WORLD THIS IS A TEST STRING \u00c5\u00c4\u00d6!", values.get("stringTest"));
+        CompoundTag nested = (CompoundTag) values.get("nested compound test");
+        Assert.assertEquals("Eggbert", nested.getCompound("egg").getString("name"));
+        // the long list ends on its own visitor
+        Assert.assertEquals(1, ends[0]);
+    }
+
 }
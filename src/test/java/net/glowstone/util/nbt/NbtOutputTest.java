@@ -1,12 +1,17 @@
 package net.glowstone.util.nbt;
 
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Tests for {@link NBTOutputStream} and constructing {@link CompoundTag}s.
@@ -75,6 +80,66 @@ public class NbtOutputTest {
         Checks.checkBigTest(saveLoad(compound));
     }
 
+    @Test
+    public void lazyUnmodified() throws IOException {
+        byte[] original = readBigTest();
+        CompoundTag compound = readLazy(original);
+        // reading entries and nested compounds does not change the bytes
+        Assert.assertEquals(2147483647, compound.getInt("intTest"));
+        Assert.assertEquals("Eggbert", compound.getCompound("nested compound test").getCompound("egg").getString("name"));
+        Assert.assertTrue(compound.isList("listTest (compound)", TagType.COMPOUND));
+        // nor does comparing, hashing, printing or copying out a list
+        CompoundTag nested = readLazy(original).getCompound("nested compound test");
+        Assert.assertEquals(nested, compound.getCompound("nested compound test"));
+        Assert.assertEquals(nested.hashCode(), compound.getCompound("nested compound test").hashCode());
+        Assert.assertNotNull(compound.toString());
+        Assert.assertEquals(5, compound.getList("listTest (long)", TagType.LONG).size());
+        Assert.assertTrue(compound.isUnmodified());
+        // the root is written without its name
+        int nameLength = ((original[1] & 0xff) << 8) | (original[2] & 0xff);
+        byte[] written = write(compound);
+        Assert.assertArrayEquals(Arrays.copyOfRange(original, 3 + nameLength, original.length),
+                Arrays.copyOfRange(written, 3, written.length));
+    }
+
+    @Test
+    public void lazyModified() throws IOException {
+        CompoundTag compound = readLazy(readBigTest());
+        compound.getCompound("nested compound test").getCompound("ham").putString("name", "Hamlet");
+        compound.getCompoundList("listTest (compound)").get(1).putLong("created-on", 0);
+
+        CompoundTag result = readLazy(write(compound));
+        CompoundTag nested = result.getCompound("nested compound test");
+        Assert.assertEquals("Hamlet", nested.getCompound("ham").getString("name"));
+        Assert.assertEquals("Eggbert", nested.getCompound("egg").getString("name"));
+        List<CompoundTag> list = result.getCompoundList("listTest (compound)");
+        Assert.assertEquals(1264099775885L, list.get(0).getLong("created-on"));
+        Assert.assertEquals(0, list.get(1).getLong("created-on"));
+        Assert.assertEquals(32767, result.getShort("shortTest"));
+    }
+
+    private byte[] readBigTest() throws IOException {
+        InputStream raw = getClass().getResourceAsStream("/nbt/bigtest.nbt");
+        Assert.assertNotNull("Failed to get test resource /nbt/bigtest.nbt", raw);
+        try (InputStream in = new GZIPInputStream(raw)) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private CompoundTag readLazy(byte[] bytes) throws IOException {
+        try (NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(bytes), false)) {
+            return in.readLazyCompound();
+        }
+    }
+
+    private byte[] write(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(bytesOut, false)) {
+            out.writeTag(tag);
+        }
+        return bytesOut.toByteArray();
+    }
+
     private CompoundTag saveLoad(CompoundTag tag) throws IOException {
         ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
         try (NBTOutputStream out = new NBTOutputStream(bytesOut)) {
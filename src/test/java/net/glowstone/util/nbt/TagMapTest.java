@@ -0,0 +1,87 @@
+package net.glowstone.util.nbt;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TagMap}.
+ */
+public class TagMapTest {
+
+    @Test
+    public void testOrderAcrossLimit() {
+        TagMap map = new TagMap();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2 * TagMap.ARRAY_LIMIT; ++i) {
+            String key = "key" + (2 * TagMap.ARRAY_LIMIT - i);
+            assertNull(map.put(key, IntTag.valueOf(i)));
+            expected.add(key);
+            assertEquals(expected, new ArrayList<>(map.keySet()));
+            assertEquals(IntTag.valueOf(0), map.get("key" + 2 * TagMap.ARRAY_LIMIT));
+        }
+        assertEquals(2 * TagMap.ARRAY_LIMIT, map.size());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        TagMap map = new TagMap();
+        map.put("a", IntTag.valueOf(1));
+        map.put("b", IntTag.valueOf(2));
+        map.put("c", IntTag.valueOf(3));
+
+        // equal but not identical keys are found too
+        assertEquals(IntTag.valueOf(2), map.put(new String("b"), IntTag.valueOf(20)));
+        assertEquals(IntTag.valueOf(20), map.get("b"));
+        assertEquals(IntTag.valueOf(1), map.remove("a"));
+        assertNull(map.remove("a"));
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(map.keySet()));
+
+        Iterator<Map.Entry<String, Tag>> it = map.entrySet().iterator();
+        Map.Entry<String, Tag> entry = it.next();
+        entry.setValue(IntTag.valueOf(200));
+        it.remove();
+        assertEquals("c", it.next().getKey());
+        assertFalse(it.hasNext());
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey("b"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        map.put("d", IntTag.valueOf(4));
+        assertEquals(IntTag.valueOf(4), map.get("d"));
+    }
+
+    @Test
+    public void testCommonKeys() {
+        byte[] bytes = " Count id".getBytes(StandardCharsets.UTF_8);
+        assertSame("Count", TagMap.key(bytes, 1, 5));
+        assertSame("id", TagMap.key(bytes, 7, 2));
+        assertEquals("Coun", TagMap.key(bytes, 1, 4));
+    }
+
+    @Test
+    public void testCompound() {
+        CompoundTag compound = new CompoundTag();
+        for (int i = 0; i < 3 * TagMap.ARRAY_LIMIT; ++i) {
+            compound.putInt("int" + i, i * 1000);
+            compound.putShort("short" + i, i);
+        }
+        for (int i = 0; i < 3 * TagMap.ARRAY_LIMIT; ++i) {
+            assertEquals(i * 1000, compound.getInt("int" + i));
+            assertEquals(i, compound.getShort("short" + i));
+            assertTrue(compound.isInt("int" + i));
+            assertFalse(compound.isInt("short" + i));
+        }
+        compound.remove("int0");
+        assertFalse(compound.containsKey("int0"));
+        assertEquals(6 * TagMap.ARRAY_LIMIT - 1, compound.getValue().size());
+    }
+}